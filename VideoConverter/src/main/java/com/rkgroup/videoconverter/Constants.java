@@ -3,4 +3,5 @@ package com.rkgroup.videoconverter;
 public class Constants {
     public static final String KEY_PREF_VERSION = "key_pref_version";
     public static final String FFMPEG_PREFS = "ffmpeg_prefs";
+    public static final String KEY_PREF_ABI = "key_pref_abi";
 }
@@ -0,0 +1,104 @@
+package com.rkgroup.videoconverter;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * A package-private utility describing the target container formats the
+ * encoder has special handling for.
+ *
+ * @author Rufen Khokhar
+ */
+class ContainerFormats {
+
+    /**
+     * Audio only formats, mapped to the name of their ffmpeg muxer.
+     */
+    private static final HashMap<String, String> AUDIO_ONLY_MUXERS = new HashMap<>();
+
+    /**
+     * Audio only formats, mapped to the audio codecs they can store without
+     * re-encoding.
+     */
+    private static final HashMap<String, String[]> AUDIO_ONLY_CODECS = new HashMap<>();
+
+    static {
+        addAudioOnlyFormat("mp3", "mp3", "mp3");
+        addAudioOnlyFormat("m4a", "ipod", "aac", "alac");
+        addAudioOnlyFormat("ipod", "ipod", "aac", "alac");
+        addAudioOnlyFormat("aac", "adts", "aac");
+        addAudioOnlyFormat("adts", "adts", "aac");
+        addAudioOnlyFormat("opus", "opus", "opus");
+        addAudioOnlyFormat("wav", "wav", "pcm_s16le", "pcm_s24le", "pcm_s32le", "pcm_u8",
+                "pcm_f32le", "pcm_alaw", "pcm_mulaw");
+        addAudioOnlyFormat("flac", "flac", "flac");
+    }
+
+    private ContainerFormats() {
+    }
+
+    private static void addAudioOnlyFormat(String format, String muxer, String... codecs) {
+        AUDIO_ONLY_MUXERS.put(format, muxer);
+        AUDIO_ONLY_CODECS.put(format, codecs);
+    }
+
+    /**
+     * Returns the audio only format of the target, looking at the format name
+     * first and at the target file extension when no format is given.
+     *
+     * @param format The format name of the target, can be null.
+     * @param target The target file.
+     * @return The audio only format name, or null if the target can store
+     * video.
+     */
+    static String getAudioOnlyFormat(String format, File target) {
+        String name = format;
+        if (name == null) {
+            String fileName = target.getName();
+            int dot = fileName.lastIndexOf('.');
+            if (dot < 0) {
+                return null;
+            }
+            name = fileName.substring(dot + 1);
+        }
+        name = name.toLowerCase(Locale.US);
+        return AUDIO_ONLY_MUXERS.containsKey(name) ? name : null;
+    }
+
+    /**
+     * @param audioOnlyFormat An audio only format name.
+     * @return The name of the ffmpeg muxer writing the format.
+     */
+    static String getMuxerName(String audioOnlyFormat) {
+        return AUDIO_ONLY_MUXERS.get(audioOnlyFormat);
+    }
+
+    /**
+     * Checks if an audio stream can be copied in an audio only format without
+     * re-encoding.
+     *
+     * @param audioOnlyFormat An audio only format name.
+     * @param decoder         The decoder name of the source audio stream, as
+     *                        reported by {@link AudioInfo#getDecoder()}.
+     * @return true if the stream can be copied.
+     */
+    static boolean canCopyAudio(String audioOnlyFormat, String decoder) {
+        String[] codecs = AUDIO_ONLY_CODECS.get(audioOnlyFormat);
+        if (codecs == null || decoder == null) {
+            return false;
+        }
+        // "aac (LC) (mp4a / 0x6134706D)" -> "aac"
+        String codec = decoder.trim();
+        int space = codec.indexOf(' ');
+        if (space > 0) {
+            codec = codec.substring(0, space);
+        }
+        for (String candidate : codecs) {
+            if (candidate.equalsIgnoreCase(codec)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
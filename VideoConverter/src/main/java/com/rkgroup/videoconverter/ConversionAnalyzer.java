@@ -1,5 +1,6 @@
 package com.rkgroup.videoconverter;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.rkgroup.videoconverter.exceptions.EncoderError;
@@ -28,6 +29,7 @@ class ConversionAnalyzer {
 
     private final long duration;
     private final List<String> unhandledMessages = new LinkedList<>();
+    private final ConversionStats stats = new ConversionStats();
     // Step 0 = Before input stuff
     // Step 1 = Input stuff
     // Step 2 = Stream Mapping
@@ -52,6 +54,8 @@ class ConversionAnalyzer {
         }
         if (line.startsWith("Press [q]")) {
             // Abort messages
+        } else if (line.startsWith("bench:")) {
+            parseBenchmarkLine(line);
         } else {
             switch (step) {
                 case 0: {
@@ -96,6 +100,7 @@ class ConversionAnalyzer {
                     if (line.startsWith("  ")) {
                         // output details
                     } else if (line.startsWith("video:")) {
+                        parseSummaryLine(line);
                         step = 4;
                     } else if (line.startsWith("frame=")) {
                         // Progress notification video
@@ -119,6 +124,10 @@ class ConversionAnalyzer {
                     line = line.trim();
                     if (line.length() > 0) {
                         HashMap<String, String> table = parseProgressInfoLine(line);
+                        stats.addProgress(parseLong(table.get("frame")), parseFloat(table.get("fps"), ""),
+                                parseFloat(table.get("speed"), "x"), parseBitRate(table.get("bitrate")),
+                                parseSize(table.containsKey("Lsize") ? table.get("Lsize") : table.get("size")),
+                                SystemClock.elapsedRealtime());
                         if (listener != null) {
                             String time = table.get("time");
                             if (time != null) {
@@ -171,6 +180,125 @@ class ConversionAnalyzer {
         return table;
     }
 
+    /**
+     * Private utility. Parses the final summary line, like "video:1520kB
+     * audio:187kB subtitle:0kB other streams:0kB global headers:0kB muxing
+     * overhead: 0.462%".
+     *
+     * @param line The summary line.
+     */
+    private void parseSummaryLine(String line) {
+        stats.setStreamBytes(parseSize(getSummaryValue(line, "video:")),
+                parseSize(getSummaryValue(line, "audio:")),
+                parseSize(getSummaryValue(line, "subtitle:")),
+                parseSize(getSummaryValue(line, "other streams:")),
+                parseSize(getSummaryValue(line, "global headers:")));
+        stats.setMuxingOverhead(parseFloat(getSummaryValue(line, "muxing overhead:"), "%"));
+    }
+
+    /**
+     * @return The value following the key up to the next space, null if the
+     * key is not in the line
+     */
+    private static String getSummaryValue(String line, String key) {
+        int start = line.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        while (start < line.length() && line.charAt(start) == ' ') {
+            start++;
+        }
+        int end = line.indexOf(' ', start);
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
+    /**
+     * Private utility. Parses the benchmark lines, "bench: utime=4.412s
+     * stime=0.154s rtime=2.318s" and "bench: maxrss=92756kB".
+     *
+     * @param line The benchmark line.
+     */
+    private void parseBenchmarkLine(String line) {
+        HashMap<String, String> table = parseProgressInfoLine(line);
+        float userTime = parseFloat(table.get("utime"), "s");
+        float systemTime = parseFloat(table.get("stime"), "s");
+        if (userTime >= 0 && systemTime >= 0) {
+            stats.setCpuTimes(Math.round(userTime * 1000), Math.round(systemTime * 1000));
+        }
+        long maxResidentSize = parseSize(table.get("maxrss"));
+        if (maxResidentSize >= 0) {
+            stats.setMaxResidentSize(maxResidentSize);
+        }
+    }
+
+    /**
+     * @return The number, -1 if missing or N/A
+     */
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param value The value, like 1.25x.
+     * @param unit  The unit of the value, like x.
+     * @return The number, -1 if missing or N/A
+     */
+    private static float parseFloat(String value, String unit) {
+        if (value == null || !value.endsWith(unit)) {
+            return -1;
+        }
+        try {
+            return Float.parseFloat(value.substring(0, value.length() - unit.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param value The size, like 1024kB (ffmpeg kB are 1024 bytes) or
+     *              1024KiB.
+     * @return The bytes, -1 if missing or N/A
+     */
+    private static long parseSize(String value) {
+        if (value == null) {
+            return -1;
+        }
+        float size = parseFloat(value, "KiB");
+        if (size < 0) {
+            size = parseFloat(value, "kB");
+        }
+        if (size < 0) {
+            size = parseFloat(value, "B");
+        } else {
+            size *= 1024;
+        }
+        return size < 0 ? -1 : Math.round(size);
+    }
+
+    /**
+     * @param value The bitrate, like 1677.7kbits/s.
+     * @return The bits/s, -1 if missing or N/A
+     */
+    private static long parseBitRate(String value) {
+        float bitRate = parseFloat(value, "kbits/s");
+        return bitRate < 0 ? -1 : Math.round(bitRate * 1000);
+    }
+
+    /**
+     * @return the statistics of the encoding
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+
     /**
      * @return the unhandledMessages
      */
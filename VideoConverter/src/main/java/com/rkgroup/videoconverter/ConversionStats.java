@@ -0,0 +1,239 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The statistics of an encoding, collected from the progress lines, the final
+ * summary and the benchmark lines (-benchmark) of ffmpeg. A value less than 0
+ * is not available.
+ *
+ * @author Rufen Khokhar
+ */
+public class ConversionStats {
+
+    /**
+     * The shortest interval (millis) of the peak speed: lines read late come
+     * in bursts, ffmpeg prints them every 500 ms.
+     */
+    private static final long MIN_PEAK_INTERVAL = 400;
+
+    private long frames = -1;
+    private float averageFps = -1;
+    private float peakFps = -1;
+    private float speed = -1;
+    private long bitRate = -1;
+    private long size = -1;
+    private long videoBytes = -1;
+    private long audioBytes = -1;
+    private long subtitleBytes = -1;
+    private long otherBytes = -1;
+    private long globalHeadersBytes = -1;
+    private float muxingOverhead = -1;
+    private long wallTime = -1;
+    private long userTime = -1;
+    private long systemTime = -1;
+    private long maxResidentSize = -1;
+
+    /**
+     * The wall clock time (millis) and frames of the last progress line, for
+     * the peak speed.
+     */
+    private long lastProgressTime = -1;
+    private long lastProgressFrames = -1;
+
+    /**
+     * @return The encoded frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The average encoding speed (frames/s), as reported by ffmpeg.
+     */
+    public float getAverageFps() {
+        return averageFps;
+    }
+
+    /**
+     * @return The fastest encoding speed (frames/s) between two progress
+     * lines.
+     */
+    public float getPeakFps() {
+        return peakFps;
+    }
+
+    /**
+     * @return The encoding speed relative to real time (2 is twice as fast
+     * as the playback).
+     */
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return The bitrate of the output (bits/s).
+     */
+    public long getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * @return The size of the output (bytes).
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The bytes of the video streams.
+     */
+    public long getVideoBytes() {
+        return videoBytes;
+    }
+
+    /**
+     * @return The bytes of the audio streams.
+     */
+    public long getAudioBytes() {
+        return audioBytes;
+    }
+
+    /**
+     * @return The bytes of the subtitle streams.
+     */
+    public long getSubtitleBytes() {
+        return subtitleBytes;
+    }
+
+    /**
+     * @return The bytes of the other (data, attachment) streams.
+     */
+    public long getOtherBytes() {
+        return otherBytes;
+    }
+
+    /**
+     * @return The bytes of the global headers.
+     */
+    public long getGlobalHeadersBytes() {
+        return globalHeadersBytes;
+    }
+
+    /**
+     * @return The container overhead, in percent of the streams bytes.
+     */
+    public float getMuxingOverhead() {
+        return muxingOverhead;
+    }
+
+    /**
+     * @return The wall clock time of the ffmpeg process (millis).
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * @return The user CPU time of the ffmpeg process (millis).
+     */
+    public long getUserTime() {
+        return userTime;
+    }
+
+    /**
+     * @return The system CPU time of the ffmpeg process (millis).
+     */
+    public long getSystemTime() {
+        return systemTime;
+    }
+
+    /**
+     * @return The CPU time (user and system) of the ffmpeg process (millis).
+     */
+    public long getCpuTime() {
+        return userTime < 0 || systemTime < 0 ? -1 : userTime + systemTime;
+    }
+
+    /**
+     * @return The peak resident memory of the ffmpeg process (bytes).
+     */
+    public long getMaxResidentSize() {
+        return maxResidentSize;
+    }
+
+    /**
+     * Package-private. Records a progress line.
+     *
+     * @param frames  The frames encoded so far, -1 for an audio encoding.
+     * @param fps     The average encoding speed so far.
+     * @param speed   The real time speed factor so far.
+     * @param bitRate The output bitrate so far (bits/s).
+     * @param size    The output size so far (bytes).
+     * @param time    The wall clock time of the line (millis).
+     */
+    void addProgress(long frames, float fps, float speed, long bitRate, long size, long time) {
+        if (frames >= 0) {
+            if (lastProgressTime < 0) {
+                lastProgressTime = time;
+                lastProgressFrames = frames;
+            } else if (time - lastProgressTime >= MIN_PEAK_INTERVAL) {
+                float instantFps = (frames - lastProgressFrames) * 1000f / (time - lastProgressTime);
+                peakFps = Math.max(peakFps, instantFps);
+                lastProgressTime = time;
+                lastProgressFrames = frames;
+            }
+            this.frames = frames;
+        }
+        if (fps >= 0) {
+            averageFps = fps;
+        }
+        if (speed >= 0) {
+            this.speed = speed;
+        }
+        if (bitRate >= 0) {
+            this.bitRate = bitRate;
+        }
+        if (size >= 0) {
+            this.size = size;
+        }
+    }
+
+    void setStreamBytes(long videoBytes, long audioBytes, long subtitleBytes, long otherBytes,
+                        long globalHeadersBytes) {
+        this.videoBytes = videoBytes;
+        this.audioBytes = audioBytes;
+        this.subtitleBytes = subtitleBytes;
+        this.otherBytes = otherBytes;
+        this.globalHeadersBytes = globalHeadersBytes;
+    }
+
+    void setMuxingOverhead(float muxingOverhead) {
+        this.muxingOverhead = muxingOverhead;
+    }
+
+    void setWallTime(long wallTime) {
+        this.wallTime = wallTime;
+    }
+
+    void setCpuTimes(long userTime, long systemTime) {
+        this.userTime = userTime;
+        this.systemTime = systemTime;
+    }
+
+    void setMaxResidentSize(long maxResidentSize) {
+        this.maxResidentSize = maxResidentSize;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(frames=" + frames + ", averageFps=" + averageFps
+                + ", peakFps=" + peakFps + ", speed=" + speed + ", bitRate=" + bitRate
+                + ", size=" + size + ", videoBytes=" + videoBytes + ", audioBytes=" + audioBytes
+                + ", subtitleBytes=" + subtitleBytes + ", otherBytes=" + otherBytes
+                + ", globalHeadersBytes=" + globalHeadersBytes + ", muxingOverhead=" + muxingOverhead
+                + ", wallTime=" + wallTime + ", userTime=" + userTime + ", systemTime=" + systemTime
+                + ", maxResidentSize=" + maxResidentSize + ")";
+    }
+}
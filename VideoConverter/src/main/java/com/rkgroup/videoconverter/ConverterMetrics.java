@@ -0,0 +1,45 @@
+package com.rkgroup.videoconverter;
+
+import com.rkgroup.videoconverter.metrics.Counter;
+import com.rkgroup.videoconverter.metrics.Gauge;
+import com.rkgroup.videoconverter.metrics.Histogram;
+import com.rkgroup.videoconverter.metrics.MetricsRegistry;
+
+/**
+ * A package-private holder of the metrics recorded by the library, in the
+ * default {@link MetricsRegistry}.
+ *
+ * @author Rufen Khokhar
+ */
+final class ConverterMetrics {
+
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    static final Gauge QUEUE_DEPTH = REGISTRY.gauge("videoconverter_queue_depth",
+            "Conversions waiting for their converter thread");
+    static final Gauge ACTIVE_PROCESSES = REGISTRY.gauge("videoconverter_active_processes",
+            "Running ffmpeg processes");
+    static final Counter JOBS_STARTED = REGISTRY.counter("videoconverter_jobs_started_total",
+            "Encodings started");
+    static final Counter JOBS_COMPLETED = REGISTRY.counter("videoconverter_jobs_completed_total",
+            "Encodings completed");
+    static final Counter JOBS_FAILED = REGISTRY.counter("videoconverter_jobs_failed_total",
+            "Encodings failed");
+    static final Counter JOBS_CANCELLED = REGISTRY.counter("videoconverter_jobs_cancelled_total",
+            "Encodings aborted");
+    static final Histogram SPAWN_LATENCY = REGISTRY.histogram("videoconverter_spawn_latency_seconds",
+            "Time to start an ffmpeg process",
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1);
+    static final Histogram FIRST_PROGRESS = REGISTRY.histogram("videoconverter_first_progress_seconds",
+            "Time from the start of an encoding to its first progress",
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30);
+    static final Histogram ENCODE_SPEED = REGISTRY.histogram("videoconverter_encode_speed",
+            "Encoding speed relative to real time",
+            0.25, 0.5, 1, 2, 4, 8, 16, 32);
+    static final Histogram ENCODE_DURATION = REGISTRY.histogram("videoconverter_encode_duration_seconds",
+            "Wall time of the completed encodings",
+            1, 5, 15, 30, 60, 300, 900, 1800, 3600);
+
+    private ConverterMetrics() {
+    }
+}
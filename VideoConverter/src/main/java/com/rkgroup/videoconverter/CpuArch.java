@@ -5,5 +5,25 @@ package com.rkgroup.videoconverter;
  * Available CPU
  */
 public enum CpuArch {
-    ARMv7, x86, NONE
-}
\ No newline at end of file
+    ARMv7("armeabi-v7a"), ARM64("arm64-v8a"), x86("x86"), x86_64("x86_64"), NONE(null);
+
+    private final String abi;
+
+    CpuArch(String abi) {
+        this.abi = abi;
+    }
+
+    /**
+     * @return the Android ABI name, like arm64-v8a, null for NONE
+     */
+    public String getAbi() {
+        return abi;
+    }
+
+    /**
+     * @return true for the 64-bit architectures
+     */
+    public boolean is64Bit() {
+        return this == ARM64 || this == x86_64;
+    }
+}
@@ -1,27 +1,152 @@
 package com.rkgroup.videoconverter;
 
+import android.content.res.AssetManager;
 import android.os.Build;
 import android.util.Log;
 
- class CpuArchHelper {
-     public static final String X86_CPU = "x86";
-     public static final String X86_64_CPU = "x86_64";
-     public static final String ARM_64_CPU = "arm64-v8a";
-     public static final String ARM_V7_CPU = "armeabi-v7a";
-     private static final String TAG = "CpuArchHelper";
-
-     public static CpuArch getCpuArch() {
-         Log.d(TAG, "Build.CPU_ABI : " + Build.CPU_ABI);
-
-         switch (Build.CPU_ABI) {
-            case X86_CPU:
-            case X86_64_CPU:
-                return CpuArch.x86;
-            case ARM_64_CPU:
-            case ARM_V7_CPU:
-                return CpuArch.ARMv7;
-            default:
-                return CpuArch.NONE;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the ffmpeg binary matching the CPU. A binary per ABI can be shipped
+ * in the assets as &lt;abi&gt;/ffmpeg_binary_file (or .gz), like
+ * arm64-v8a/ffmpeg_binary_file; the first supported ABI of the device with a
+ * binary wins. Without per ABI binaries the single ffmpeg_binary_file asset,
+ * a 32-bit build, is used.
+ */
+class CpuArchHelper {
+    public static final String X86_CPU = "x86";
+    public static final String X86_64_CPU = "x86_64";
+    public static final String ARM_64_CPU = "arm64-v8a";
+    public static final String ARM_V7_CPU = "armeabi-v7a";
+    private static final String TAG = "CpuArchHelper";
+
+    /**
+     * @return the 32-bit architecture of the single binary asset, matching
+     * the primary ABI of the device
+     */
+    public static CpuArch getCpuArch() {
+        List<String> abis = getSupportedAbis();
+        Log.d(TAG, "supported ABIs : " + abis);
+        for (String abi : abis) {
+            switch (abi) {
+                case X86_CPU:
+                case X86_64_CPU:
+                    return CpuArch.x86;
+                case ARM_64_CPU:
+                case ARM_V7_CPU:
+                    return CpuArch.ARMv7;
+                default:
+                    break;
+            }
+        }
+        return CpuArch.NONE;
+    }
+
+    /**
+     * Picks the best architecture with a binary in the assets, in the
+     * preference order of the device.
+     *
+     * @param assets The application assets.
+     * @return the architecture of a per ABI binary, or {@link #getCpuArch()}
+     * if there is none
+     */
+    public static CpuArch getCpuArch(AssetManager assets) {
+        for (String abi : getSupportedAbis()) {
+            CpuArch arch = fromAbi(abi);
+            if (arch != CpuArch.NONE && getAbiAsset(assets, arch) != null) {
+                return arch;
+            }
+        }
+        return getCpuArch();
+    }
+
+    /**
+     * @param assets The application assets.
+     * @param arch   The architecture.
+     * @return the binary asset for this architecture, the single binary if
+     * there is no per ABI binary
+     */
+    public static String getBinaryAsset(AssetManager assets, CpuArch arch) {
+        String asset = getAbiAsset(assets, arch);
+        return asset != null ? asset : FileManager.FFMPEG_BINARY_FILE;
+    }
+
+    private static String getAbiAsset(AssetManager assets, CpuArch arch) {
+        if (arch.getAbi() == null) {
+            return null;
+        }
+        String asset = arch.getAbi() + "/" + FileManager.FFMPEG_BINARY_FILE;
+        try {
+            String[] files = assets.list(arch.getAbi());
+            if (files != null) {
+                for (String file : files) {
+                    if (file.equals(FileManager.FFMPEG_BINARY_FILE)
+                            || file.equals(FileManager.FFMPEG_BINARY_FILE + ".gz")) {
+                        return asset;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "unable to list the assets of " + arch.getAbi(), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the ABIs supported by the device, preferred first; on plain
+     * Linux the ABI matching os.arch
+     */
+    @SuppressWarnings("deprecation")
+    static List<String> getSupportedAbis() {
+        List<String> abis = new ArrayList<>();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Build.SUPPORTED_ABIS != null) {
+            Collections.addAll(abis, Build.SUPPORTED_ABIS);
+        } else {
+            if (Build.CPU_ABI != null && !Build.CPU_ABI.isEmpty()) {
+                abis.add(Build.CPU_ABI);
+            }
+            if (Build.CPU_ABI2 != null && !Build.CPU_ABI2.isEmpty()) {
+                abis.add(Build.CPU_ABI2);
+            }
+        }
+        if (abis.isEmpty()) {
+            String arch = System.getProperty("os.arch", "").toLowerCase(Locale.US);
+            switch (arch) {
+                case "aarch64":
+                case "arm64":
+                    abis.add(ARM_64_CPU);
+                    abis.add(ARM_V7_CPU);
+                    break;
+                case "amd64":
+                case "x86_64":
+                    abis.add(X86_64_CPU);
+                    abis.add(X86_CPU);
+                    break;
+                case "x86":
+                case "i386":
+                case "i686":
+                    abis.add(X86_CPU);
+                    break;
+                default:
+                    if (arch.startsWith("arm")) {
+                        abis.add(ARM_V7_CPU);
+                    }
+                    break;
+            }
+        }
+        return abis;
+    }
+
+    private static CpuArch fromAbi(String abi) {
+        for (CpuArch arch : CpuArch.values()) {
+            if (abi.equals(arch.getAbi())) {
+                return arch;
+            }
         }
+        return CpuArch.NONE;
     }
-}
\ No newline at end of file
+}
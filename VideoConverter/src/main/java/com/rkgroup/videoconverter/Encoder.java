@@ -1,17 +1,30 @@
 package com.rkgroup.videoconverter;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.rkgroup.videoconverter.exceptions.EncoderError;
 import com.rkgroup.videoconverter.listeners.EncoderProgressListener;
-import com.rkgroup.videoconverter.videofilters.VideoFilter;
+import com.rkgroup.videoconverter.tracing.Span;
+import com.rkgroup.videoconverter.tracing.Tracing;
+import com.rkgroup.videoconverter.videofilters.FilterGraph;
+import com.rkgroup.videoconverter.videofilters.FilterGraphOptimizer;
+import com.rkgroup.videoconverter.videofilters.FilterNode;
+import com.rkgroup.videoconverter.videofilters.VideoOverlayImage;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Locale;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,6 +38,43 @@ public class Encoder {
 
     private static final String TAG = "Encoder";
 
+    /**
+     * The audio bitrate assumed by a target size encoding when the audio
+     * bitrate is not set (bits/s).
+     */
+    static final long DEFAULT_AUDIO_BIT_RATE = 128000;
+
+    /**
+     * The share of a target size kept for the container.
+     */
+    static final double CONTAINER_OVERHEAD = 0.02;
+
+    /**
+     * The lowest video bitrate of a target size encoding (bits/s).
+     */
+    private static final long MIN_VIDEO_BIT_RATE = 16000;
+
+    /**
+     * The scratch space reserved by the pass logs of a two-pass encoding.
+     */
+    private static final long PASS_LOG_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * The scratch space reserved by a concat list.
+     */
+    private static final long CONCAT_LIST_SIZE = 64L * 1024;
+
+    /**
+     * The free space (bytes) kept on the device, below which Android reports
+     * low storage.
+     */
+    private static final long SPACE_MARGIN = 50L * 1024 * 1024;
+
+    /**
+     * How often (millis) a waiting encoding checks the free space.
+     */
+    private static final long SPACE_POLL_INTERVAL = 5000;
+
     /**
      * This regexp is used to parse the ffmpeg output about the supported
      * formats.
@@ -47,6 +97,19 @@ public class Encoder {
             "^\\s*video\\:\\S+\\s+audio\\:\\S+\\s+subtitle\\:\\S+\\s+global headers\\:\\S+.*$",
             Pattern.CASE_INSENSITIVE);
 
+    /**
+     * The encoders, decoders and formats of the ffmpeg executables, by
+     * executable (path, size, modification time) and query. They only change
+     * with the executable.
+     */
+    private static final HashMap<String, String[]> CAPABILITIES = new HashMap<>();
+
+    /**
+     * The estimated size of the outputs being encoded, by output. The space
+     * they will still take is not free for a new encoding.
+     */
+    private static final HashMap<File, Long> PENDING_OUTPUTS = new HashMap<>();
+
     /**
      * The locator of the ffmpeg executable used by this encoder.
      */
@@ -56,13 +119,35 @@ public class Encoder {
      * The executor used to do the conversion
      * Is saved here, so we can abort the conversion process
      */
-    private FFMPEGExecutor ffmpegExecutor;
+    private volatile FFMPEGExecutor ffmpegExecutor;
 
     /**
      * List of unhandled messages from ffmpeng run
      */
     private List<String> unhandledMessages = null;
 
+    /**
+     * The statistics of the last encoding
+     */
+    private ConversionStats conversionStats = null;
+
+    /**
+     * Was the running encoding aborted?
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * The output whose estimated size is counted as taken by the running
+     * encoding, released when the encoding is over.
+     */
+    private File reservedOutput = null;
+
+    /**
+     * The directory of the intermediate files, null to write them next to
+     * the target.
+     */
+    private ScratchSpace scratchSpace = null;
+
     /**
      * It builds an encoder using a {@link LocalFFMPEGLocator} instance to
      * locate the ffmpeg executable to use.
@@ -81,6 +166,24 @@ public class Encoder {
         this.locator = locator;
     }
 
+    /**
+     * @return the scratchSpace
+     */
+    public ScratchSpace getScratchSpace() {
+        return scratchSpace;
+    }
+
+    /**
+     * Sets the directory of the intermediate files (pass logs, concat lists).
+     * An encoding then waits for the scratch space it needs.
+     *
+     * @param scratchSpace the scratchSpace to set, null to write the
+     *                     intermediate files next to the target
+     */
+    public void setScratchSpace(ScratchSpace scratchSpace) {
+        this.scratchSpace = scratchSpace;
+    }
+
     /**
      * Returns a list with the names of all the audio decoders bundled with the
      * ffmpeg distribution in use. An audio stream can be decoded only if a
@@ -116,6 +219,11 @@ public class Encoder {
      * @return A list with the names of all the included encoders
      */
     protected String[] getCoders(boolean encoder, boolean audio) throws EncoderError {
+        String key = getCapabilityKey((encoder ? "encoders|" : "decoders|") + (audio ? "A" : "V"));
+        String[] cached = getCapability(key);
+        if (cached != null) {
+            return cached;
+        }
         ArrayList<String> res = new ArrayList<>();
         FFMPEGExecutor localFFMPEG = locator.createExecutor();
         localFFMPEG.addArgument(encoder ? "-encoders" : "-decoders");
@@ -162,6 +270,10 @@ public class Encoder {
         for (int i = 0; i < size; i++) {
             ret[i] = res.get(i);
         }
+        if (size > 0) {
+            // Not cached when ffmpeg failed
+            putCapability(key, ret);
+        }
         return ret;
     }
 
@@ -219,6 +331,11 @@ public class Encoder {
      *                      ffmpeg executable.
      */
     protected String[] getSupportedCodingFormats(boolean encoding) throws EncoderError {
+        String key = getCapabilityKey(encoding ? "formats|E" : "formats|D");
+        String[] cached = getCapability(key);
+        if (cached != null) {
+            return cached;
+        }
         ArrayList<String> res = new ArrayList<>();
         FFMPEGExecutor localFFMPEG = locator.createExecutor();
         localFFMPEG.addArgument("-formats");
@@ -270,9 +387,36 @@ public class Encoder {
         for (int i = 0; i < size; i++) {
             ret[i] = res.get(i);
         }
+        if (size > 0) {
+            // Not cached when ffmpeg failed
+            putCapability(key, ret);
+        }
         return ret;
     }
 
+    /**
+     * Private utility. Builds the key of a capability query, changed when
+     * the ffmpeg executable is replaced.
+     */
+    private String getCapabilityKey(String query) {
+        String path = locator.getFFMPEGExecutablePath();
+        File executable = new File(path);
+        return path + "|" + executable.length() + "|" + executable.lastModified() + "|" + query;
+    }
+
+    private static String[] getCapability(String key) {
+        synchronized (CAPABILITIES) {
+            String[] capability = CAPABILITIES.get(key);
+            return capability != null ? capability.clone() : null;
+        }
+    }
+
+    private static void putCapability(String key, String[] capability) {
+        synchronized (CAPABILITIES) {
+            CAPABILITIES.put(key, capability.clone());
+        }
+    }
+
     /**
      * Returns a list with the names of all the file formats supported at
      * decoding time by the underlying ffmpeg distribution. A multimedia file
@@ -320,11 +464,14 @@ public class Encoder {
      *                          sure this file can be decoded (see null null null null     {@link Encoder#getSupportedDecodingFormats()},
      *                          {@link Encoder#getAudioDecoders()} and* {@link Encoder#getVideoDecoders()})
      *                          When passing multiple sources, make sure that they are compatible in the
-     *                          way that ffmpeg can concat them. We don't use the complex filter at the moment
+     *                          way that ffmpeg can concat them, see
+     *                          {@link EncoderProperties#setConcatMode(EncoderProperties.ConcatMode)}.
      *                          Perhaps you will need to first transcode/resize them
-     *                          https://trac.ffmpeg.org/wiki/Concatenate @see "Concat protocol"
+     *                          https://trac.ffmpeg.org/wiki/Concatenate
      * @param target            The target multimedia re-encoded file. It cannot be null.
      *                          If this file already exists, it will be overwrited.
+     *                          With a {@link SegmentedOutput} this is the directory
+     *                          receiving the segments and the playlists.
      * @param properties        A set of properties for the encoding process.
      * @param listener          An optional progress listener for the encoding process.
      *                          It can be null.
@@ -333,26 +480,194 @@ public class Encoder {
      */
     public void encode(List<FFMPEGMediaObject> multimediaObjects, File target, EncoderProperties properties,
                        EncoderProgressListener listener) {
+        Span span = Tracing.begin("encode");
+        try {
+            runEncoding(multimediaObjects, target, properties, listener);
+        } finally {
+            if (reservedOutput != null) {
+                releaseSpace(reservedOutput);
+                reservedOutput = null;
+            }
+            span.end();
+        }
+    }
+
+    /**
+     * Private utility. Runs an encoding, see
+     * {@link #encode(List, File, EncoderProperties, EncoderProgressListener)}.
+     */
+    private void runEncoding(List<FFMPEGMediaObject> multimediaObjects, File target, EncoderProperties properties,
+                             EncoderProgressListener listener) {
+        aborted = false;
+        conversionStats = null;
+        ConverterMetrics.JOBS_STARTED.increment();
+        listener = new MetricsListener(listener);
 
         String formatAttribute = properties.getFormat();
         Float offsetAttribute = properties.getOffset();
         Float durationAttribute = properties.getDuration();
         AudioProperties audioProperties = properties.getAudioProperties();
         VideoProperties videoProperties = properties.getVideoProperties();
+        SegmentedOutput segmentedOutput = properties.getSegmentedOutput();
         if (audioProperties == null && videoProperties == null) {
             listener.onReceivedError(new IllegalArgumentException(
                     "Both audio and video properties are null"));
             return;
         }
         target = target.getAbsoluteFile();
-        target.getParentFile().mkdirs();
+        String audioOnlyFormat = segmentedOutput == null && audioProperties != null
+                ? ContainerFormats.getAudioOnlyFormat(formatAttribute, target) : null;
+        if (audioOnlyFormat != null) {
+            // The target can't store video: don't let ffmpeg select, and
+            // decode, a video stream
+            videoProperties = null;
+        }
+        boolean filterConcat = multimediaObjects.size() > 1 && segmentedOutput == null
+                && properties.getConcatMode() == EncoderProperties.ConcatMode.FILTER;
+        boolean segmentedRenditions = segmentedOutput != null
+                && !segmentedOutput.getRenditions().isEmpty();
+        boolean filterGraph = videoProperties != null && !videoProperties.getVideoFilters().isEmpty()
+                && !segmentedRenditions && !filterConcat;
+        boolean twoPass = properties.getTargetSize() != null && videoProperties != null
+                && segmentedOutput == null;
+        if (twoPass && (videoProperties.getCodec() == null
+                || VideoProperties.COPY_ORIGINAL_STREAM.equals(videoProperties.getCodec()))) {
+            listener.onReceivedError(new IllegalArgumentException(
+                    "A target size requires a video codec"));
+            return;
+        }
+        if (segmentedRenditions && videoProperties != null) {
+            try {
+                checkRenditionBitRates(segmentedOutput, videoProperties);
+            } catch (EncoderError e) {
+                listener.onReceivedError(e);
+                return;
+            }
+        }
+        MediaInfo info = null;
+        boolean infoProbed = false;
+        StreamSelection streamSelection = segmentedOutput == null && !filterConcat
+                ? properties.getStreamSelection() : null;
+        if (segmentedOutput != null || audioOnlyFormat != null || filterGraph || twoPass
+                || streamSelection != null) {
+            // The stream layout of the playlists, the stream copy decision,
+            // the filter order, the target bitrate and the discarded streams
+            // depend on the source streams
+            try {
+                info = probeInfo(multimediaObjects);
+            } catch (EncoderError e) {
+                if (listener != null) {
+                    listener.onReceivedError(e);
+                }
+                return;
+            }
+            infoProbed = true;
+        }
+        if (segmentedOutput != null) {
+            target.mkdirs();
+        } else {
+            target.getParentFile().mkdirs();
+        }
+        List<MediaInfo> inputInfos = null;
+        File concatList = null;
+        boolean streamCopy = false;
+        if (filterConcat) {
+            try {
+                inputInfos = probeAllInfos(multimediaObjects);
+                checkConcatStreams(inputInfos, videoProperties, audioProperties);
+            } catch (EncoderError e) {
+                if (listener != null) {
+                    listener.onReceivedError(e);
+                }
+                return;
+            }
+        } else if (multimediaObjects.size() > 1
+                && properties.getConcatMode() == EncoderProperties.ConcatMode.DEMUXER) {
+            try {
+                inputInfos = probeAllInfos(multimediaObjects);
+                concatList = writeConcatList(multimediaObjects, target.getParentFile());
+            } catch (EncoderError e) {
+                if (listener != null) {
+                    listener.onReceivedError(e);
+                }
+                return;
+            } catch (IOException e) {
+                if (listener != null) {
+                    listener.onReceivedError(new EncoderError(e));
+                }
+                return;
+            }
+            streamCopy = segmentedOutput == null && haveSameCodecParameters(inputInfos)
+                    && !requiresVideoEncoding(videoProperties)
+                    && !requiresAudioEncoding(audioProperties);
+            Log.d(TAG, String.format("Concat demuxer with %d sources, stream copy: %b",
+                    multimediaObjects.size(), streamCopy));
+        }
+        GrowingFile growingFile = multimediaObjects.size() == 1 && !multimediaObjects.get(0).isURL()
+                ? multimediaObjects.get(0).getGrowingFile() : null;
+        if (growingFile != null && twoPass) {
+            // Both passes read the whole source: wait for the end of its copy
+            try {
+                growingFile.awaitEnd();
+            } catch (IOException e) {
+                deleteScratchFile(concatList);
+                listener.onReceivedError(new EncoderError(e));
+                return;
+            }
+            growingFile = null;
+        }
+        Integer targetBitRate = null;
+        File passLogDirectory = null;
+        if (twoPass) {
+            try {
+                targetBitRate = getTargetBitRate(properties.getTargetSize(),
+                        getEncodedDuration(durationAttribute, offsetAttribute, info, inputInfos),
+                        audioProperties, info);
+                if (scratchSpace != null) {
+                    passLogDirectory = scratchSpace.createDirectory("passlog-", PASS_LOG_SIZE);
+                }
+            } catch (EncoderError e) {
+                deleteScratchFile(concatList);
+                listener.onReceivedError(e);
+                return;
+            }
+            if (passLogDirectory == null) {
+                passLogDirectory = new File(target.getParentFile(), "passlog-" + System.nanoTime());
+                passLogDirectory.mkdirs();
+            }
+        }
+        if (segmentedOutput == null && scratchSpace != null) {
+            scratchSpace.cleanUpPartialFiles(target.getParentFile());
+        }
+        File output = segmentedOutput != null ? target : ScratchSpace.getPartialFile(target);
+        if (properties.getSpaceCheck() != EncoderProperties.SpaceCheck.NONE) {
+            try {
+                if (!infoProbed) {
+                    info = probeInfo(multimediaObjects);
+                    infoProbed = true;
+                }
+                long estimatedSize = OutputSizeEstimator.estimate(
+                        getEncodedDuration(durationAttribute, offsetAttribute, info, inputInfos),
+                        videoProperties, audioProperties, streamCopy, properties.getTargetSize(), info,
+                        segmentedOutput);
+                reserveSpace(output, estimatedSize, properties);
+                reservedOutput = output;
+            } catch (EncoderError e) {
+                deleteScratchFile(concatList);
+                deletePassLogs(passLogDirectory);
+                listener.onReceivedError(e);
+                return;
+            }
+        }
         ffmpegExecutor = locator.createExecutor();
         // Set global options
+        // CPU times and peak memory of the process, printed when it ends
+        ffmpegExecutor.addArgument("-benchmark");
         if (properties.getFilterThreads() != -1) {
             ffmpegExecutor.addArgument("--filter_thread");
             ffmpegExecutor.addArgument(Integer.toString(properties.getFilterThreads()));
         }
-        if (offsetAttribute != null) {
+        if (offsetAttribute != null && !filterConcat) {
             ffmpegExecutor.addArgument("-ss");
             ffmpegExecutor.addArgument(String.valueOf(offsetAttribute.floatValue()));
         }
@@ -361,31 +676,64 @@ public class Encoder {
             ffmpegExecutor.addArgument("-threads");
             ffmpegExecutor.addArgument(Integer.toString(properties.getDecodingThreads()));
         }
-        ffmpegExecutor.addArgument("-i");
-        if (multimediaObjects.size() == 1) {
-            // Simple case with one input source
-            if (multimediaObjects.get(0).isURL()) {
-                ffmpegExecutor.addArgument(multimediaObjects.get(0).getURL().toString());
-            } else {
-                ffmpegExecutor.addArgument(multimediaObjects.get(0).getFile().getAbsolutePath());
+        if (filterConcat) {
+            for (int i = 0; i < multimediaObjects.size(); i++) {
+                FFMPEGMediaObject in = multimediaObjects.get(i);
+                if (i > 0 && properties.getDecodingThreads() != -1) {
+                    ffmpegExecutor.addArgument("-threads");
+                    ffmpegExecutor.addArgument(Integer.toString(properties.getDecodingThreads()));
+                }
+                ffmpegExecutor.addArgument("-i");
+                ffmpegExecutor.addArgument(in.isURL() ? in.getURL().toString() : in.getFile().getAbsolutePath());
+            }
+            // Applies to the joined stream
+            if (offsetAttribute != null) {
+                ffmpegExecutor.addArgument("-ss");
+                ffmpegExecutor.addArgument(String.valueOf(offsetAttribute.floatValue()));
             }
+            addConcatFilterArguments(inputInfos, videoProperties, audioProperties);
         } else {
-            StringBuilder inFiles = new StringBuilder();
-            inFiles.append("concat:");
-            boolean isFirst = true;
-            for (FFMPEGMediaObject in : multimediaObjects) {
-                if (isFirst) {
-                    isFirst = false;
+            if (concatList != null) {
+                ffmpegExecutor.addArgument("-f");
+                ffmpegExecutor.addArgument("concat");
+                ffmpegExecutor.addArgument("-safe");
+                ffmpegExecutor.addArgument("0");
+            }
+            if (streamSelection != null && concatList == null && multimediaObjects.size() == 1) {
+                addDiscardArguments(streamSelection, info, videoProperties != null,
+                        audioProperties != null);
+            }
+            ffmpegExecutor.addArgument("-i");
+            if (concatList != null) {
+                ffmpegExecutor.addArgument(concatList.getAbsolutePath());
+            } else if (multimediaObjects.size() == 1) {
+                // Simple case with one input source
+                if (multimediaObjects.get(0).isURL()) {
+                    ffmpegExecutor.addArgument(multimediaObjects.get(0).getURL().toString());
+                } else if (growingFile != null) {
+                    // Fed by a GrowingFileFeeder, ended by the end of the copy
+                    ffmpegExecutor.addArgument("pipe:0");
                 } else {
-                    inFiles.append("|");
+                    ffmpegExecutor.addArgument(multimediaObjects.get(0).getFile().getAbsolutePath());
                 }
-                if (in.isURL()) {
-                    inFiles.append(in.getURL().toString());
-                } else {
-                    inFiles.append(in.getFile().getAbsolutePath());
+            } else {
+                StringBuilder inFiles = new StringBuilder();
+                inFiles.append("concat:");
+                boolean isFirst = true;
+                for (FFMPEGMediaObject in : multimediaObjects) {
+                    if (isFirst) {
+                        isFirst = false;
+                    } else {
+                        inFiles.append("|");
+                    }
+                    if (in.isURL()) {
+                        inFiles.append(in.getURL().toString());
+                    } else {
+                        inFiles.append(in.getFile().getAbsolutePath());
+                    }
                 }
+                ffmpegExecutor.addArgument(inFiles.toString());
             }
-            ffmpegExecutor.addArgument(inFiles.toString());
         }
         if (durationAttribute != null) {
             ffmpegExecutor.addArgument("-t");
@@ -394,7 +742,7 @@ public class Encoder {
         if (videoProperties == null) {
             ffmpegExecutor.addArgument("-vn");
         } else {
-            String codec = videoProperties.getCodec();
+            String codec = streamCopy ? VideoProperties.COPY_ORIGINAL_STREAM : videoProperties.getCodec();
             if (codec != null) {
                 ffmpegExecutor.addArgument("-vcodec");
                 ffmpegExecutor.addArgument(codec);
@@ -404,18 +752,21 @@ public class Encoder {
                 ffmpegExecutor.addArgument("-vtag");
                 ffmpegExecutor.addArgument(tag);
             }
-            Integer bitRate = videoProperties.getBitRate();
+            Integer bitRate = twoPass ? targetBitRate : videoProperties.getBitRate();
             if (bitRate != null) {
+                // The -b:v:N of the renditions, added after it, override it
                 ffmpegExecutor.addArgument("-vb");
                 ffmpegExecutor.addArgument(String.valueOf(bitRate.intValue()));
             }
             Integer frameRate = videoProperties.getFrameRate();
-            if (frameRate != null) {
+            if (frameRate != null && !filterConcat && !filterGraph) {
+                // With filters the frame rate is part of the filter graph
                 ffmpegExecutor.addArgument("-r");
                 ffmpegExecutor.addArgument(String.valueOf(frameRate.intValue()));
             }
             VideoSize size = videoProperties.getSize();
-            if (size != null) {
+            if (size != null && !segmentedRenditions && !filterConcat && !filterGraph) {
+                // With filters the scaling is part of the filter graph
                 ffmpegExecutor.addArgument("-s");
                 ffmpegExecutor.addArgument(size.getWidth() + "x"
                         + size.getHeight());
@@ -431,23 +782,61 @@ public class Encoder {
                 ffmpegExecutor.addArgument(videoProperties.getX264Profile().getModeName());
             }
 
-            if (videoProperties.getVideoFilters().size() > 0) {
-                for (VideoFilter videoFilter : videoProperties.getVideoFilters()) {
-                    ffmpegExecutor.addArgument("-vf");
-                    ffmpegExecutor.addArgument(videoFilter.getExpression());
+            if (!streamCopy) {
+                for (String arg : VideoCodecOptions.getArguments(videoProperties, twoPass)) {
+                    ffmpegExecutor.addArgument(arg);
                 }
             }
 
+            if (filterGraph) {
+                // ffmpeg keeps only the last -vf: compose all the filters in one graph
+                FilterGraph graph = buildOutputFilterGraph(videoProperties, info);
+                ffmpegExecutor.addArgument("-vf");
+                ffmpegExecutor.addArgument(graph.getExpression());
+            }
+
             Integer quality = videoProperties.getQuality();
             if (quality != null) {
                 ffmpegExecutor.addArgument("-qscale:v");
                 ffmpegExecutor.addArgument(String.valueOf(quality.intValue()));
             }
         }
+        if (streamSelection != null) {
+            addStreamSelectionArguments(streamSelection, info, videoProperties != null,
+                    audioProperties != null);
+        }
+        List<String> firstPassArguments = null;
+        if (twoPass) {
+            // The first pass only analyses the video: same input and video
+            // options, no audio and no output
+            String passLogPrefix = new File(passLogDirectory, "pass").getAbsolutePath();
+            firstPassArguments = new ArrayList<>(ffmpegExecutor.getArguments());
+            firstPassArguments.addAll(VideoCodecOptions.getPassArguments(videoProperties, 1,
+                    passLogPrefix, properties.isFastFirstPass()));
+            firstPassArguments.add("-an");
+            if (properties.getEncodingThreads() != -1) {
+                firstPassArguments.add("-threads");
+                firstPassArguments.add(Integer.toString(properties.getEncodingThreads()));
+            }
+            Collections.addAll(firstPassArguments, "-f", "null", "-y", "/dev/null");
+            for (String arg : VideoCodecOptions.getPassArguments(videoProperties, 2,
+                    passLogPrefix, properties.isFastFirstPass())) {
+                ffmpegExecutor.addArgument(arg);
+            }
+        }
+        if (audioOnlyFormat != null && !filterConcat && streamSelection == null) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("0:a:0");
+        }
         if (audioProperties == null) {
             ffmpegExecutor.addArgument("-an");
         } else {
-            String codec = audioProperties.getCodec();
+            String codec = streamCopy ? AudioProperties.COPY_ORIGINAL_STREAM : audioProperties.getCodec();
+            if (codec == null && audioOnlyFormat != null
+                    && canCopyAudio(audioProperties, info, audioOnlyFormat)) {
+                // The source audio already fits the container
+                codec = AudioProperties.COPY_ORIGINAL_STREAM;
+            }
             if (codec != null) {
                 ffmpegExecutor.addArgument("-acodec");
                 ffmpegExecutor.addArgument(codec);
@@ -478,7 +867,10 @@ public class Encoder {
                 ffmpegExecutor.addArgument(String.valueOf(quality.intValue()));
             }
         }
-        if (formatAttribute != null) {
+        if (audioOnlyFormat != null) {
+            ffmpegExecutor.addArgument("-f");
+            ffmpegExecutor.addArgument(ContainerFormats.getMuxerName(audioOnlyFormat));
+        } else if (formatAttribute != null && segmentedOutput == null) {
             ffmpegExecutor.addArgument("-f");
             ffmpegExecutor.addArgument(formatAttribute);
         }
@@ -489,7 +881,17 @@ public class Encoder {
         }
 
         ffmpegExecutor.addArgument("-y");
-        ffmpegExecutor.addArgument(target.getAbsolutePath());
+        // Renamed to the target on success only, a failed encoding leaves
+        // neither a truncated file nor a replaced one
+        File partialTarget = segmentedOutput == null ? output : null;
+        if (segmentedOutput != null) {
+            boolean hasAudio = audioProperties != null
+                    && (info == null || info.getAudio() != null);
+            addSegmentedOutputArguments(segmentedOutput, target, videoProperties,
+                    audioProperties, hasAudio, info);
+        } else {
+            ffmpegExecutor.addArgument(partialTarget.getAbsolutePath());
+        }
 
         if (properties.isMapMetaData()) {   // Copy over meta data if possible
             ffmpegExecutor.addArgument("-map_metadata");
@@ -499,41 +901,84 @@ public class Encoder {
 //        ffmpegExecutor.addArgument("-loglevel");
 //        ffmpegExecutor.addArgument("warning"); // Only report errors
 
+        if (firstPassArguments != null) {
+            FFMPEGExecutor secondPass = ffmpegExecutor;
+            Span span = Tracing.begin("encode.first_pass");
+            try {
+                runFirstPass(firstPassArguments,
+                        getEncodedDuration(durationAttribute, offsetAttribute, info, inputInfos),
+                        info, listener);
+            } catch (IOException | EncoderError e) {
+                deleteScratchFile(concatList);
+                deletePassLogs(passLogDirectory);
+                listener.onReceivedError(e instanceof IOException ? new EncoderError(e) : e);
+                return;
+            } finally {
+                span.end();
+            }
+            ffmpegExecutor = secondPass;
+        }
+        // An abort destroys the executor in use, not this one if it did not
+        // start yet
+        FFMPEGExecutor executor = ffmpegExecutor;
+        GrowingFileFeeder feeder = null;
+        long start = SystemClock.elapsedRealtime();
         try {
-            ffmpegExecutor.execute();
+            if (aborted) {
+                throw new IOException("Encoding aborted");
+            }
+            executor.execute();
+            if (aborted) {
+                executor.destroy();
+            } else if (growingFile != null) {
+                feeder = new GrowingFileFeeder(growingFile, executor.getOutputStream());
+                feeder.start();
+            }
         } catch (IOException e) {
+            deleteScratchFile(concatList);
+            deletePassLogs(passLogDirectory);
             listener.onReceivedError(new EncoderError(e));
             return;
         }
+        // The phases of the process: until the streams are mapped, the first
+        // progress line, the last one, and the exit
+        Span phase = Tracing.begin("encode.open_input");
+        int phaseIndex = 0;
         try {
             String lastWarning = null;
             long duration = 0;
             RKBufferedReader reader = new RKBufferedReader(
-                    new InputStreamReader(ffmpegExecutor.getErrorStream()));
-            MediaInfo info = null;
-            if (multimediaObjects.size() == 1 && (!multimediaObjects.get(0).isURL() || !multimediaObjects.get(0).isReadURLOnce())) {
-                info = multimediaObjects.get(0).getInfo();
-            }
-            if (durationAttribute != null) {
-                duration = Math
-                        .round((durationAttribute * 1000L));
-            } else {
-                if (info != null) {
-                    duration = info.getDuration();
-                    if (offsetAttribute != null) {
-                        duration -= Math
-                                .round((offsetAttribute * 1000L));
-                    }
-                }
+                    new InputStreamReader(executor.getErrorStream()));
+            if (!infoProbed) {
+                info = probeInfo(multimediaObjects);
             }
-            if (listener != null) {
+            duration = getEncodedDuration(durationAttribute, offsetAttribute, info, inputInfos);
+            if (listener != null && !twoPass) {
+                // Already notified by the first pass
                 listener.onStartEncoding(info);
             }
             String line;
-            ConversionAnalyzer outputAnalyzer = new ConversionAnalyzer(duration, listener);
+            ConversionAnalyzer outputAnalyzer = new ConversionAnalyzer(duration,
+                    twoPass && listener != null ? new PassProgressListener(listener, 50) : listener);
+            SegmentTracker segmentTracker = segmentedOutput != null
+                    ? new SegmentTracker(segmentedOutput.getSegmentListener()) : null;
             while ((line = reader.readLine()) != null) {
                 outputAnalyzer.analyzeNewLine(line);
+                if (segmentTracker != null) {
+                    segmentTracker.analyzeNewLine(line);
+                }
+                if (phaseIndex == 0 && line.startsWith("Stream mapping:")) {
+                    phase.end();
+                    phase = Tracing.begin("encode.first_frame");
+                    phaseIndex = 1;
+                } else if (phaseIndex < 2 && (line.startsWith("frame=") || line.startsWith("size="))) {
+                    phase.end();
+                    phase = Tracing.begin("encode.encoding");
+                    phaseIndex = 2;
+                }
             }
+            phase.end();
+            phase = Tracing.begin("encode.finalize");
             if (outputAnalyzer.getLastWarning() != null) {
                 if (!SUCCESS_PATTERN.matcher(lastWarning).matches()) {
                     if (listener != null) {
@@ -543,7 +988,10 @@ public class Encoder {
                 }
             }
             unhandledMessages = outputAnalyzer.getUnhandledMessages();
-            int exitCode = ffmpegExecutor.getProcessExitCode();
+            int exitCode = executor.getProcessExitCode();
+            conversionStats = outputAnalyzer.getStats();
+            conversionStats.setWallTime(SystemClock.elapsedRealtime() - start);
+            Log.d(TAG, conversionStats.toString());
             if (exitCode != 0) {
                 Log.e(TAG, String.format("Process exit code: %d  to %s", exitCode, target.getName()), null);
                 if (listener != null) {
@@ -551,6 +999,35 @@ public class Encoder {
                 }
                 return;
             } else {
+                if (feeder != null) {
+                    // ffmpeg may end before the end of its input, a failed
+                    // or truncated copy is not a success
+                    try {
+                        growingFile.awaitEnd();
+                    } catch (IOException e) {
+                        if (listener != null) {
+                            listener.onReceivedError(new EncoderError(e));
+                        }
+                        return;
+                    }
+                    feeder.join();
+                    if (feeder.getFed() < growingFile.getLength() && durationAttribute == null) {
+                        if (listener != null) {
+                            listener.onReceivedError(new EncoderError("ffmpeg ended before the end of "
+                                    + growingFile.getFile()));
+                        }
+                        return;
+                    }
+                }
+                if (segmentTracker != null) {
+                    segmentTracker.finish();
+                }
+                if (partialTarget != null && !partialTarget.renameTo(target)) {
+                    if (listener != null) {
+                        listener.onReceivedError(new EncoderError("Unable to rename " + partialTarget + " to " + target));
+                    }
+                    return;
+                }
                 // if exitCode is 0 means success and progress is full
                 if (listener != null) {
                     listener.onUpdateProgress(100);
@@ -564,8 +1041,913 @@ public class Encoder {
                 listener.onReceivedError(e);
             }
         } finally {
-            ffmpegExecutor.destroy();
+            executor.destroy();
+            if (feeder != null) {
+                feeder.interrupt();
+            }
             ffmpegExecutor = null;
+            deleteScratchFile(concatList);
+            deletePassLogs(passLogDirectory);
+            if (partialTarget != null && partialTarget.exists()) {
+                partialTarget.delete();
+            }
+            phase.end();
+        }
+    }
+
+    /**
+     * Private utility. Checks that the estimated output fits the free space
+     * of its file system, and counts it as taken until the encoding is over.
+     *
+     * @param output        The output file, or directory of a segmented
+     *                      output.
+     * @param estimatedSize The estimated size of the output, -1 if unknown.
+     * @param properties    The encoding properties.
+     * @throws EncoderError If the output does not fit, or did not in time for
+     *                      a {@link EncoderProperties.SpaceCheck#WAIT} check.
+     */
+    private void reserveSpace(File output, long estimatedSize, EncoderProperties properties)
+            throws EncoderError {
+        if (estimatedSize < 0) {
+            Log.d(TAG, "Unknown output size, free space not checked");
+            return;
+        }
+        File directory = output.isDirectory() ? output : output.getParentFile();
+        long deadline = SystemClock.elapsedRealtime() + properties.getSpaceWaitTimeout();
+        synchronized (PENDING_OUTPUTS) {
+            while (true) {
+                long pending = 0;
+                for (Map.Entry<File, Long> entry : PENDING_OUTPUTS.entrySet()) {
+                    pending += Math.max(entry.getValue() - getSize(entry.getKey()), 0);
+                }
+                long usable = directory.getUsableSpace() - SPACE_MARGIN - pending;
+                if (estimatedSize <= usable) {
+                    Log.d(TAG, String.format(Locale.US, "Estimated output %d bytes, %d bytes usable",
+                            estimatedSize, usable));
+                    PENDING_OUTPUTS.put(output, estimatedSize);
+                    return;
+                }
+                String message = String.format(Locale.US,
+                        "Not enough space for %s, estimated %d bytes, %d bytes usable",
+                        output, estimatedSize, usable);
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (properties.getSpaceCheck() != EncoderProperties.SpaceCheck.WAIT || remaining <= 0) {
+                    throw new EncoderError(message);
+                }
+                if (aborted) {
+                    throw new EncoderError("Encoding aborted while waiting for space");
+                }
+                Log.d(TAG, message + ", waiting");
+                try {
+                    // Woken up by the end of an encoding, or polls for space
+                    // freed elsewhere
+                    PENDING_OUTPUTS.wait(Math.min(remaining, SPACE_POLL_INTERVAL));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EncoderError(e);
+                }
+            }
+        }
+    }
+
+    private static void releaseSpace(File output) {
+        synchronized (PENDING_OUTPUTS) {
+            if (PENDING_OUTPUTS.remove(output) != null) {
+                PENDING_OUTPUTS.notifyAll();
+            }
+        }
+    }
+
+    private static long getSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Private utility. Maps the selected streams to the output.
+     *
+     * @param selection The stream selection.
+     * @param info      The source informations, can be null.
+     * @param hasVideo  Is a video stream encoded?
+     * @param hasAudio  Is an audio stream encoded?
+     */
+    private void addStreamSelectionArguments(StreamSelection selection, MediaInfo info,
+                                             boolean hasVideo, boolean hasAudio) {
+        if (hasVideo) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("0:v:" + selection.getVideoStream());
+        }
+        if (hasAudio) {
+            // Optional maps (?): a source without audio is not an error
+            if (selection.isAllAudioStreams()) {
+                ffmpegExecutor.addArgument("-map");
+                ffmpegExecutor.addArgument("0:a?");
+            } else if (!selection.getAudioLanguages().isEmpty() && hasAudioLanguage(selection, info)) {
+                for (String language : selection.getAudioLanguages()) {
+                    ffmpegExecutor.addArgument("-map");
+                    ffmpegExecutor.addArgument("0:a:m:language:" + language + "?");
+                }
+            } else {
+                if (!selection.getAudioLanguages().isEmpty()) {
+                    Log.w(TAG, "No audio stream in " + selection.getAudioLanguages()
+                            + ", keeping the first one");
+                }
+                ffmpegExecutor.addArgument("-map");
+                ffmpegExecutor.addArgument("0:a:" + (selection.getAudioLanguages().isEmpty()
+                        ? selection.getAudioStream() : 0) + "?");
+            }
+        }
+        if (selection.isSubtitles()) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("0:s?");
+        } else {
+            ffmpegExecutor.addArgument("-sn");
+        }
+        if (selection.isData()) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("0:d?");
+            ffmpegExecutor.addArgument("-c:d");
+            ffmpegExecutor.addArgument("copy");
+        } else {
+            ffmpegExecutor.addArgument("-dn");
+        }
+    }
+
+    /**
+     * Private utility. Discards the streams left out by the selection when
+     * the source is demuxed, they are never decoded. Input options.
+     *
+     * @param selection The stream selection.
+     * @param info      The source informations, can be null.
+     * @param hasVideo  Is a video stream encoded?
+     * @param hasAudio  Is an audio stream encoded?
+     */
+    private void addDiscardArguments(StreamSelection selection, MediaInfo info,
+                                     boolean hasVideo, boolean hasAudio) {
+        if (info == null) {
+            // Stream layout unknown, the maps still select the streams
+            return;
+        }
+        for (int i = 0; i < info.getVideoStreamCount(); i++) {
+            if (!hasVideo || i != selection.getVideoStream()) {
+                ffmpegExecutor.addArgument("-discard:v:" + i);
+                ffmpegExecutor.addArgument("all");
+            }
+        }
+        boolean matching = hasAudioLanguage(selection, info);
+        List<String> languages = info.getAudioLanguages();
+        for (int i = 0; i < languages.size(); i++) {
+            if (!hasAudio || !selection.isAudioSelected(i, languages.get(i), matching)) {
+                ffmpegExecutor.addArgument("-discard:a:" + i);
+                ffmpegExecutor.addArgument("all");
+            }
+        }
+        if (!selection.isSubtitles() && info.getSubtitleStreamCount() > 0) {
+            ffmpegExecutor.addArgument("-discard:s");
+            ffmpegExecutor.addArgument("all");
+        }
+        if (!selection.isData() && info.getDataStreamCount() > 0) {
+            ffmpegExecutor.addArgument("-discard:d");
+            ffmpegExecutor.addArgument("all");
+        }
+    }
+
+    /**
+     * @return true if the source has an audio stream of a selected language,
+     * or if the languages of the source are unknown
+     */
+    private static boolean hasAudioLanguage(StreamSelection selection, MediaInfo info) {
+        if (info == null) {
+            return true;
+        }
+        for (String language : info.getAudioLanguages()) {
+            if (language != null && selection.getAudioLanguages().contains(language.toLowerCase(Locale.US))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Private utility. Computes the duration of the encoded stream.
+     *
+     * @param durationAttribute The duration property, can be null.
+     * @param offsetAttribute   The offset property, can be null.
+     * @param info              The source informations, can be null.
+     * @param inputInfos        The informations of every source, can be null.
+     * @return The duration (millis), 0 or less if unknown.
+     */
+    private static long getEncodedDuration(Float durationAttribute, Float offsetAttribute,
+                                           MediaInfo info, List<MediaInfo> inputInfos) {
+        if (durationAttribute != null) {
+            return Math.round((durationAttribute * 1000L));
+        }
+        long duration = 0;
+        if (info != null) {
+            duration = info.getDuration();
+        } else if (inputInfos != null) {
+            for (MediaInfo inputInfo : inputInfos) {
+                duration += Math.max(inputInfo.getDuration(), 0);
+            }
+        }
+        if (offsetAttribute != null) {
+            duration -= Math.round((offsetAttribute * 1000L));
+        }
+        return duration;
+    }
+
+    /**
+     * Private utility. Derives the video bitrate fitting a target size from
+     * the duration and the audio bitrate.
+     *
+     * @param targetSize      The target size (bytes).
+     * @param duration        The encoded duration (millis).
+     * @param audioProperties The audio properties, can be null.
+     * @param info            The source informations, can be null.
+     * @return The video bitrate (bits/s).
+     * @throws EncoderError If the duration is unknown or the target size too
+     *                      small.
+     */
+    private static int getTargetBitRate(long targetSize, long duration, AudioProperties audioProperties,
+                                        MediaInfo info) throws EncoderError {
+        if (duration <= 0) {
+            throw new EncoderError("Unable to derive a bitrate from a target size, unknown duration");
+        }
+        long audioBitRate = 0;
+        if (audioProperties != null) {
+            AudioInfo audioInfo = info != null ? info.getAudio() : null;
+            if (audioProperties.getBitRate() != null) {
+                audioBitRate = audioProperties.getBitRate();
+            } else if (audioInfo != null && audioInfo.getBitRate() > 0
+                    && AudioProperties.COPY_ORIGINAL_STREAM.equals(audioProperties.getCodec())) {
+                audioBitRate = audioInfo.getBitRate();
+            } else if (audioInfo != null || info == null) {
+                // Default bitrate of the usual audio encoders
+                audioBitRate = DEFAULT_AUDIO_BIT_RATE;
+            }
+        }
+        // Keep a share of the size for the container
+        double totalBitRate = targetSize * 8 * (1 - CONTAINER_OVERHEAD) * 1000d / duration;
+        long videoBitRate = (long) (totalBitRate - audioBitRate);
+        if (videoBitRate < MIN_VIDEO_BIT_RATE) {
+            throw new EncoderError(String.format(Locale.US,
+                    "Target size %d is too small for %d ms with %d bits/s of audio",
+                    targetSize, duration, audioBitRate));
+        }
+        Log.d(TAG, String.format(Locale.US, "Target size %d: video %d bits/s, audio %d bits/s",
+                targetSize, videoBitRate, audioBitRate));
+        return (int) Math.min(videoBitRate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Private utility. Runs the analysis pass of a two-pass encoding,
+     * reporting the first half of the progress.
+     *
+     * @param args     The first pass arguments.
+     * @param duration The encoded duration (millis).
+     * @param info     The source informations, can be null.
+     * @param listener The progress listener, can be null.
+     * @throws IOException  If the ffmpeg process can't be run.
+     * @throws EncoderError If the first pass fails.
+     */
+    private void runFirstPass(List<String> args, long duration, MediaInfo info,
+                              EncoderProgressListener listener) throws IOException, EncoderError {
+        FFMPEGExecutor firstPass = locator.createExecutor();
+        for (String arg : args) {
+            firstPass.addArgument(arg);
+        }
+        // Can be aborted as the encoding itself
+        ffmpegExecutor = firstPass;
+        try {
+            firstPass.execute();
+            if (listener != null) {
+                listener.onStartEncoding(info);
+            }
+            RKBufferedReader reader = new RKBufferedReader(
+                    new InputStreamReader(firstPass.getErrorStream()));
+            ConversionAnalyzer analyzer = new ConversionAnalyzer(duration,
+                    listener != null ? new PassProgressListener(listener, 0) : null);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                analyzer.analyzeNewLine(line);
+            }
+            int exitCode = firstPass.getProcessExitCode();
+            if (exitCode != 0) {
+                throw new EncoderError("Exit code of ffmpeg first pass is " + exitCode);
+            }
+        } finally {
+            firstPass.destroy();
+        }
+    }
+
+    private void deletePassLogs(File passLogDirectory) {
+        if (passLogDirectory == null) {
+            return;
+        }
+        if (scratchSpace != null && scratchSpace.getDirectory().equals(passLogDirectory.getParentFile())) {
+            scratchSpace.release(passLogDirectory);
+            return;
+        }
+        File[] files = passLogDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        passLogDirectory.delete();
+    }
+
+    /**
+     * Private utility. Deletes an intermediate file, released to the scratch
+     * space if it was created there.
+     *
+     * @param file The file, can be null.
+     */
+    private void deleteScratchFile(File file) {
+        if (file == null) {
+            return;
+        }
+        if (scratchSpace != null && scratchSpace.getDirectory().equals(file.getParentFile())) {
+            scratchSpace.release(file);
+        } else {
+            file.delete();
+        }
+    }
+
+    /**
+     * Private utility. Probes the source when there is a single source which
+     * can be read more than once.
+     *
+     * @param multimediaObjects The source multimedia files.
+     * @return The source informations, or null if the source is not probed.
+     * @throws EncoderError If a problem occurs calling the underlying
+     *                      ffmpeg executable.
+     */
+    private MediaInfo probeInfo(List<FFMPEGMediaObject> multimediaObjects) throws EncoderError {
+        if (multimediaObjects.size() == 1 && (!multimediaObjects.get(0).isURL() || !multimediaObjects.get(0).isReadURLOnce())) {
+            return multimediaObjects.get(0).getInfo();
+        }
+        return null;
+    }
+
+    /**
+     * Private utility. Composes the video filters with the output frame rate
+     * and size in one graph, reordered by {@link FilterGraphOptimizer} so the
+     * text and the overlays are drawn on the reduced frames.
+     *
+     * @param videoProperties The video properties, with at least one filter.
+     * @param info            The source informations, can be null.
+     * @return the filter graph for -vf
+     */
+    private FilterGraph buildOutputFilterGraph(VideoProperties videoProperties, MediaInfo info) {
+        FilterGraph.Builder builder = new FilterGraph.Builder()
+                .addFilters(videoProperties.getVideoFilters());
+        if (videoProperties.getFrameRate() != null) {
+            builder.addNode(new FilterNode.Builder("fps")
+                    .option(videoProperties.getFrameRate())
+                    .build());
+        }
+        VideoSize size = videoProperties.getSize();
+        if (size != null) {
+            // Same as -s, which appends a scale filter to the graph
+            builder.addNode(new FilterNode.Builder("scale")
+                    .option(size.getWidth())
+                    .option(size.getHeight())
+                    .build());
+        }
+        FilterGraph graph = builder.build();
+        VideoSize inputSize = null;
+        if (info != null && info.getVideo() != null) {
+            inputSize = info.getVideo().getSize();
+            graph = FilterGraphOptimizer.optimize(graph, inputSize, info.getVideo().getFrameRate());
+        }
+        return prepareOverlayImages(graph, inputSize);
+    }
+
+    /**
+     * Private utility. Rescales the overlay images for the size of the frames
+     * they are drawn on, at their place in the graph.
+     *
+     * @param graph     The filter graph.
+     * @param inputSize The size of the frames entering the chains with
+     *                  overlays, can be null.
+     * @return the graph reading the rescaled images
+     */
+    private FilterGraph prepareOverlayImages(FilterGraph graph, VideoSize inputSize) {
+        boolean prepared = false;
+        FilterGraph.Builder builder = new FilterGraph.Builder();
+        for (FilterGraph.Chain chain : graph.getChains()) {
+            List<FilterNode> nodes = new ArrayList<>(chain.getNodes());
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!(nodes.get(i).getSource() instanceof VideoOverlayImage)) {
+                    continue;
+                }
+                VideoOverlayImage overlay = (VideoOverlayImage) nodes.get(i).getSource();
+                VideoSize frameSize = FilterGraphOptimizer.frameSizeAt(chain, i, inputSize);
+                if (frameSize == null) {
+                    Log.w(TAG, "Unknown frame size, overlaying " + overlay.getImage() + " unscaled");
+                    continue;
+                }
+                try {
+                    // Not the shared last prepared image: it may be another job's
+                    File image = overlay.prepare(frameSize);
+                    nodes.set(i, FilterNode.of(overlay, image));
+                    prepared = true;
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to rescale " + overlay.getImage(), e);
+                }
+            }
+            builder.addChain(new FilterGraph.Chain(chain.getInputs(), nodes, chain.getOutputs()));
+        }
+        return prepared ? builder.build() : graph;
+    }
+
+    /**
+     * Checks that the concat filter has streams to join: video if every
+     * source has a video stream and video is encoded, audio likewise, with a
+     * channel layout for the joined audio.
+     *
+     * @throws EncoderError If neither video nor audio can be joined, or the
+     *                      audio channels have no layout.
+     */
+    private static void checkConcatStreams(List<MediaInfo> infos, VideoProperties videoProperties,
+                                           AudioProperties audioProperties) throws EncoderError {
+        boolean video = videoProperties != null;
+        boolean audio = audioProperties != null;
+        for (MediaInfo info : infos) {
+            video &= info.getVideo() != null;
+            audio &= info.getAudio() != null;
+        }
+        if (!video && !audio) {
+            throw new EncoderError("No video or audio stream common to the sources to concatenate");
+        }
+        if (audio) {
+            int channels = 0;
+            if (audioProperties.getChannels() != null) {
+                channels = audioProperties.getChannels();
+            } else {
+                for (MediaInfo info : infos) {
+                    channels = Math.max(channels, info.getAudio().getChannels());
+                }
+            }
+            if (getChannelLayout(channels) == null) {
+                throw new EncoderError("No channel layout for " + channels + " channels to concatenate");
+            }
+        }
+    }
+
+    /**
+     * @param channels The channel count, 0 if unknown.
+     * @return the default ffmpeg layout of the channel count, stereo if
+     * unknown, null if there is none
+     */
+    private static String getChannelLayout(int channels) {
+        switch (channels) {
+            case 0:
+            case AudioProperties.stereo:
+                return "stereo";
+            case AudioProperties.mono:
+                return "mono";
+            case 3:
+                return "3.0";
+            case AudioProperties.quad:
+                return "quad";
+            case 5:
+                return "5.0";
+            case 6:
+                return "5.1";
+            case 7:
+                return "6.1";
+            case 8:
+                return "7.1";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Private utility. Adds the filter graph normalising every source to the
+     * same size, frame rate, sampling rate and channel layout, and joining
+     * them with the concat filter. The common parameters are the ones of the
+     * video/audio properties, or the highest ones among the sources.
+     *
+     * @param infos           The informations of every source.
+     * @param videoProperties The video properties, can be null.
+     * @param audioProperties The audio properties, can be null.
+     */
+    private void addConcatFilterArguments(List<MediaInfo> infos, VideoProperties videoProperties,
+                                          AudioProperties audioProperties) {
+        boolean video = videoProperties != null;
+        boolean audio = audioProperties != null;
+        int width = 0;
+        int height = 0;
+        float frameRate = 0;
+        int samplingRate = 0;
+        int channels = 0;
+        for (MediaInfo info : infos) {
+            VideoInfo videoInfo = info.getVideo();
+            if (videoInfo == null) {
+                video = false;
+            } else {
+                VideoSize size = videoInfo.getSize();
+                if (size != null && (long) size.getWidth() * size.getHeight() > (long) width * height) {
+                    width = size.getWidth();
+                    height = size.getHeight();
+                }
+                frameRate = Math.max(frameRate, videoInfo.getFrameRate());
+            }
+            AudioInfo audioInfo = info.getAudio();
+            if (audioInfo == null) {
+                audio = false;
+            } else {
+                samplingRate = Math.max(samplingRate, audioInfo.getSamplingRate());
+                channels = Math.max(channels, audioInfo.getChannels());
+            }
+        }
+        if (video) {
+            if (videoProperties.getSize() != null) {
+                width = videoProperties.getSize().getWidth();
+                height = videoProperties.getSize().getHeight();
+            }
+            if (videoProperties.getFrameRate() != null) {
+                frameRate = videoProperties.getFrameRate();
+            }
+            // Most encoders require even dimensions
+            width += width % 2;
+            height += height % 2;
+        }
+        if (audio) {
+            if (audioProperties.getSamplingRate() != null) {
+                samplingRate = audioProperties.getSamplingRate();
+            }
+            if (audioProperties.getChannels() != null) {
+                channels = audioProperties.getChannels();
+            }
+        }
+        // Checked by checkConcatStreams
+        String channelLayout = getChannelLayout(channels);
+        FilterGraph.Builder builder = new FilterGraph.Builder();
+        List<String> concatInputs = new ArrayList<>();
+        for (int i = 0; i < infos.size(); i++) {
+            if (video) {
+                builder.chain(i + ":v:0");
+                if (width > 0 && height > 0) {
+                    builder.addNode(new FilterNode.Builder("scale").option(width).option(height)
+                            .option("force_original_aspect_ratio", "decrease").build())
+                            .addNode(new FilterNode.Builder("pad").option(width).option(height)
+                                    .option("(ow-iw)/2").option("(oh-ih)/2").build());
+                }
+                builder.addNode(new FilterNode.Builder("setsar").option(1).build());
+                if (frameRate > 0) {
+                    builder.addNode(new FilterNode.Builder("fps").option(frameRate).build());
+                }
+                builder.output("v" + i);
+                concatInputs.add("v" + i);
+            }
+            if (audio) {
+                builder.chain(i + ":a:0");
+                if (samplingRate > 0) {
+                    builder.addNode(new FilterNode.Builder("aresample").option(samplingRate).build());
+                }
+                builder.addNode(new FilterNode.Builder("aformat").option("sample_fmts", "fltp")
+                        .option("channel_layouts", channelLayout).build())
+                        .output("a" + i);
+                concatInputs.add("a" + i);
+            }
+        }
+        builder.chain(concatInputs.toArray(new String[0]))
+                .addNode(new FilterNode.Builder("concat").option("n", infos.size())
+                        .option("v", video ? 1 : 0).option("a", audio ? 1 : 0).build());
+        if (video && audio) {
+            builder.output("cv", "outa");
+        } else if (video) {
+            builder.output("cv");
+        } else {
+            builder.output("outa");
+        }
+        if (video) {
+            builder.chain("cv").addFilters(videoProperties.getVideoFilters()).output("outv");
+        }
+        FilterGraph graph = builder.build();
+        if (video) {
+            // The overlays are drawn on the joined frames
+            graph = prepareOverlayImages(graph,
+                    width > 0 && height > 0 ? new VideoSize(width, height) : null);
+        }
+        Log.d(TAG, String.format("Concat filter graph: %s", graph));
+        ffmpegExecutor.addArgument("-filter_complex");
+        ffmpegExecutor.addArgument(graph.getExpression());
+        if (video) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("[outv]");
+        }
+        if (audio) {
+            ffmpegExecutor.addArgument("-map");
+            ffmpegExecutor.addArgument("[outa]");
+        }
+    }
+
+    /**
+     * Private utility. Probes every source, reusing the cached probe results.
+     *
+     * @param multimediaObjects The source multimedia files.
+     * @return The informations of every source, in order.
+     * @throws EncoderError If a problem occurs calling the underlying
+     *                      ffmpeg executable.
+     */
+    private List<MediaInfo> probeAllInfos(List<FFMPEGMediaObject> multimediaObjects) throws EncoderError {
+        List<MediaInfo> infos = new ArrayList<>();
+        for (FFMPEGMediaObject multimediaObject : multimediaObjects) {
+            infos.add(multimediaObject.getInfo());
+        }
+        return infos;
+    }
+
+    /**
+     * Private utility. Writes the file list read by the concat demuxer.
+     *
+     * @param multimediaObjects The source multimedia files.
+     * @param directory         The directory of the list file, unless there is
+     *                          a scratch space.
+     * @return The list file, to be deleted once the encoding is over.
+     * @throws IOException  If the list can't be written.
+     * @throws EncoderError If there is no scratch space for the list.
+     */
+    private File writeConcatList(List<FFMPEGMediaObject> multimediaObjects, File directory)
+            throws IOException, EncoderError {
+        File list = scratchSpace != null ? scratchSpace.createFile("concat", ".txt", CONCAT_LIST_SIZE)
+                : File.createTempFile("concat", ".txt", directory);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(list), "UTF-8");
+        try {
+            for (FFMPEGMediaObject in : multimediaObjects) {
+                String path = in.isURL() ? in.getURL().toString() : in.getFile().getAbsolutePath();
+                // Single quotes are escaped as '\''
+                writer.write("file '" + path.replace("'", "'\\''") + "'\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return list;
+    }
+
+    /**
+     * Private utility. Checks if all the sources share the codec parameters
+     * required to join them without re-encoding.
+     *
+     * @param infos The informations of every source.
+     * @return true if the streams of the sources can be copied.
+     */
+    private boolean haveSameCodecParameters(List<MediaInfo> infos) {
+        MediaInfo first = infos.get(0);
+        for (MediaInfo info : infos) {
+            VideoInfo v1 = first.getVideo();
+            VideoInfo v2 = info.getVideo();
+            if ((v1 == null) != (v2 == null)) {
+                return false;
+            }
+            if (v1 != null && (!equal(v1.getDecoder(), v2.getDecoder())
+                    || !equal(v1.getSize(), v2.getSize())
+                    || v1.getFrameRate() != v2.getFrameRate())) {
+                return false;
+            }
+            AudioInfo a1 = first.getAudio();
+            AudioInfo a2 = info.getAudio();
+            if ((a1 == null) != (a2 == null)) {
+                return false;
+            }
+            if (a1 != null && (!equal(a1.getDecoder(), a2.getDecoder())
+                    || a1.getSamplingRate() != a2.getSamplingRate()
+                    || a1.getChannels() != a2.getChannels())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    private static boolean equal(VideoSize s1, VideoSize s2) {
+        if (s1 == null || s2 == null) {
+            return s1 == s2;
+        }
+        return s1.getWidth() == s2.getWidth() && s1.getHeight() == s2.getHeight();
+    }
+
+    /**
+     * @param videoProperties The video properties, can be null.
+     * @return true if a property asks for a re-encoding of the video stream.
+     */
+    private static boolean requiresVideoEncoding(VideoProperties videoProperties) {
+        if (videoProperties == null) {
+            return false;
+        }
+        String codec = videoProperties.getCodec();
+        return (codec != null && !VideoProperties.COPY_ORIGINAL_STREAM.equals(codec))
+                || videoProperties.getBitRate() != null || videoProperties.getFrameRate() != null
+                || videoProperties.getSize() != null || videoProperties.getQuality() != null
+                || !videoProperties.getVideoFilters().isEmpty();
+    }
+
+    /**
+     * @param audioProperties The audio properties, can be null.
+     * @return true if a property asks for a re-encoding of the audio stream.
+     */
+    private static boolean requiresAudioEncoding(AudioProperties audioProperties) {
+        if (audioProperties == null) {
+            return false;
+        }
+        String codec = audioProperties.getCodec();
+        return (codec != null && !AudioProperties.COPY_ORIGINAL_STREAM.equals(codec))
+                || audioProperties.getBitRate() != null || audioProperties.getChannels() != null
+                || audioProperties.getSamplingRate() != null || audioProperties.getVolume() != null
+                || audioProperties.getQuality() != null;
+    }
+
+    /**
+     * Private utility. Checks if the source audio stream can be copied in an
+     * audio only target, which is possible only when no audio property asks
+     * for a re-encoding.
+     *
+     * @param audioProperties The audio properties.
+     * @param info            The source informations, can be null.
+     * @param audioOnlyFormat The audio only format of the target.
+     * @return true if the source audio stream can be copied.
+     */
+    private boolean canCopyAudio(AudioProperties audioProperties, MediaInfo info, String audioOnlyFormat) {
+        if (info == null || info.getAudio() == null) {
+            return false;
+        }
+        if (audioProperties.getBitRate() != null || audioProperties.getChannels() != null
+                || audioProperties.getSamplingRate() != null || audioProperties.getVolume() != null
+                || audioProperties.getQuality() != null) {
+            return false;
+        }
+        return ContainerFormats.canCopyAudio(audioOnlyFormat, info.getAudio().getDecoder());
+    }
+
+    /**
+     * Checks that every HLS rendition has a video bitrate: the hls muxer
+     * drops from the master playlist the variants without a BANDWIDTH, like
+     * the ones encoded at a constant quality.
+     *
+     * @throws EncoderError If a rendition has no video bitrate, and the
+     *                      video properties neither.
+     */
+    private static void checkRenditionBitRates(SegmentedOutput segmentedOutput, VideoProperties videoProperties)
+            throws EncoderError {
+        if (segmentedOutput.getPackaging() != SegmentedOutput.Packaging.HLS
+                || videoProperties.getBitRate() != null) {
+            return;
+        }
+        List<Rendition> renditions = segmentedOutput.getRenditions();
+        for (int i = 0; i < renditions.size(); i++) {
+            if (renditions.get(i).getVideoBitRate() == null) {
+                throw new EncoderError("No video bitrate for the HLS rendition " + i + ": "
+                        + renditions.get(i));
+            }
+        }
+    }
+
+    /**
+     * Private utility. Adds the stream mapping and the hls/dash muxer options
+     * writing the segments and the playlists of every rendition in the target
+     * directory. Key frames are forced on every segment boundary.
+     *
+     * @param segmentedOutput The packaging properties.
+     * @param targetDirectory The directory receiving segments and playlists.
+     * @param videoProperties The video properties, can be null.
+     * @param audioProperties The audio properties, can be null.
+     * @param hasAudio        True if an audio stream has to be packaged.
+     * @param info            The source informations, can be null.
+     */
+    private void addSegmentedOutputArguments(SegmentedOutput segmentedOutput, File targetDirectory,
+                                             VideoProperties videoProperties,
+                                             AudioProperties audioProperties, boolean hasAudio,
+                                             MediaInfo info) {
+        List<Rendition> renditions = segmentedOutput.getRenditions();
+        boolean dash = segmentedOutput.getPackaging() == SegmentedOutput.Packaging.DASH;
+        int count = Math.max(renditions.size(), 1);
+        String segmentDuration = String.valueOf(segmentedOutput.getSegmentDuration());
+        if (videoProperties != null) {
+            if (!renditions.isEmpty()) {
+                // Decode once, split the frames and scale them for every rendition
+                FilterGraph.Builder graph = new FilterGraph.Builder()
+                        .chain("0:v")
+                        .addFilters(videoProperties.getVideoFilters())
+                        .addNode(new FilterNode.Builder("split").option(count).build());
+                String[] splitOutputs = new String[count];
+                for (int i = 0; i < count; i++) {
+                    splitOutputs[i] = "s" + i;
+                }
+                graph.output(splitOutputs);
+                for (int i = 0; i < count; i++) {
+                    VideoSize size = renditions.get(i).getSize();
+                    graph.chain("s" + i);
+                    if (size != null) {
+                        graph.addNode(new FilterNode.Builder("scale")
+                                .option(size.getWidth()).option(size.getHeight()).build());
+                    }
+                    graph.output("v" + i);
+                }
+                // The overlays are drawn before the split, on the source
+                // frames: scaled with them, they keep their relative width
+                // in every rendition
+                FilterGraph splitGraph = prepareOverlayImages(graph.build(),
+                        info != null && info.getVideo() != null ? info.getVideo().getSize() : null);
+                ffmpegExecutor.addArgument("-filter_complex");
+                ffmpegExecutor.addArgument(splitGraph.getExpression());
+                for (int i = 0; i < count; i++) {
+                    ffmpegExecutor.addArgument("-map");
+                    ffmpegExecutor.addArgument("[v" + i + "]");
+                    if (hasAudio && !dash) {
+                        ffmpegExecutor.addArgument("-map");
+                        ffmpegExecutor.addArgument("0:a:0");
+                    }
+                }
+                if (hasAudio && dash) {
+                    ffmpegExecutor.addArgument("-map");
+                    ffmpegExecutor.addArgument("0:a:0");
+                }
+                for (int i = 0; i < count; i++) {
+                    Rendition rendition = renditions.get(i);
+                    if (rendition.getVideoBitRate() != null) {
+                        ffmpegExecutor.addArgument("-b:v:" + i);
+                        ffmpegExecutor.addArgument(String.valueOf(rendition.getVideoBitRate().intValue()));
+                    }
+                    if (hasAudio && rendition.getAudioBitRate() != null) {
+                        ffmpegExecutor.addArgument("-b:a:" + (dash ? 0 : i));
+                        ffmpegExecutor.addArgument(String.valueOf(rendition.getAudioBitRate().intValue()));
+                    }
+                }
+            }
+            // Align the GOPs on the segment boundaries
+            ffmpegExecutor.addArgument("-force_key_frames");
+            ffmpegExecutor.addArgument("expr:gte(t,n_forced*" + segmentDuration + ")");
+            ffmpegExecutor.addArgument("-sc_threshold");
+            ffmpegExecutor.addArgument("0");
+        }
+        ffmpegExecutor.addArgument("-f");
+        ffmpegExecutor.addArgument(segmentedOutput.getPackaging().getMuxerName());
+        if (dash) {
+            ffmpegExecutor.addArgument("-seg_duration");
+            ffmpegExecutor.addArgument(segmentDuration);
+            ffmpegExecutor.addArgument("-use_template");
+            ffmpegExecutor.addArgument("1");
+            ffmpegExecutor.addArgument("-use_timeline");
+            ffmpegExecutor.addArgument("1");
+            StringBuilder adaptationSets = new StringBuilder();
+            if (videoProperties != null) {
+                adaptationSets.append("id=0,streams=v");
+            }
+            if (hasAudio) {
+                if (adaptationSets.length() > 0) {
+                    adaptationSets.append(" ");
+                }
+                adaptationSets.append("id=1,streams=a");
+            }
+            ffmpegExecutor.addArgument("-adaptation_sets");
+            ffmpegExecutor.addArgument(adaptationSets.toString());
+            ffmpegExecutor.addArgument(new File(targetDirectory, segmentedOutput.getPlaylistName()).getAbsolutePath());
+        } else {
+            StringBuilder streamMap = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    streamMap.append(" ");
+                }
+                if (videoProperties != null) {
+                    streamMap.append("v:").append(i);
+                    if (hasAudio) {
+                        streamMap.append(",");
+                    }
+                }
+                if (hasAudio) {
+                    streamMap.append("a:").append(videoProperties != null ? i : 0);
+                }
+                new File(targetDirectory, "stream_" + i).mkdirs();
+            }
+            ffmpegExecutor.addArgument("-hls_time");
+            ffmpegExecutor.addArgument(segmentDuration);
+            // An event playlist grows while the segments are written
+            ffmpegExecutor.addArgument("-hls_playlist_type");
+            ffmpegExecutor.addArgument("event");
+            ffmpegExecutor.addArgument("-hls_segment_filename");
+            ffmpegExecutor.addArgument(new File(targetDirectory, "stream_%v/segment_%05d.ts").getAbsolutePath());
+            ffmpegExecutor.addArgument("-master_pl_name");
+            ffmpegExecutor.addArgument(segmentedOutput.getPlaylistName());
+            ffmpegExecutor.addArgument("-var_stream_map");
+            ffmpegExecutor.addArgument(streamMap.toString());
+            ffmpegExecutor.addArgument(new File(targetDirectory, "stream_%v/playlist.m3u8").getAbsolutePath());
         }
     }
 
@@ -578,13 +1960,142 @@ public class Encoder {
         return unhandledMessages;
     }
 
+    /**
+     * Return the statistics of the last encoding run: speed, bitrate, bytes
+     * per stream, muxing overhead, wall and CPU times of the ffmpeg process.
+     * Only the final pass of a two-pass encoding is reported.
+     *
+     * @return the conversionStats, null if no encoding ran to its end
+     */
+    public ConversionStats getConversionStats() {
+        return conversionStats;
+    }
+
+    /**
+     * Records the outcome and the timings of an encoding in the metrics, and
+     * forwards the notifications to the listener of the encoding.
+     */
+    private class MetricsListener implements EncoderProgressListener {
+        private final EncoderProgressListener listener;
+        private final long start = SystemClock.elapsedRealtime();
+        private boolean progressed = false;
+        private boolean finished = false;
+
+        /**
+         * @param listener The listener of the encoding, can be null.
+         */
+        MetricsListener(EncoderProgressListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onStartEncoding(MediaInfo info) {
+            if (listener != null) {
+                listener.onStartEncoding(info);
+            }
+        }
+
+        @Override
+        public void onUpdateProgress(int progress) {
+            if (!progressed) {
+                progressed = true;
+                ConverterMetrics.FIRST_PROGRESS.observe((SystemClock.elapsedRealtime() - start) / 1000d);
+            }
+            if (listener != null) {
+                listener.onUpdateProgress(progress);
+            }
+        }
+
+        @Override
+        public void onSendMassage(String message) {
+            if (listener != null) {
+                listener.onSendMassage(message);
+            }
+        }
+
+        @Override
+        public void onCompleteEncoding(int completionCode) {
+            if (!finished) {
+                finished = true;
+                ConverterMetrics.JOBS_COMPLETED.increment();
+                ConverterMetrics.ENCODE_DURATION.observe((SystemClock.elapsedRealtime() - start) / 1000d);
+                if (conversionStats != null && conversionStats.getSpeed() > 0) {
+                    ConverterMetrics.ENCODE_SPEED.observe(conversionStats.getSpeed());
+                }
+            }
+            if (listener != null) {
+                listener.onCompleteEncoding(completionCode);
+            }
+        }
+
+        @Override
+        public void onReceivedError(Exception e) {
+            if (!finished) {
+                finished = true;
+                (aborted ? ConverterMetrics.JOBS_CANCELLED : ConverterMetrics.JOBS_FAILED).increment();
+            }
+            if (listener != null) {
+                listener.onReceivedError(e);
+            }
+        }
+    }
+
+    /**
+     * Reports the progress of one pass of a two-pass encoding as one half of
+     * the whole progress.
+     */
+    private static class PassProgressListener implements EncoderProgressListener {
+        private final EncoderProgressListener listener;
+        private final int base;
+
+        /**
+         * @param listener The listener of the whole encoding.
+         * @param base     The progress at the start of the pass, 0 or 50.
+         */
+        PassProgressListener(EncoderProgressListener listener, int base) {
+            this.listener = listener;
+            this.base = base;
+        }
+
+        @Override
+        public void onStartEncoding(MediaInfo info) {
+            // Reported once, by the encoder
+        }
+
+        @Override
+        public void onUpdateProgress(int progress) {
+            listener.onUpdateProgress(base + progress / 2);
+        }
+
+        @Override
+        public void onSendMassage(String message) {
+            listener.onSendMassage(message);
+        }
+
+        @Override
+        public void onCompleteEncoding(int completionCode) {
+            // Reported once, by the encoder
+        }
+
+        @Override
+        public void onReceivedError(Exception e) {
+            listener.onReceivedError(e);
+        }
+    }
+
     /**
      * Force the encoding process to stop
      */
     public void abortEncoding() {
-        if (ffmpegExecutor != null) {
-            ffmpegExecutor.destroy();
-            ffmpegExecutor = null;
+        aborted = true;
+        // Left to the encoding thread to clear, which may be building it
+        FFMPEGExecutor executor = ffmpegExecutor;
+        if (executor != null) {
+            executor.destroy();
+        }
+        synchronized (PENDING_OUTPUTS) {
+            // Wakes up an encoding waiting for space
+            PENDING_OUTPUTS.notifyAll();
         }
     }
 
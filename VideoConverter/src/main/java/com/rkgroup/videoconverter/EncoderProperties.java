@@ -63,6 +63,44 @@ public class EncoderProperties {
      */
     private int encodingThreads = -1;
 
+    /**
+     * The adaptive streaming packaging of the target. If null or not specified
+     * a single target file is written.
+     */
+    private SegmentedOutput segmentedOutput = null;
+
+    /**
+     * How multiple sources are joined.
+     */
+    private ConcatMode concatMode = ConcatMode.PROTOCOL;
+
+    /**
+     * The source streams written to the target. If null or not specified
+     * ffmpeg selects the streams on its own.
+     */
+    private StreamSelection streamSelection = null;
+
+    /**
+     * The size (bytes) the target should not exceed. If null or not
+     * specified the video bitrate of the video properties is used.
+     */
+    private Long targetSize = null;
+
+    /**
+     * Should the first pass of a target size encoding favour speed?
+     */
+    private boolean fastFirstPass = true;
+
+    /**
+     * What to do when the estimated output does not fit the free space.
+     */
+    private SpaceCheck spaceCheck = SpaceCheck.REJECT;
+
+    /**
+     * How long (millis) a {@link SpaceCheck#WAIT} encoding waits for space.
+     */
+    private long spaceWaitTimeout = 30L * 60 * 1000;
+
 
     /**
      * Returns the format name for the encoded target multimedia file.
@@ -76,6 +114,11 @@ public class EncoderProperties {
     /**
      * Sets the format name for the encoded target multimedia file. Be sure this
      * format is supported (see {@link com.rkgroup.videoconverter.Encoder#getSupportedEncodingFormats()}.
+     * <p>
+     * For audio only formats (mp3, m4a, aac, opus, wav, flac) the video
+     * properties are ignored, no video stream is decoded and the source audio
+     * stream is copied when it already fits the container and no audio
+     * property asks for a re-encoding.
      *
      * @param format The format name for the encoded target multimedia file.
      * @return this instance
@@ -184,7 +227,9 @@ public class EncoderProperties {
         return getClass().getName() + "(format=" + format + ", offset="
                 + offset + ", duration=" + duration + ", audioProperties="
                 + audioProperties + ", videoProperties=" + videoProperties
-                + ")";
+                + ", concatMode=" + concatMode + ", targetSize=" + targetSize
+                + ", spaceCheck=" + spaceCheck
+                + ", streamSelection=" + streamSelection + ")";
     }
 
     /**
@@ -268,4 +313,193 @@ public class EncoderProperties {
         this.encodingThreads = encodingThreads;
         return this;
     }
+
+    /**
+     * Returns the adaptive streaming packaging of the target.
+     *
+     * @return the segmentedOutput, can be null
+     */
+    public SegmentedOutput getSegmentedOutput() {
+        return segmentedOutput;
+    }
+
+    /**
+     * Sets the adaptive streaming packaging of the target. When set, the
+     * target of the encoding process is the directory receiving the segments
+     * and the playlists, and the format name is ignored.
+     *
+     * @param segmentedOutput the segmentedOutput to set, null for a single
+     *                        target file
+     * @return this instance
+     */
+    public EncoderProperties setSegmentedOutput(SegmentedOutput segmentedOutput) {
+        this.segmentedOutput = segmentedOutput;
+        return this;
+    }
+
+    /**
+     * @return the concatMode
+     */
+    public ConcatMode getConcatMode() {
+        return concatMode;
+    }
+
+    /**
+     * Sets how multiple sources are joined, see {@link ConcatMode}.
+     *
+     * @param concatMode the concatMode to set
+     * @return this instance
+     */
+    public EncoderProperties setConcatMode(@NonNull ConcatMode concatMode) {
+        this.concatMode = concatMode;
+        return this;
+    }
+
+    /**
+     * @return the streamSelection, can be null
+     */
+    public StreamSelection getStreamSelection() {
+        return streamSelection;
+    }
+
+    /**
+     * Sets the source streams written to the target, see
+     * {@link StreamSelection}. Ignored for segmented outputs and filter
+     * concatenations, which map their own streams.
+     *
+     * @param streamSelection the streamSelection to set, null to let ffmpeg
+     *                        select the streams
+     * @return this instance
+     */
+    public EncoderProperties setStreamSelection(StreamSelection streamSelection) {
+        this.streamSelection = streamSelection;
+        return this;
+    }
+
+    /**
+     * @return the targetSize, can be null
+     */
+    public Long getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * Sets the size the target should not exceed. The video bitrate is
+     * derived from the duration of the source and the audio bitrate, and the
+     * video is encoded in two passes: a first analysis pass writing a pass
+     * log, then the encoding itself. The bitrate of the video properties is
+     * ignored.
+     *
+     * @param targetSize the targetSize to set (bytes), null for a single
+     *                   pass encoding
+     * @return this instance
+     */
+    public EncoderProperties setTargetSize(Long targetSize) {
+        this.targetSize = targetSize;
+        return this;
+    }
+
+    /**
+     * @return the fastFirstPass
+     */
+    public boolean isFastFirstPass() {
+        return fastFirstPass;
+    }
+
+    /**
+     * Should the first pass of a target size encoding favour speed, default
+     * ON. The first pass only collects statistics: a faster motion search
+     * barely changes the final size and quality.
+     *
+     * @param fastFirstPass the fastFirstPass to set
+     * @return this instance
+     */
+    public EncoderProperties setFastFirstPass(boolean fastFirstPass) {
+        this.fastFirstPass = fastFirstPass;
+        return this;
+    }
+
+    /**
+     * @return the spaceCheck
+     */
+    public SpaceCheck getSpaceCheck() {
+        return spaceCheck;
+    }
+
+    /**
+     * Sets the check of the free space made before starting ffmpeg, default
+     * {@link SpaceCheck#REJECT}. The output size is estimated from the
+     * duration and the bitrates (or a CRF model), it is not checked when it
+     * can't be estimated.
+     *
+     * @param spaceCheck the spaceCheck to set
+     * @return this instance
+     */
+    public EncoderProperties setSpaceCheck(@NonNull SpaceCheck spaceCheck) {
+        this.spaceCheck = spaceCheck;
+        return this;
+    }
+
+    /**
+     * @return the spaceWaitTimeout
+     */
+    public long getSpaceWaitTimeout() {
+        return spaceWaitTimeout;
+    }
+
+    /**
+     * Sets how long a {@link SpaceCheck#WAIT} encoding waits for space before
+     * failing, default 30 minutes.
+     *
+     * @param spaceWaitTimeout the spaceWaitTimeout to set (millis)
+     * @return this instance
+     */
+    public EncoderProperties setSpaceWaitTimeout(long spaceWaitTimeout) {
+        this.spaceWaitTimeout = spaceWaitTimeout;
+        return this;
+    }
+
+    /**
+     * The check of the free space before an encoding.
+     */
+    public enum SpaceCheck {
+        /**
+         * No check, ffmpeg fails when the device is full.
+         */
+        NONE,
+        /**
+         * The encoding fails at once when the estimated output does not fit.
+         */
+        REJECT,
+        /**
+         * The encoding waits for space, freed by the other encodings or the
+         * user, up to the wait timeout.
+         */
+        WAIT
+    }
+
+    /**
+     * How multiple sources are joined.
+     * https://trac.ffmpeg.org/wiki/Concatenate
+     */
+    public enum ConcatMode {
+        /**
+         * The concat protocol (concat:a|b|c). Only for formats which can be
+         * concatenated byte by byte, like MPEG-TS.
+         */
+        PROTOCOL,
+        /**
+         * The concat demuxer, reading a list of files. The streams are copied
+         * without re-encoding when all the sources share the same codec
+         * parameters and no property asks for a re-encoding.
+         */
+        DEMUXER,
+        /**
+         * A single filter graph scaling, padding and resampling every source
+         * to common parameters, joined by the concat filter. Sources of
+         * different resolution, frame rate or sampling rate are encoded by a
+         * single process.
+         */
+        FILTER
+    }
 }
@@ -1,11 +1,18 @@
 package com.rkgroup.videoconverter;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.rkgroup.videoconverter.tracing.Span;
+import com.rkgroup.videoconverter.tracing.Tracing;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A ffmpeg process wrapper class.
@@ -29,6 +36,12 @@ class FFMPEGExecutor {
      */
     private Process ffmpeg = null;
 
+    /**
+     * Is the process counted as active? The process can be destroyed by the
+     * encoding thread and by an abort.
+     */
+    private final AtomicBoolean active = new AtomicBoolean();
+
     /**
      * A process killer to kill the ffmpeg process with a shutdown hook, useful
      * if the jvm execution is shutted down during an ongoing encoding process.
@@ -68,6 +81,13 @@ class FFMPEGExecutor {
         args.add(arg);
     }
 
+    /**
+     * @return the arguments given so far, read only
+     */
+    List<String> getArguments() {
+        return Collections.unmodifiableList(args);
+    }
+
     /**
      * Executes the ffmpeg process with the previous given arguments.
      *
@@ -85,7 +105,17 @@ class FFMPEGExecutor {
         }
         cmd[argsSize + 1] = "-hide_banner";  // Don't show banner
         Runtime runtime = Runtime.getRuntime();
-        ffmpeg = runtime.exec(cmd);
+        Span span = Tracing.begin("ffmpeg.spawn");
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            ffmpeg = runtime.exec(cmd);
+        } finally {
+            span.end();
+        }
+        ConverterMetrics.SPAWN_LATENCY.observe((SystemClock.elapsedRealtimeNanos() - start) / 1e9);
+        if (active.compareAndSet(false, true)) {
+            ConverterMetrics.ACTIVE_PROCESSES.increment();
+        }
         if (destroyOnRuntimeShutdown) {
             ffmpegKiller = new ProcessTerminator(ffmpeg);
             runtime.addShutdownHook(ffmpegKiller);
@@ -167,6 +197,9 @@ class FFMPEGExecutor {
             ffmpeg.destroy();
             ffmpeg = null;
         }
+        if (active.compareAndSet(true, false)) {
+            ConverterMetrics.ACTIVE_PROCESSES.decrement();
+        }
         if (ffmpegKiller != null) {
             Runtime runtime = Runtime.getRuntime();
             runtime.removeShutdownHook(ffmpegKiller);
@@ -0,0 +1,371 @@
+package com.rkgroup.videoconverter;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A package-private installer of the ffmpeg binary shipped in the assets.
+ * <p>
+ * The installation holds a lock file, so two processes of the application
+ * never write the binary at once. The binary is written to a temporary file,
+ * made executable, then renamed over the installed one: ffmpeg is never run
+ * half written. An installed binary matching the asset (SHA-256) is kept as
+ * it is.
+ * <p>
+ * The binary can be shipped gzip compressed (ffmpeg_binary_file.gz), it is
+ * then decompressed while written. An optional ffmpeg_binary_file.sha256
+ * asset, next to the binary one, holds the SHA-256 (hex) of the uncompressed binary: the written
+ * binary is verified against it, and an installed binary is compared to it
+ * without reading the asset. The digest of the installed binary is cached
+ * next to it, keyed by its size and modification time.
+ *
+ * @author Rufen Khokhar
+ */
+final class FFMPEGInstaller {
+    private static final String TAG = "FFMPEGInstaller";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A FileLock is held by the process, threads are serialized here.
+     */
+    private static final Object LOCK = new Object();
+
+    private FFMPEGInstaller() {
+    }
+
+    /**
+     * Installs the ffmpeg binary of the assets, unless already installed.
+     *
+     * @param context The context of the application.
+     * @param asset   The binary asset, like arm64-v8a/ffmpeg_binary_file,
+     *                without the .gz suffix.
+     * @param target  The installed binary.
+     * @return true if the binary is installed and executable
+     */
+    static boolean install(Context context, String asset, File target) {
+        synchronized (LOCK) {
+            File lockFile = new File(target.getParentFile(), target.getName() + ".lock");
+            RandomAccessFile lockAccess = null;
+            try {
+                lockAccess = new RandomAccessFile(lockFile, "rw");
+                FileLock lock = lockAccess.getChannel().lock();
+                try {
+                    return installLocked(context.getAssets(), asset, target);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "error while installing ffmpeg", e);
+                return false;
+            } finally {
+                if (lockAccess != null) {
+                    try {
+                        lockAccess.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "error while closing the lock file", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean installLocked(AssetManager assets, String binaryAsset, File target)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        boolean compressed = hasAsset(assets, binaryAsset + ".gz");
+        String asset = compressed ? binaryAsset + ".gz" : binaryAsset;
+        byte[] expected = readChecksum(assets, binaryAsset + ".sha256");
+        File digestFile = new File(target.getParentFile(), target.getName() + ".sha256");
+        if (target.isFile()) {
+            // Installed by another process meanwhile, or same binary in a new version
+            byte[] installed = getDigest(target, digestFile);
+            byte[] assetDigest = expected != null ? expected : digest(openBinary(assets, asset, compressed));
+            if (Arrays.equals(installed, assetDigest)) {
+                Log.d(TAG, "ffmpeg is up to date, checked in " + (SystemClock.elapsedRealtime() - start) + " ms");
+                return makeExecutable(target);
+            }
+        }
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size = compressed ? copy(openBinary(assets, asset, true), temp, digest)
+                    : copy(assets, asset, temp, digest);
+            byte[] actual = digest.digest();
+            if (expected != null && !Arrays.equals(expected, actual)) {
+                Log.e(TAG, "ffmpeg checksum mismatch, expected " + toHex(expected) + " got " + toHex(actual));
+                return false;
+            }
+            if (!makeExecutable(temp)) {
+                return false;
+            }
+            if (!temp.renameTo(target)) {
+                Log.e(TAG, "unable to rename " + temp + " to " + target);
+                return false;
+            }
+            writeDigest(target, digestFile, actual);
+            Log.d(TAG, "ffmpeg installed from " + asset
+                    + ", " + getAssetLength(assets, asset) + " bytes read, " + size
+                    + " bytes written in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            return true;
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                Log.w(TAG, "unable to delete " + temp);
+            }
+        }
+    }
+
+    /**
+     * @return the uncompressed binary of the assets
+     */
+    private static InputStream openBinary(AssetManager assets, String asset, boolean compressed)
+            throws IOException {
+        if (compressed) {
+            return new GZIPInputStream(assets.open(asset), BUFFER_SIZE);
+        }
+        return assets.open(asset);
+    }
+
+    private static boolean hasAsset(AssetManager assets, String name) {
+        try {
+            assets.open(name).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the stored size of the binary asset, -1 if unknown
+     */
+    private static long getAssetLength(AssetManager assets, String asset) {
+        try {
+            AssetFileDescriptor descriptor = assets.openFd(asset);
+            try {
+                return descriptor.getLength();
+            } finally {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the SHA-256 of the checksum asset, null if there is none
+     */
+    private static byte[] readChecksum(AssetManager assets, String checksumAsset) throws IOException {
+        InputStream input;
+        try {
+            input = assets.open(checksumAsset);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        String hex = readLine(input);
+        // sha256sum output: "<hex>  <file name>"
+        int space = hex.indexOf(' ');
+        return fromHex(space > 0 ? hex.substring(0, space) : hex);
+    }
+
+    /**
+     * @return the SHA-256 of the installed binary, from the cache file when
+     * the binary is unchanged
+     */
+    private static byte[] getDigest(File binary, File digestFile) throws IOException {
+        String stamp = binary.length() + " " + binary.lastModified() + " ";
+        if (digestFile.isFile()) {
+            String cached = readLine(new FileInputStream(digestFile));
+            byte[] digest = cached.startsWith(stamp) ? fromHex(cached.substring(stamp.length())) : null;
+            if (digest != null) {
+                return digest;
+            }
+        }
+        byte[] digest = digest(new FileInputStream(binary));
+        writeDigest(binary, digestFile, digest);
+        return digest;
+    }
+
+    private static void writeDigest(File binary, File digestFile, byte[] digest) {
+        try {
+            FileOutputStream output = new FileOutputStream(digestFile);
+            try {
+                output.write((binary.length() + " " + binary.lastModified() + " " + toHex(digest))
+                        .getBytes("US-ASCII"));
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "unable to cache the ffmpeg digest", e);
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        Reader reader = new InputStreamReader(input, "US-ASCII");
+        try {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0 && c != '\n' && c != '\r') {
+                sb.append((char) c);
+            }
+            return sb.toString().trim();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Copies the asset to a file, with a channel transfer when the asset is
+     * stored uncompressed in the APK.
+     *
+     * @return the number of bytes written
+     */
+    private static long copy(AssetManager assets, String asset, File file, MessageDigest digest)
+            throws IOException {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = assets.openFd(asset);
+        } catch (FileNotFoundException e) {
+            // A compressed asset has no file descriptor
+            Log.d(TAG, "asset is compressed, stream copy");
+        }
+        if (descriptor == null) {
+            return copy(assets.open(asset), file, digest);
+        }
+        long size = 0;
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel out = output.getChannel();
+            FileChannel in = descriptor.createInputStream().getChannel();
+            long offset = descriptor.getStartOffset();
+            long length = descriptor.getLength();
+            while (size < length) {
+                long transferred = in.transferTo(offset + size, length - size, out);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of asset");
+                }
+                size += transferred;
+            }
+            output.getFD().sync();
+        } finally {
+            output.close();
+            descriptor.close();
+        }
+        // Read back from the page cache, the transfer bypasses the heap
+        update(digest, new FileInputStream(file));
+        return size;
+    }
+
+    private static long copy(InputStream input, File file, MessageDigest digest) throws IOException {
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long size = 0;
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    output.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                    size += read;
+                }
+                output.getFD().sync();
+                return size;
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the SHA-256 of the stream content, the stream is closed
+     */
+    private static byte[] digest(InputStream input) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, input);
+        return digest.digest();
+    }
+
+    /**
+     * Adds the stream content to the digest, the stream is closed.
+     */
+    private static void update(MessageDigest digest, InputStream input) throws IOException {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format(Locale.US, "%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the bytes of the hex string, null if it is not a SHA-256
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() != 64) {
+            Log.w(TAG, "invalid SHA-256 " + hex);
+            return null;
+        }
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                Log.w(TAG, "invalid SHA-256 " + hex);
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Makes the binary executable by everyone, as the former chmod 777.
+     */
+    private static boolean makeExecutable(File file) {
+        if (file.canExecute() || file.setExecutable(true, false)) {
+            return true;
+        }
+        Log.e(TAG, "unable to make executable " + file);
+        return false;
+    }
+}
@@ -5,59 +5,67 @@ import android.util.Log;
 
 import com.rkgroup.videoconverter.exceptions.EncoderError;
 import com.rkgroup.videoconverter.exceptions.InputFormatException;
+import com.rkgroup.videoconverter.listeners.ThumbnailSink;
+import com.rkgroup.videoconverter.tracing.Span;
+import com.rkgroup.videoconverter.tracing.Tracing;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FFMPEGMediaObject {
 
     private static final String TAG = "FFMPEGMediaObject";
+
     /**
-     * This regexp is used to parse the ffmpeg output about the size of a video
-     * stream.
+     * The bytes read by a fast probe to find the streams, ffmpeg default is
+     * 5000000.
      */
-    private static final Pattern SIZE_PATTERN = Pattern.compile(
-            "(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final String FAST_PROBE_SIZE = "500000";
+
     /**
-     * This regexp is used to parse the ffmpeg output about the frame rate value
-     * of a video stream.
+     * The microseconds analyzed by a fast probe to guess the stream
+     * parameters, ffmpeg default is 5000000.
      */
-    private static final Pattern FRAME_RATE_PATTERN = Pattern.compile(
-            "([\\d.]+)\\s+(?:fps|tbr)", Pattern.CASE_INSENSITIVE);
+    private static final String FAST_ANALYZE_DURATION = "1000000";
+
+    private final FFMPEGLocator locator;
+    private File inputFile;
+    private URL inputURL;
     /**
-     * This regexp is used to parse the ffmpeg output about the bit rate value
-     * of a stream.
+     * When true, we try to not read the source more than once
+     * One of the side effects is, that no progressbar is available.
      */
-    private static final Pattern BIT_RATE_PATTERN = Pattern.compile(
-            "(\\d+)\\s+kb/s", Pattern.CASE_INSENSITIVE);
+    private boolean readURLOnce = false;
     /**
-     * This regexp is used to parse the ffmpeg output about the sampling rate of
-     * an audio stream.
+     * The result of the last probe, reused as long as the source is not
+     * modified.
      */
-    private static final Pattern SAMPLING_RATE_PATTERN = Pattern.compile(
-            "(\\d+)\\s+Hz", Pattern.CASE_INSENSITIVE);
+    private MediaInfo cachedInfo = null;
+    private String cachedInfoStamp = null;
     /**
-     * This regexp is used to parse the ffmpeg output about the channels number
-     * of an audio stream.
+     * When true, the source is probed on its first bytes only, see
+     * {@link #setFastProbe(boolean)}.
      */
-    private static final Pattern CHANNELS_PATTERN = Pattern.compile(
-            "(mono|stereo|quad)", Pattern.CASE_INSENSITIVE);
+    private boolean fastProbe = false;
     /**
-     * The locator of the ffmpeg executable used by this extractor.
+     * The input format given to ffmpeg (-f), null to let ffmpeg detect it.
      */
-    private final FFMPEGLocator locator;
-    private File inputFile;
-    private URL inputURL;
+    private String formatHint = null;
     /**
-     * When true, we try to not read the source more than once
-     * One of the side effects is, that no progressbar is available.
+     * The prober of local files tried before ffmpeg, null to always run
+     * ffmpeg.
      */
-    private boolean readURLOnce = false;
+    private MediaProber prober = new HeaderMediaProber();
+    /**
+     * The source file while it is written, null for a complete file.
+     */
+    private GrowingFile growingFile = null;
 
     /**
      * It builds an extractor using a {@link LocalFFMPEGLocator} instance to
@@ -116,6 +124,7 @@ public class FFMPEGMediaObject {
 
     public void setFile(File file) {
         this.inputFile = file;
+        this.cachedInfo = null;
     }
 
     public URL getURL() {
@@ -124,6 +133,7 @@ public class FFMPEGMediaObject {
 
     public void setUR(URL input) {
         this.inputURL = input;
+        this.cachedInfo = null;
     }
 
     /**
@@ -138,6 +148,9 @@ public class FFMPEGMediaObject {
     /**
      * Returns a set informations about a multimedia file, if its format is
      * supported for decoding.
+     * <p>
+     * The result is cached: the source is probed again only when the file
+     * size or modification time changed.
      *
      * @return A set of informations about the file and its contents.
      * @throws com.rkgroup.videoconverter.exceptions.InputFormatException If the format of the source file cannot be
@@ -147,8 +160,92 @@ public class FFMPEGMediaObject {
      */
     public MediaInfo getInfo() throws InputFormatException,
             EncoderError {
+        String stamp = isURL() ? inputURL.toString()
+                : inputFile.getAbsolutePath() + "|" + inputFile.length() + "|" + inputFile.lastModified();
+        synchronized (this) {
+            if (cachedInfo != null && stamp.equals(cachedInfoStamp)) {
+                return cachedInfo;
+            }
+        }
+        MediaInfo info;
+        Span span = Tracing.begin("probe");
+        try {
+            info = probe();
+        } finally {
+            span.end();
+        }
+        synchronized (this) {
+            cachedInfo = info;
+            cachedInfoStamp = stamp;
+        }
+        return info;
+    }
+
+    /**
+     * Private utility. Probes the source with the prober, then with ffmpeg.
+     *
+     * @return A set of informations about the file and its contents.
+     * @throws InputFormatException If the format of the source file cannot be
+     *                              recognized and decoded.
+     * @throws EncoderError         If a problem occurs calling the underlying
+     *                              ffmpeg executable.
+     */
+    private MediaInfo probe() throws InputFormatException, EncoderError {
+        if (prober != null && !isURL() && inputFile.canRead()) {
+            Span span = Tracing.begin("probe.header");
+            try {
+                MediaInfo info = prober.probe(inputFile);
+                if (info != null) {
+                    return info;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Header probe failed, ffmpeg probe", e);
+            } finally {
+                span.end();
+            }
+        }
+        if (!fastProbe) {
+            return probe(false);
+        }
+        MediaInfo info;
+        try {
+            info = probe(true);
+        } catch (InputFormatException e) {
+            // A wrong format hint, or too few bytes read to recognize the format
+            Log.i(TAG, "Fast probe failed, full probe: " + e.getMessage());
+            return probe(false);
+        }
+        if (!isComplete(info)) {
+            Log.i(TAG, "Fast probe incomplete, full probe: " + info);
+            return probe(false);
+        }
+        return info;
+    }
+
+    /**
+     * Private utility. Runs ffmpeg on the source and parses its output.
+     *
+     * @param fast Should the source be probed on its first bytes only?
+     * @return A set of informations about the file and its contents.
+     * @throws InputFormatException If the format of the source file cannot be
+     *                              recognized and decoded.
+     * @throws EncoderError         If a problem occurs calling the underlying
+     *                              ffmpeg executable.
+     */
+    private MediaInfo probe(boolean fast) throws InputFormatException, EncoderError {
         if (isURL() || inputFile.canRead()) {
+            Span span = Tracing.begin(fast ? "probe.ffmpeg_fast" : "probe.ffmpeg");
             FFMPEGExecutor ffmpeg = locator.createExecutor();
+            if (fast) {
+                ffmpeg.addArgument("-probesize");
+                ffmpeg.addArgument(FAST_PROBE_SIZE);
+                ffmpeg.addArgument("-analyzeduration");
+                ffmpeg.addArgument(FAST_ANALYZE_DURATION);
+                if (formatHint != null) {
+                    ffmpeg.addArgument("-f");
+                    ffmpeg.addArgument(formatHint);
+                }
+            }
             ffmpeg.addArgument("-i");
             if (isURL()) {
                 ffmpeg.addArgument(inputURL.toString());
@@ -158,18 +255,20 @@ public class FFMPEGMediaObject {
             try {
                 ffmpeg.execute();
             } catch (IOException e) {
+                span.end();
                 throw new EncoderError(e);
             }
             try {
                 RKBufferedReader reader = new RKBufferedReader(new InputStreamReader(ffmpeg
                         .getErrorStream()));
                 if (isURL()) {
-                    return parseMultimediaInfo(inputURL.toString(), reader);
+                    return ProbeOutputParser.parse(inputURL.toString(), reader);
                 } else {
-                    return parseMultimediaInfo(inputFile.getAbsolutePath(), reader);
+                    return ProbeOutputParser.parse(inputFile.getAbsolutePath(), reader);
                 }
             } finally {
                 ffmpeg.destroy();
+                span.end();
             }
         } else {
             throw new EncoderError("Input file not found <" + inputFile.getAbsolutePath() + ">");
@@ -177,199 +276,110 @@ public class FFMPEGMediaObject {
     }
 
     /**
-     * Private utility. It parses the ffmpeg output, extracting informations
-     * about a source multimedia file.
+     * Private utility. Checks that a fast probe found the key informations:
+     * the duration, and the codec of every stream and the size of every
+     * video stream, missing when the streams start after the probed bytes.
      *
-     * @param source The source multimedia object.
-     * @param reader The ffmpeg output channel.
-     * @return A set of informations about the source multimedia file and its
-     * contents.
-     * @throws InputFormatException If the format of the source file cannot be
-     *                              recognized and decoded.
-     * @throws EncoderError         If a problem occurs calling the underlying
-     *                              ffmpeg executable.
+     * @param info The fast probe result.
+     * @return true if no full probe is needed
      */
-    private MediaInfo parseMultimediaInfo(String source,
-                                          RKBufferedReader reader) throws InputFormatException,
-            EncoderError {
-        Pattern p1 = Pattern.compile("^\\s*Input #0, (\\w+).+$\\s*",
-                Pattern.CASE_INSENSITIVE);
-        Pattern p21 = Pattern.compile(
-                "^\\s*Duration:.*$",
-                Pattern.CASE_INSENSITIVE);
-        Pattern p22 = Pattern.compile(
-                "^\\s*Duration: (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d\\d).*$",
-                Pattern.CASE_INSENSITIVE);
-        Pattern p3 = Pattern.compile(
-                "^\\s*Stream #\\S+: ((?:Audio)|(?:Video)|(?:Data)): (.*)\\s*$",
-                Pattern.CASE_INSENSITIVE);
-        Pattern p4 = Pattern.compile(
-                "^\\s*Metadata:",
-                Pattern.CASE_INSENSITIVE);
-        MediaInfo info = null;
-        try {
-            int step = 0;
-            while (true) {
-                String line = reader.readLine();
-                Log.d(TAG, String.format("Output line: %s", line));
-                if (line == null) {
-                    break;
-                }
-                switch (step) {
-                    case 0: {
-                        String token = source + ": ";
-                        if (line.startsWith(token)) {
-                            String message = line.substring(token.length());
-                            throw new InputFormatException(message);
-                        }
-                        Matcher m = p1.matcher(line);
-                        if (m.matches()) {
-                            String format = m.group(1);
-                            info = new MediaInfo();
-                            info.setFormat(format);
-                            step++;
-                        }
-                        break;
-                    }
-                    case 1: {
-                        Matcher m1 = p21.matcher(line);
-                        Matcher m2 = p22.matcher(line);
-                        if (m1.matches()) {
-                            if (m2.matches()) {
-                                long hours = Integer.parseInt(m2.group(1));
-                                long minutes = Integer.parseInt(m2.group(2));
-                                long seconds = Integer.parseInt(m2.group(3));
-                                long dec = Integer.parseInt(m2.group(4));
-                                long duration = (dec * 10L) + (seconds * 1000L)
-                                        + (minutes * 60L * 1000L)
-                                        + (hours * 60L * 60L * 1000L);
-                                info.setDuration(duration);
-                            } else {
-                                Log.w(TAG, String.format("Invalid duration found %s", line));
-                                // step = 3;
-                            }
-                            step++;
-                        } else {
-                            // step = 3;
-                        }
-                        break;
-                    }
-                    case 2: {
-                        Matcher m = p3.matcher(line);
-                        Matcher m4 = p4.matcher(line);
-                        if (m.matches()) {
-                            String type = m.group(1);
-                            String specs = m.group(2);
-                            if ("Video".equalsIgnoreCase(type)) {
-                                VideoInfo video = new VideoInfo();
-                                StringTokenizer st = new StringTokenizer(specs, ",");
-                                for (int i = 0; st.hasMoreTokens(); i++) {
-                                    String token = st.nextToken().trim();
-                                    if (i == 0) {
-                                        video.setDecoder(token);
-                                    } else {
-                                        boolean parsed = false;
-                                        // Video size.
-                                        Matcher m2 = SIZE_PATTERN.matcher(token);
-                                        if (m2.find()) {
-                                            int width = Integer.parseInt(m2.group(1));
-                                            int height = Integer.parseInt(m2.group(2));
-                                            video.setSize(new VideoSize(width,
-                                                    height));
-                                            parsed = true;
-                                        }
-                                        // Frame rate.
-                                        m2 = FRAME_RATE_PATTERN.matcher(token);
-                                        if (!parsed && m2.find()) {
-                                            try {
-                                                float frameRate = Float
-                                                        .parseFloat(m2.group(1));
-                                                video.setFrameRate(frameRate);
-                                            } catch (NumberFormatException e) {
-                                                Log.i(TAG, "Invalid frame rate value: " + m2.group(1), e);
-                                            }
-                                            parsed = true;
-                                        }
-                                        // Bit rate.
-                                        m2 = BIT_RATE_PATTERN.matcher(token);
-                                        if (!parsed && m2.find()) {
-                                            int bitRate = Integer.parseInt(m2.group(1));
-                                            video.setBitRate(bitRate * 1000);
-                                            parsed = true;
-                                        }
-                                    }
-                                }
-                                info.setVideo(video);
-                            } else if ("Audio".equalsIgnoreCase(type)) {
-                                AudioInfo audio = new AudioInfo();
-                                StringTokenizer st = new StringTokenizer(specs, ",");
-                                for (int i = 0; st.hasMoreTokens(); i++) {
-                                    String token = st.nextToken().trim();
-                                    if (i == 0) {
-                                        audio.setDecoder(token);
-                                    } else {
-                                        boolean parsed = false;
-                                        // Sampling rate.
-                                        Matcher m2 = SAMPLING_RATE_PATTERN
-                                                .matcher(token);
-                                        if (m2.find()) {
-                                            int samplingRate = Integer.parseInt(m2.group(1));
-                                            audio.setSamplingRate(samplingRate);
-                                            parsed = true;
-                                        }
-                                        // Channels.
-                                        m2 = CHANNELS_PATTERN.matcher(token);
-                                        if (!parsed && m2.find()) {
-                                            String ms = m2.group(1);
-                                            if ("mono".equalsIgnoreCase(ms)) {
-                                                audio.setChannels(1);
-                                            } else if ("stereo"
-                                                    .equalsIgnoreCase(ms)) {
-                                                audio.setChannels(2);
-                                            } else if ("quad"
-                                                    .equalsIgnoreCase(ms)) {
-                                                audio.setChannels(4);
-                                            }
-                                            parsed = true;
-                                        }
-                                        // Bit rate.
-                                        m2 = BIT_RATE_PATTERN.matcher(token);
-                                        if (!parsed && m2.find()) {
-                                            int bitRate = Integer.parseInt(m2.group(1));
-                                            audio.setBitRate(bitRate * 1000);
-                                            parsed = true;
-                                        }
-                                    }
-                                }
-                                info.setAudio(audio);
-                            }
-                        } else // if (m4.matches())
-                        {
-                            // Stay on level 2
-                        }
-                        /*
-                            else
-                            {
-                            step = 3;
-                            }
-                         */
-                        break;
+    private static boolean isComplete(MediaInfo info) {
+        if (info.getDuration() < 0 || info.getStreams().isEmpty()) {
+            return false;
+        }
+        for (StreamInfo stream : info.getStreams()) {
+            if (stream.getCodec() == null || "none".equals(stream.getCodec())) {
+                return false;
+            }
+            if (stream.getType() == StreamInfo.Type.VIDEO && stream.getSize() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts thumbnails from the video stream and writes them, as JPEG
+     * images named after their timestamp, in the given directory. The cheapest
+     * extraction strategy is picked unless one is forced in the options.
+     *
+     * @param options         The extraction options.
+     * @param outputDirectory The directory receiving the thumbnails.
+     * @return The written thumbnails, in timestamp order.
+     * @throws EncoderError If a problem occurs calling the underlying
+     *                      ffmpeg executable.
+     */
+    public List<File> extractThumbnails(ThumbnailOptions options, final File outputDirectory) throws EncoderError {
+        outputDirectory.mkdirs();
+        final List<File> thumbnails = new ArrayList<>();
+        final IOException[] error = new IOException[1];
+        extractThumbnails(options, new ThumbnailSink() {
+            @Override
+            public void onThumbnail(long timestamp, byte[] image) {
+                File thumbnail = new File(outputDirectory, "thumb_" + timestamp + ".jpg");
+                try {
+                    OutputStream output = new FileOutputStream(thumbnail);
+                    try {
+                        output.write(image);
+                    } finally {
+                        output.close();
                     }
-                    default:
-                        break;
-                }
-                if (line.startsWith("frame=")) {
-                    reader.reinsertLine(line);
-                    break;
+                    thumbnails.add(thumbnail);
+                } catch (IOException e) {
+                    error[0] = e;
                 }
             }
-        } catch (IOException e) {
-            throw new EncoderError(e);
+        });
+        if (error[0] != null) {
+            throw new EncoderError(error[0]);
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Extracts thumbnails from the video stream and hands them, as JPEG
+     * images, to the given sink. The cheapest extraction strategy is picked
+     * unless one is forced in the options.
+     *
+     * @param options The extraction options.
+     * @param sink    The receiver of the thumbnails.
+     * @throws EncoderError If a problem occurs calling the underlying
+     *                      ffmpeg executable.
+     */
+    public void extractThumbnails(ThumbnailOptions options, ThumbnailSink sink) throws EncoderError {
+        createThumbnailExtractor().extract(options, sink);
+    }
+
+    /**
+     * Writes sprite sheets for scrubbing previews in a single pass. One frame
+     * every interval is scaled to the tile size and placed on a grid of the
+     * given columns and rows; a new sheet is started when the grid is full.
+     *
+     * @param interval        The interval (millis) between two tiles.
+     * @param tileSize        The size of a tile.
+     * @param columns         The number of columns of a sheet.
+     * @param rows            The number of rows of a sheet.
+     * @param outputDirectory The directory receiving the sheets, named
+     *                        sprite_001.jpg, sprite_002.jpg...
+     * @return The written sheets, in order.
+     * @throws EncoderError If a problem occurs calling the underlying
+     *                      ffmpeg executable.
+     */
+    public List<File> extractSpriteSheets(long interval, VideoSize tileSize, int columns, int rows,
+                                          File outputDirectory) throws EncoderError {
+        return createThumbnailExtractor().extractSpriteSheets(interval, tileSize, columns, rows,
+                new ThumbnailOptions(), outputDirectory);
+    }
+
+    private ThumbnailExtractor createThumbnailExtractor() throws EncoderError {
+        if (isURL()) {
+            return new ThumbnailExtractor(locator, inputURL.toString(), inputURL.toString(), readURLOnce);
         }
-        if (info == null) {
-            throw new EncoderError();
+        if (!inputFile.canRead()) {
+            throw new EncoderError("Input file not found <" + inputFile.getAbsolutePath() + ">");
         }
-        return info;
+        String identity = inputFile.getAbsolutePath() + "|" + inputFile.length() + "|" + inputFile.lastModified();
+        return new ThumbnailExtractor(locator, inputFile.getAbsolutePath(), identity, false);
     }
 
     /**
@@ -385,4 +395,77 @@ public class FFMPEGMediaObject {
     public void setReadURLOnce(boolean readURLOnce) {
         this.readURLOnce = readURLOnce;
     }
+
+    /**
+     * @return the fastProbe
+     */
+    public boolean isFastProbe() {
+        return fastProbe;
+    }
+
+    /**
+     * Probes the source on its first bytes only (-probesize, -analyzeduration),
+     * default OFF. Much faster on large or remote sources; when the duration,
+     * a codec or a video size is missing the source is probed again in full.
+     *
+     * @param fastProbe the fastProbe to set
+     */
+    public void setFastProbe(boolean fastProbe) {
+        this.fastProbe = fastProbe;
+    }
+
+    /**
+     * @return the formatHint
+     */
+    public String getFormatHint() {
+        return formatHint;
+    }
+
+    /**
+     * Sets the input format of the source (ffmpeg -f), like mov or matroska,
+     * used by the fast probe to skip the format detection. A wrong hint falls
+     * back to a full probe.
+     *
+     * @param formatHint the formatHint to set, null to let ffmpeg detect it
+     */
+    public void setFormatHint(String formatHint) {
+        this.formatHint = formatHint;
+    }
+
+    /**
+     * @return the prober
+     */
+    public MediaProber getProber() {
+        return prober;
+    }
+
+    /**
+     * Sets the prober of local files tried before ffmpeg, default is a
+     * {@link HeaderMediaProber}. The sources it declines are probed by ffmpeg.
+     *
+     * @param prober the prober to set, null to always run ffmpeg
+     */
+    public void setProber(MediaProber prober) {
+        this.prober = prober;
+        this.cachedInfo = null;
+    }
+
+    /**
+     * @return the growingFile
+     */
+    public GrowingFile getGrowingFile() {
+        return growingFile;
+    }
+
+    /**
+     * Declares the source file as still being written (a copy in progress),
+     * default none. ffmpeg then reads it through a pipe fed as the file
+     * grows, until the writer reports its end.
+     *
+     * @param growingFile the progress of the source file, null for a
+     *                    complete file
+     */
+    public void setGrowingFile(GrowingFile growingFile) {
+        this.growingFile = growingFile;
+    }
 }
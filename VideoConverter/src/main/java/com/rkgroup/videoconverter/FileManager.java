@@ -6,12 +6,15 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedInputStream;
+import com.rkgroup.videoconverter.listeners.CopyProgressListener;
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -20,6 +23,17 @@ public class FileManager {
     public static final String FFMPEG_BINARY_FILE = "ffmpeg_binary_file";
     private static final String TAG = "FileManager";
 
+    /**
+     * The bytes of a channel transfer between two files, the progress is
+     * reported after each one.
+     */
+    private static final long TRANSFER_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * The copy buffer of the streams.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @NonNull
     public static File getFFmpeg(@NonNull Context context) {
         File folder = context.getFilesDir();
@@ -33,22 +47,120 @@ public class FileManager {
 
     public static boolean inputStreamToFile(InputStream stream, File file) {
         try {
-            InputStream input = new BufferedInputStream(stream);
-            OutputStream output = new FileOutputStream(file);
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer, 0, buffer.length)) >= 0) {
-                output.write(buffer, 0, bytesRead);
+            copy(stream, file, -1, null);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "inputStreamToFile: error while writing " + file, e);
+        }
+        return false;
+    }
+
+    /**
+     * Copies a file.
+     *
+     * @param source   The file to copy.
+     * @param target   The copy.
+     * @param listener The progress listener, can be null.
+     * @return the number of bytes copied
+     * @throws IOException If the copy fails.
+     */
+    public static long copy(@NonNull File source, @NonNull File target, CopyProgressListener listener)
+            throws IOException {
+        return copy(new FileInputStream(source), target, source.length(), listener);
+    }
+
+    /**
+     * Copies a stream to a file, the stream is closed. A file stream (like the
+     * ones of the content resolver) is transferred by the kernel between the
+     * two file channels, other streams are read into a buffer of the copy.
+     *
+     * @param input    The stream to copy.
+     * @param target   The copy.
+     * @param total    The length of the stream if known, -1 otherwise; only
+     *                 reported to the listener.
+     * @param listener The progress listener, can be null.
+     * @return the number of bytes copied
+     * @throws IOException If the copy fails.
+     */
+    public static long copy(@NonNull InputStream input, @NonNull File target, long total,
+                            CopyProgressListener listener) throws IOException {
+        try {
+            FileOutputStream output = new FileOutputStream(target);
+            try {
+                long copied = 0;
+                if (input instanceof FileInputStream) {
+                    copied = transfer(((FileInputStream) input).getChannel(), output.getChannel(), total,
+                            listener);
+                }
+                // The rest of a file growing while transferred, or the stream
+                copied += copy(input, output, total, copied, listener);
+                output.flush();
+                return copied;
+            } finally {
+                output.close();
             }
-            output.flush();
-            output.close();
+        } finally {
             input.close();
-            return true;
+        }
+    }
+
+    /**
+     * Transfers the input up to its current size, the streams of both
+     * channels are at the end of the transfer.
+     *
+     * @return the number of bytes transferred, 0 if the input is not a
+     * regular file (a pipe has no size)
+     */
+    private static long transfer(FileChannel in, FileChannel out, long total, CopyProgressListener listener)
+            throws IOException {
+        long size;
+        try {
+            size = in.size() - in.position();
         } catch (IOException e) {
-            Log.e(TAG, "inputStreamToFile: error while writing ff binary file", e);
+            return 0;
+        }
+        if (size <= 0) {
+            return 0;
+        }
+        if (total < 0) {
+            total = size;
+        }
+        long copied = 0;
+        while (copied < size) {
+            // Reads from the current position of the input
+            long transferred = out.transferFrom(in, copied, Math.min(TRANSFER_SIZE, size - copied));
+            if (transferred <= 0) {
+                break;
+            }
+            copied += transferred;
+            if (listener != null) {
+                listener.onProgress(copied, total);
+            }
+        }
+        // The transfer does not move the output position
+        out.position(copied);
+        return copied;
+    }
 
+    /**
+     * Copies the input up to its end.
+     *
+     * @param offset The bytes already copied, for the progress.
+     * @return the number of bytes copied
+     */
+    private static long copy(InputStream in, OutputStream out, long total, long offset,
+                             CopyProgressListener listener) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            copied += read;
+            if (listener != null) {
+                listener.onProgress(offset + copied, total);
+            }
         }
-        return false;
+        return copied;
     }
 
     @NonNull
@@ -0,0 +1,136 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A source file still being written, like a copy in progress. The writer
+ * reports the bytes written so far, then the end of the file or the failure
+ * of the copy.
+ * <p>
+ * The encoder feeds such a file to ffmpeg through a pipe, up to the bytes
+ * written, and closes the pipe once the file is complete: ffmpeg sees the
+ * end of the input when the copy ends, not after an idle timeout, and a
+ * stalled copy is waited for instead of ending the input early. Only
+ * streamable files can be read while written: MP4 with the moov atom first,
+ * MKV, MPEG-TS...
+ *
+ * @author Rufen Khokhar
+ */
+public class GrowingFile {
+
+    private final File file;
+    private long length = 0;
+    private boolean complete = false;
+    private Exception error = null;
+
+    /**
+     * @param file The file being written.
+     */
+    public GrowingFile(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the bytes written so far
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if the file is completely written
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the failure of the writer, null if none
+     */
+    public synchronized Exception getError() {
+        return error;
+    }
+
+    /**
+     * Reports the bytes written so far, readable from the file.
+     *
+     * @param length the bytes written
+     */
+    public synchronized void setLength(long length) {
+        this.length = length;
+        notifyAll();
+    }
+
+    /**
+     * Reports the end of the file.
+     *
+     * @param length the length of the file
+     */
+    public synchronized void complete(long length) {
+        this.length = length;
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * Reports the failure of the writer, the file will not grow anymore.
+     *
+     * @param error the failure
+     */
+    public synchronized void fail(@NonNull Exception error) {
+        this.error = error;
+        notifyAll();
+    }
+
+    /**
+     * Waits for bytes after a position.
+     *
+     * @param position The bytes already read.
+     * @return the bytes written, equal to the position at the end of the
+     * file
+     * @throws IOException If the writer failed, or the thread is interrupted.
+     */
+    synchronized long awaitLength(long position) throws IOException {
+        while (length <= position && !complete && error == null) {
+            await();
+        }
+        if (error != null) {
+            throw new IOException("Unable to write " + file, error);
+        }
+        return length;
+    }
+
+    /**
+     * Waits for the end of the file.
+     *
+     * @throws IOException If the writer failed, or the thread is interrupted.
+     */
+    synchronized void awaitEnd() throws IOException {
+        while (!complete && error == null) {
+            await();
+        }
+        if (error != null) {
+            throw new IOException("Unable to write " + file, error);
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + file);
+        }
+    }
+}
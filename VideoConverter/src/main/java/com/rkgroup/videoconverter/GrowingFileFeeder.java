@@ -0,0 +1,80 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A package-private thread writing a {@link GrowingFile} to the standard input
+ * of ffmpeg as the file grows. The input is closed once the file is complete,
+ * ffmpeg then reads the end of its input; it is also closed if the writer
+ * fails or ffmpeg stops reading.
+ *
+ * @author Rufen Khokhar
+ */
+class GrowingFileFeeder extends Thread {
+    private static final String TAG = "GrowingFileFeeder";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final GrowingFile source;
+    private final OutputStream output;
+
+    /**
+     * The bytes written to ffmpeg.
+     */
+    private volatile long fed = 0;
+
+    /**
+     * @param source The file to feed.
+     * @param output The standard input of ffmpeg.
+     */
+    GrowingFileFeeder(GrowingFile source, OutputStream output) {
+        super("Encoder-feed");
+        this.source = source;
+        this.output = output;
+    }
+
+    /**
+     * @return the bytes written to ffmpeg
+     */
+    long getFed() {
+        return fed;
+    }
+
+    @Override
+    public void run() {
+        try {
+            InputStream input = new FileInputStream(source.getFile());
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long position = 0;
+                long length;
+                while ((length = source.awaitLength(position)) > position) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+                    if (read < 0) {
+                        throw new EOFException("Truncated " + source.getFile());
+                    }
+                    output.write(buffer, 0, read);
+                    position += read;
+                    fed = position;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // ffmpeg exited, or the copy failed: checked by the encoder
+            Log.d(TAG, "stopped feeding " + source.getFile() + " after " + fed + " bytes", e);
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.d(TAG, "unable to close the input of ffmpeg", e);
+            }
+        }
+    }
+}
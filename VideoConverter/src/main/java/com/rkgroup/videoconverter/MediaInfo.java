@@ -2,6 +2,9 @@ package com.rkgroup.videoconverter;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * provides the input Media information.
  *
@@ -33,6 +36,17 @@ public class MediaInfo {
      */
     private VideoInfo video = null;
 
+    /**
+     * The start time (seconds) of the streams. If null this information is
+     * not available.
+     */
+    private Float startTime = null;
+
+    /**
+     * Every stream of the multimedia file, in order.
+     */
+    private final ArrayList<StreamInfo> streams = new ArrayList<>();
+
     /**
      * Returns the multimedia file format name.
      *
@@ -76,8 +90,29 @@ public class MediaInfo {
     }
 
     /**
-     * Returns a set of audio-specific informations. If null, there's no audio
-     * stream in the multimedia file.
+     * Returns the start time (seconds) of the streams, as reported by the
+     * container. If null this information is not available.
+     *
+     * @return The start time (seconds).
+     */
+    public Float getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Sets the start time (seconds) of the streams.
+     *
+     * @param startTime The start time (seconds).
+     * @return this instance
+     */
+    public MediaInfo setStartTime(Float startTime) {
+        this.startTime = startTime;
+        return this;
+    }
+
+    /**
+     * Returns a set of audio-specific informations, about the first audio
+     * stream. If null, there's no audio stream in the multimedia file.
      *
      * @return A set of audio-specific informations.
      */
@@ -97,8 +132,8 @@ public class MediaInfo {
     }
 
     /**
-     * Returns a set of video-specific informations. If null, there's no video
-     * stream in the multimedia file.
+     * Returns a set of video-specific informations, about the first video
+     * stream. If null, there's no video stream in the multimedia file.
      *
      * @return A set of audio-specific informations.
      */
@@ -117,10 +152,96 @@ public class MediaInfo {
         return this;
     }
 
+    /**
+     * Returns every stream of the multimedia file, in order.
+     *
+     * @return The streams.
+     */
+    public List<StreamInfo> getStreams() {
+        return streams;
+    }
+
+    /**
+     * Returns the streams of a type, in order. The position of a stream in
+     * this list is its index in the ffmpeg stream specifiers, as in -map 0:a:1.
+     *
+     * @param type The stream type.
+     * @return The streams of the type.
+     */
+    public List<StreamInfo> getStreams(StreamInfo.Type type) {
+        ArrayList<StreamInfo> result = new ArrayList<>();
+        for (StreamInfo stream : streams) {
+            if (stream.getType() == type) {
+                result.add(stream);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a stream of the multimedia file. The first video and audio streams
+     * are also reported by {@link #getVideo()} and {@link #getAudio()}.
+     *
+     * @param stream The stream.
+     * @return this instance
+     */
+    public MediaInfo addStream(@NonNull StreamInfo stream) {
+        streams.add(stream);
+        if (stream.getType() == StreamInfo.Type.VIDEO && video == null) {
+            video = stream.toVideoInfo();
+        } else if (stream.getType() == StreamInfo.Type.AUDIO && audio == null) {
+            audio = stream.toAudioInfo();
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of video streams
+     */
+    public int getVideoStreamCount() {
+        return getStreams(StreamInfo.Type.VIDEO).size();
+    }
+
+    /**
+     * @return the number of audio streams
+     */
+    public int getAudioStreamCount() {
+        return getStreams(StreamInfo.Type.AUDIO).size();
+    }
+
+    /**
+     * @return the number of subtitle streams
+     */
+    public int getSubtitleStreamCount() {
+        return getStreams(StreamInfo.Type.SUBTITLE).size();
+    }
+
+    /**
+     * @return the number of data streams
+     */
+    public int getDataStreamCount() {
+        return getStreams(StreamInfo.Type.DATA).size();
+    }
+
+    /**
+     * Returns the language of every audio stream, in order, as ISO 639-2
+     * codes (eng, fre...).
+     *
+     * @return the languages, null for the streams not tagged
+     */
+    public List<String> getAudioLanguages() {
+        ArrayList<String> languages = new ArrayList<>();
+        for (StreamInfo stream : getStreams(StreamInfo.Type.AUDIO)) {
+            languages.add(stream.getLanguage());
+        }
+        return languages;
+    }
+
     @NonNull
     @Override
     public String toString() {
         return getClass().getName() + " (format=" + format + ", duration="
-                + duration + ", video=" + video + ", audio=" + audio + ")";
+                + duration + ", startTime=" + startTime + ", video=" + video
+                + ", audio=" + audio + ", streams=" + streams + ")";
     }
 }
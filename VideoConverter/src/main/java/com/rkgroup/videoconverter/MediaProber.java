@@ -0,0 +1,27 @@
+package com.rkgroup.videoconverter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the informations of a local multimedia file without running ffmpeg.
+ * A prober handles the formats it knows and declines the others, which are
+ * then probed by ffmpeg.
+ *
+ * @author Rufen Khokhar
+ * @see FFMPEGMediaObject#setProber(MediaProber)
+ */
+public interface MediaProber {
+
+    /**
+     * Probes a local file. The result must be as complete as the ffmpeg one
+     * for the key informations: duration, codec of every stream and size of
+     * every video stream.
+     *
+     * @param source The multimedia file.
+     * @return The informations about the file and its contents, null if the
+     * format is not handled or the file cannot be fully described.
+     * @throws IOException If the file cannot be read.
+     */
+    MediaInfo probe(File source) throws IOException;
+}
@@ -0,0 +1,226 @@
+package com.rkgroup.videoconverter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A package-private reader of the MPEG audio (MP1/MP2/MP3) headers. The ID3v2
+ * tag is skipped, the first frame header gives the stream parameters and
+ * the Xing/Info or VBRI header, when present, the frame count of a variable
+ * bit rate file; otherwise the duration is estimated from the bit rate, as
+ * ffmpeg does.
+ *
+ * @author Rufen Khokhar
+ */
+final class Mp3HeaderReader {
+
+    /**
+     * The bytes searched for the first frame after the ID3v2 tag.
+     */
+    private static final int SYNC_SEARCH_SIZE = 64 * 1024;
+
+    /**
+     * Larger ID3v2 tags (embedded cover art) are left to ffmpeg.
+     */
+    private static final int MAX_TAG_SIZE = 256 * 1024;
+
+    /**
+     * Bit rates (kb/s) by [MPEG-1 ? 0 : 1][layer - 1][index].
+     */
+    private static final int[][][] BIT_RATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+
+    /**
+     * Sampling rates of MPEG-1, divided by 2 for MPEG-2 and by 4 for MPEG-2.5.
+     */
+    private static final int[] SAMPLING_RATES = {44100, 48000, 32000};
+
+    private Mp3HeaderReader() {
+    }
+
+    /**
+     * @param magic The first bytes of the file.
+     * @return true if the file starts with an ID3v2 tag or a frame header
+     */
+    static boolean matches(ByteBuffer magic) {
+        return (magic.get(0) == 'I' && magic.get(1) == 'D' && magic.get(2) == '3')
+                || parseHeader(magic.getInt(0)) != null;
+    }
+
+    /**
+     * @param channel The file.
+     * @return The informations, null if the file cannot be fully described.
+     */
+    static MediaInfo read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        HeaderMediaProber.readFully(channel, buffer, 0);
+        if (buffer.limit() == 10 && buffer.get(0) == 'I' && buffer.get(1) == 'D' && buffer.get(2) == '3') {
+            int tagSize = ((buffer.get(6) & 0x7f) << 21) | ((buffer.get(7) & 0x7f) << 14)
+                    | ((buffer.get(8) & 0x7f) << 7) | (buffer.get(9) & 0x7f);
+            if (tagSize > MAX_TAG_SIZE) {
+                return null;
+            }
+            ByteBuffer tag = ByteBuffer.allocate(tagSize);
+            HeaderMediaProber.readFully(channel, tag, 10);
+            if (hasPicture(tag, buffer.get(3))) {
+                // ffmpeg reports the cover art as a video stream
+                return null;
+            }
+            start = 10 + tagSize + ((buffer.get(5) & 0x10) != 0 ? 10 : 0);
+        }
+
+        buffer = ByteBuffer.allocate(SYNC_SEARCH_SIZE);
+        HeaderMediaProber.readFully(channel, buffer, start);
+        int frame = -1;
+        int[] header = null;
+        for (int i = 0; i + 4 <= buffer.limit(); i++) {
+            if ((buffer.get(i) & 0xff) != 0xff) {
+                continue;
+            }
+            header = parseHeader(buffer.getInt(i));
+            if (header == null) {
+                continue;
+            }
+            // The next frame must follow, a sync word may appear in any data
+            int next = i + header[4];
+            if (next + 4 > buffer.limit() || parseHeader(buffer.getInt(next)) != null) {
+                frame = i;
+                break;
+            }
+        }
+        if (frame < 0) {
+            return null;
+        }
+        int mpeg1 = header[0];
+        int layer = header[1];
+        int bitRate = header[2];
+        int samplingRate = header[3];
+        boolean mono = header[5] == 3;
+        int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && mpeg1 == 0 ? 576 : 1152);
+
+        long end = size;
+        ByteBuffer id3v1 = ByteBuffer.allocate(3);
+        if (size >= 128 && HeaderMediaProber.readFully(channel, id3v1, size - 128) == 3
+                && id3v1.get(0) == 'T' && id3v1.get(1) == 'A' && id3v1.get(2) == 'G') {
+            end -= 128;
+        }
+        long audioBytes = end - start - frame;
+
+        long frames = -1;
+        if (layer == 3) {
+            int xing = frame + 4 + (mpeg1 == 1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+            int vbri = frame + 36;
+            if (hasId(buffer, xing, "Xing") || hasId(buffer, xing, "Info")) {
+                if ((buffer.getInt(xing + 4) & 1) != 0) {
+                    frames = buffer.getInt(xing + 8) & 0xffffffffL;
+                }
+            } else if (hasId(buffer, vbri, "VBRI")) {
+                frames = buffer.getInt(vbri + 14) & 0xffffffffL;
+            }
+        }
+        long duration;
+        long averageBitRate;
+        if (frames > 0) {
+            duration = frames * samplesPerFrame * 1000000L / samplingRate;
+            averageBitRate = audioBytes * 8 * 1000000L / duration;
+        } else {
+            // Constant bit rate
+            duration = audioBytes * 8 * 1000L / bitRate;
+            averageBitRate = bitRate * 1000L;
+        }
+        if (duration <= 0) {
+            return null;
+        }
+        String codec = layer == 3 ? "mp3" : (layer == 2 ? "mp2" : "mp1");
+        StreamInfo stream = new StreamInfo(0, StreamInfo.Type.AUDIO)
+                .setCodec(codec)
+                .setDecoder(codec)
+                .setSampleFormat("fltp")
+                .setSamplingRate(samplingRate)
+                .setChannels(mono ? 1 : 2)
+                .setBitRate(HeaderMediaProber.toKiloBits(averageBitRate));
+        return new MediaInfo()
+                .setFormat("mp3")
+                .setDuration(HeaderMediaProber.toMillis(duration))
+                .addStream(stream);
+    }
+
+    /**
+     * Parses a frame header.
+     *
+     * @param header The 4 header bytes.
+     * @return MPEG-1 (1 or 0), layer, bit rate (kb/s), sampling rate, frame
+     * length and channel mode, null if this is not a valid frame header
+     */
+    private static int[] parseHeader(int header) {
+        if ((header & 0xffe00000) != 0xffe00000) {
+            return null;
+        }
+        int version = (header >> 19) & 3;
+        int layer = 4 - ((header >> 17) & 3);
+        int bitRateIndex = (header >> 12) & 0xf;
+        int samplingRateIndex = (header >> 10) & 3;
+        if (version == 1 || layer == 4 || bitRateIndex == 0 || bitRateIndex == 15 || samplingRateIndex == 3) {
+            // Reserved values, free format
+            return null;
+        }
+        int mpeg1 = version == 3 ? 1 : 0;
+        int bitRate = BIT_RATES[1 - mpeg1][layer - 1][bitRateIndex];
+        int samplingRate = SAMPLING_RATES[samplingRateIndex] >> (version == 3 ? 0 : (version == 2 ? 1 : 2));
+        int padding = (header >> 9) & 1;
+        int length;
+        if (layer == 1) {
+            length = (12000 * bitRate / samplingRate + padding) * 4;
+        } else if (layer == 3 && mpeg1 == 0) {
+            length = 72000 * bitRate / samplingRate + padding;
+        } else {
+            length = 144000 * bitRate / samplingRate + padding;
+        }
+        return new int[]{mpeg1, layer, bitRate, samplingRate, length, (header >> 6) & 3};
+    }
+
+    private static boolean hasId(ByteBuffer buffer, int offset, String id) {
+        if (offset + 16 > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (buffer.get(offset + i) != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param tag     The ID3v2 tag, after its header.
+     * @param version The ID3v2 major version.
+     * @return true if the tag has an attached picture frame
+     */
+    private static boolean hasPicture(ByteBuffer tag, int version) {
+        String id = version == 2 ? "PIC" : "APIC";
+        int limit = tag.limit() - id.length();
+        for (int i = 0; i <= limit; i++) {
+            int j = 0;
+            while (j < id.length() && tag.get(i + j) == id.charAt(j)) {
+                j++;
+            }
+            if (j == id.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
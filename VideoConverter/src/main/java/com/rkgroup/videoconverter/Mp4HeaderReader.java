@@ -0,0 +1,506 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A package-private reader of the MP4/MOV headers. The top level boxes are
+ * skipped up to the moov box, which is memory-mapped and walked down to the
+ * track headers: mvhd, then tkhd, mdhd, hdlr, stsd, stts and stsz of every
+ * trak.
+ *
+ * @author Rufen Khokhar
+ */
+final class Mp4HeaderReader {
+    private static final String TAG = "Mp4HeaderReader";
+
+    /**
+     * Larger moov boxes (hours of content) are left to ffmpeg.
+     */
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+
+    private static final int FTYP = fourcc("ftyp");
+    private static final int MOOV = fourcc("moov");
+    private static final int MVHD = fourcc("mvhd");
+    private static final int TRAK = fourcc("trak");
+    private static final int TKHD = fourcc("tkhd");
+    private static final int MDIA = fourcc("mdia");
+    private static final int MDHD = fourcc("mdhd");
+    private static final int HDLR = fourcc("hdlr");
+    private static final int MINF = fourcc("minf");
+    private static final int STBL = fourcc("stbl");
+    private static final int STSD = fourcc("stsd");
+    private static final int STTS = fourcc("stts");
+    private static final int STSZ = fourcc("stsz");
+    private static final int ESDS = fourcc("esds");
+    private static final int AVCC = fourcc("avcC");
+    private static final int HVCC = fourcc("hvcC");
+
+    private static final int VIDE = fourcc("vide");
+    private static final int SOUN = fourcc("soun");
+    private static final int SBTL = fourcc("sbtl");
+    private static final int SUBT = fourcc("subt");
+    private static final int TEXT = fourcc("text");
+
+    private Mp4HeaderReader() {
+    }
+
+    private static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    /**
+     * @param magic The first bytes of the file.
+     * @return true if the file starts with a ftyp or moov box
+     */
+    static boolean matches(ByteBuffer magic) {
+        int type = magic.getInt(4);
+        return type == FTYP || type == MOOV;
+    }
+
+    /**
+     * @param channel The file.
+     * @return The informations, null if the file cannot be fully described.
+     */
+    static MediaInfo read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= size) {
+            header.clear();
+            HeaderMediaProber.readFully(channel, header, position);
+            long boxSize = header.getInt(0) & 0xffffffffL;
+            int type = header.getInt(4);
+            int headerSize = 8;
+            if (boxSize == 1 && header.limit() == 16) {
+                boxSize = header.getLong(8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                // Up to the end of the file
+                boxSize = size - position;
+            }
+            if (boxSize < headerSize) {
+                return null;
+            }
+            if (type == MOOV) {
+                if (boxSize > MAX_MOOV_SIZE || position + boxSize > size) {
+                    return null;
+                }
+                ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position + headerSize, boxSize - headerSize);
+                return readMoov(moov);
+            }
+            position += boxSize;
+        }
+        return null;
+    }
+
+    private static MediaInfo readMoov(ByteBuffer moov) {
+        MediaInfo info = new MediaInfo().setFormat("mov");
+        int index = 0;
+        for (int box = 0; box + 8 <= moov.limit(); box += moov.getInt(box)) {
+            int boxSize = moov.getInt(box);
+            if (boxSize < 8) {
+                return null;
+            }
+            int type = moov.getInt(box + 4);
+            if (type == MVHD) {
+                int c = box + 8;
+                long timescale;
+                long duration;
+                if (moov.get(c) == 1) {
+                    timescale = moov.getInt(c + 20) & 0xffffffffL;
+                    duration = moov.getLong(c + 24);
+                } else {
+                    timescale = moov.getInt(c + 12) & 0xffffffffL;
+                    duration = moov.getInt(c + 16) & 0xffffffffL;
+                }
+                if (timescale == 0 || duration <= 0) {
+                    // Fragmented file, the duration is in the fragments
+                    return null;
+                }
+                info.setDuration(HeaderMediaProber.toMillis(duration * 1000000 / timescale));
+            } else if (type == TRAK) {
+                StreamInfo stream = readTrak(moov, box + 8, box + boxSize, index++);
+                if (stream == null) {
+                    return null;
+                }
+                info.addStream(stream);
+            }
+        }
+        if (info.getDuration() < 0 || info.getStreams().isEmpty()) {
+            return null;
+        }
+        return info;
+    }
+
+    private static StreamInfo readTrak(ByteBuffer b, int start, int end, int index) {
+        int tkhd = find(b, start, end, TKHD);
+        int mdia = find(b, start, end, MDIA);
+        if (tkhd < 0 || mdia < 0) {
+            return null;
+        }
+        int mdiaEnd = mdia + b.getInt(mdia);
+        int mdhd = find(b, mdia + 8, mdiaEnd, MDHD);
+        int hdlr = find(b, mdia + 8, mdiaEnd, HDLR);
+        int minf = find(b, mdia + 8, mdiaEnd, MINF);
+        if (mdhd < 0 || hdlr < 0 || minf < 0) {
+            return null;
+        }
+        int stbl = find(b, minf + 8, minf + b.getInt(minf), STBL);
+        if (stbl < 0) {
+            return null;
+        }
+        int stblEnd = stbl + b.getInt(stbl);
+        int stsd = find(b, stbl + 8, stblEnd, STSD);
+        if (stsd < 0 || b.getInt(stsd + 12) < 1) {
+            return null;
+        }
+
+        int handler = b.getInt(hdlr + 16);
+        StreamInfo.Type type;
+        if (handler == VIDE) {
+            type = StreamInfo.Type.VIDEO;
+        } else if (handler == SOUN) {
+            type = StreamInfo.Type.AUDIO;
+        } else if (handler == SBTL || handler == SUBT || handler == TEXT) {
+            type = StreamInfo.Type.SUBTITLE;
+        } else {
+            // Timecode, hint, metadata tracks
+            Log.d(TAG, "Unhandled track type " + handler);
+            return null;
+        }
+        StreamInfo stream = new StreamInfo(index, type);
+        // tkhd enabled flag
+        stream.setDefaultStream((b.getInt(tkhd + 8) & 1) != 0);
+
+        int c = mdhd + 8;
+        long timescale;
+        long duration;
+        int language;
+        if (b.get(c) == 1) {
+            timescale = b.getInt(c + 20) & 0xffffffffL;
+            duration = b.getLong(c + 24);
+            language = b.getShort(c + 32) & 0xffff;
+        } else {
+            timescale = b.getInt(c + 12) & 0xffffffffL;
+            duration = b.getInt(c + 16) & 0xffffffffL;
+            language = b.getShort(c + 20) & 0xffff;
+        }
+        if (language == 0) {
+            // Macintosh language code of English
+            stream.setLanguage("eng");
+        } else if (language >= 0x400 && language != 0x7fff) {
+            String code = new String(new char[]{
+                    (char) (((language >> 10) & 0x1f) + 0x60),
+                    (char) (((language >> 5) & 0x1f) + 0x60),
+                    (char) ((language & 0x1f) + 0x60)});
+            if (!"und".equals(code)) {
+                stream.setLanguage(code);
+            }
+        } else if (language != 0x7fff) {
+            // Other Macintosh language codes
+            return null;
+        }
+
+        // First sample description
+        int entry = stsd + 16;
+        int tag = b.getInt(entry + 4);
+        String codec = getCodec(tag);
+        String profile = null;
+        long esdsBitRate = 0;
+        if (type == StreamInfo.Type.VIDEO) {
+            int width = b.getShort(entry + 32) & 0xffff;
+            int height = b.getShort(entry + 34) & 0xffff;
+            if (width == 0 || height == 0) {
+                return null;
+            }
+            stream.setSize(new VideoSize(width, height));
+            int entryEnd = entry + b.getInt(entry);
+            int avcc = find(b, entry + 86, entryEnd, AVCC);
+            int hvcc = find(b, entry + 86, entryEnd, HVCC);
+            if (avcc >= 0) {
+                profile = getAvcProfile(b.get(avcc + 9) & 0xff, b.get(avcc + 10) & 0xff);
+            } else if (hvcc >= 0) {
+                profile = getHevcProfile(b.get(hvcc + 9) & 0x1f);
+            }
+            long[] samples = countSamples(b, find(b, stbl + 8, stblEnd, STTS));
+            if (samples != null && samples[1] > 0 && timescale > 0) {
+                float frameRate = samples[0] * timescale / (float) samples[1];
+                // As printed by ffmpeg, 29.97
+                stream.setFrameRate(Math.round(frameRate * 100) / 100f);
+            }
+        } else if (type == StreamInfo.Type.AUDIO) {
+            int version = b.getShort(entry + 16) & 0xffff;
+            if (version > 1) {
+                // QuickTime sound description v2, the rate is a double
+                return null;
+            }
+            stream.setChannels(b.getShort(entry + 24) & 0xffff);
+            stream.setSamplingRate(b.getInt(entry + 32) >>> 16);
+            int esds = find(b, entry + (version == 1 ? 52 : 36), entry + b.getInt(entry), ESDS);
+            if (esds >= 0) {
+                int[] config = readEsds(b, esds + 12, esds + b.getInt(esds));
+                if (config == null) {
+                    return null;
+                }
+                if (config[0] == 0x69 || config[0] == 0x6b) {
+                    codec = "mp3";
+                } else if (config[2] == 5 || config[2] == 29) {
+                    // HE-AAC, the output sampling rate is only known by decoding
+                    return null;
+                } else {
+                    profile = getAacProfile(config[2]);
+                }
+                esdsBitRate = config[1] & 0xffffffffL;
+            }
+            if (codec != null) {
+                stream.setSampleFormat(getSampleFormat(codec));
+            }
+        }
+        if (codec == null) {
+            Log.d(TAG, "Unhandled codec " + Integer.toHexString(tag));
+            return null;
+        }
+        stream.setCodec(codec);
+        stream.setDecoder(HeaderMediaProber.getDecoder(codec, profile, Integer.reverseBytes(tag)));
+
+        if (esdsBitRate > 0) {
+            stream.setBitRate(HeaderMediaProber.toKiloBits(esdsBitRate));
+        } else if (duration > 0 && timescale > 0) {
+            long bytes = countBytes(b, find(b, stbl + 8, stblEnd, STSZ));
+            if (bytes > 0) {
+                stream.setBitRate(HeaderMediaProber.toKiloBits(bytes * 8 * timescale / duration));
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * @return the offset of the first box of this type between start and
+     * end, -1 if none
+     */
+    private static int find(ByteBuffer b, int start, int end, int type) {
+        int box = start;
+        while (box + 8 <= end) {
+            int size = b.getInt(box);
+            if (b.getInt(box + 4) == type) {
+                return box;
+            }
+            if (size < 8) {
+                return -1;
+            }
+            box += size;
+        }
+        return -1;
+    }
+
+    /**
+     * @param stts The offset of the stts box.
+     * @return the sample count and the sum of the sample durations
+     */
+    private static long[] countSamples(ByteBuffer b, int stts) {
+        if (stts < 0) {
+            return null;
+        }
+        int entries = b.getInt(stts + 12);
+        long count = 0;
+        long duration = 0;
+        for (int i = 0; i < entries; i++) {
+            long sampleCount = b.getInt(stts + 16 + i * 8) & 0xffffffffL;
+            long sampleDelta = b.getInt(stts + 20 + i * 8) & 0xffffffffL;
+            count += sampleCount;
+            duration += sampleCount * sampleDelta;
+        }
+        return new long[]{count, duration};
+    }
+
+    /**
+     * @param stsz The offset of the stsz box.
+     * @return the size of the track samples
+     */
+    private static long countBytes(ByteBuffer b, int stsz) {
+        if (stsz < 0) {
+            return 0;
+        }
+        long sampleSize = b.getInt(stsz + 12) & 0xffffffffL;
+        int count = b.getInt(stsz + 16);
+        if (sampleSize != 0) {
+            return sampleSize * count;
+        }
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += b.getInt(stsz + 20 + i * 4) & 0xffffffffL;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the MPEG-4 elementary stream descriptor.
+     *
+     * @return the object type, the average bit rate and the audio object
+     * type (0 if not available), null if the descriptor is malformed
+     */
+    private static int[] readEsds(ByteBuffer b, int p, int end) {
+        if (p >= end || b.get(p) != 0x03) {
+            return null;
+        }
+        p = skipDescriptorLength(b, p + 1);
+        int flags = b.get(p + 2) & 0xff;
+        p += 3;
+        if ((flags & 0x80) != 0) {
+            p += 2;
+        }
+        if ((flags & 0x40) != 0) {
+            p += 1 + (b.get(p) & 0xff);
+        }
+        if ((flags & 0x20) != 0) {
+            p += 2;
+        }
+        if (p >= end || b.get(p) != 0x04) {
+            return null;
+        }
+        p = skipDescriptorLength(b, p + 1);
+        int objectType = b.get(p) & 0xff;
+        int bitRate = b.getInt(p + 9);
+        int audioObjectType = 0;
+        p += 13;
+        if (p < end && b.get(p) == 0x05) {
+            p = skipDescriptorLength(b, p + 1);
+            audioObjectType = (b.get(p) & 0xff) >> 3;
+            if (audioObjectType == 31) {
+                audioObjectType = 32 + (((b.get(p) & 0x07) << 3) | ((b.get(p + 1) & 0xff) >> 5));
+            }
+        }
+        return new int[]{objectType, bitRate, audioObjectType};
+    }
+
+    private static int skipDescriptorLength(ByteBuffer b, int p) {
+        for (int i = 0; i < 4; i++) {
+            if ((b.get(p++) & 0x80) == 0) {
+                break;
+            }
+        }
+        return p;
+    }
+
+    private static String getCodec(int tag) {
+        switch (new String(new char[]{(char) (tag >>> 24), (char) ((tag >> 16) & 0xff),
+                (char) ((tag >> 8) & 0xff), (char) (tag & 0xff)})) {
+            case "avc1":
+            case "avc3":
+                return "h264";
+            case "hvc1":
+            case "hev1":
+                return "hevc";
+            case "mp4v":
+                return "mpeg4";
+            case "s263":
+            case "h263":
+                return "h263";
+            case "vp08":
+                return "vp8";
+            case "vp09":
+                return "vp9";
+            case "av01":
+                return "av1";
+            case "jpeg":
+                return "mjpeg";
+            case "mp4a":
+                return "aac";
+            case ".mp3":
+                return "mp3";
+            case "ac-3":
+                return "ac3";
+            case "ec-3":
+                return "eac3";
+            case "Opus":
+                return "opus";
+            case "fLaC":
+                return "flac";
+            case "alac":
+                return "alac";
+            case "samr":
+                return "amr_nb";
+            case "sawb":
+                return "amr_wb";
+            case "tx3g":
+                return "mov_text";
+            case "wvtt":
+                return "webvtt";
+            default:
+                return null;
+        }
+    }
+
+    private static String getSampleFormat(String codec) {
+        switch (codec) {
+            case "aac":
+            case "mp3":
+            case "ac3":
+            case "eac3":
+            case "opus":
+                return "fltp";
+            default:
+                return null;
+        }
+    }
+
+    private static String getAvcProfile(int profile, int constraints) {
+        switch (profile) {
+            case 66:
+                return (constraints & 0x40) != 0 ? "Constrained Baseline" : "Baseline";
+            case 77:
+                return "Main";
+            case 88:
+                return "Extended";
+            case 100:
+                return "High";
+            case 110:
+                return "High 10";
+            case 122:
+                return "High 4:2:2";
+            case 244:
+                return "High 4:4:4 Predictive";
+            default:
+                return null;
+        }
+    }
+
+    private static String getHevcProfile(int profile) {
+        switch (profile) {
+            case 1:
+                return "Main";
+            case 2:
+                return "Main 10";
+            case 3:
+                return "Main Still Picture";
+            case 4:
+                return "Rext";
+            default:
+                return null;
+        }
+    }
+
+    private static String getAacProfile(int audioObjectType) {
+        switch (audioObjectType) {
+            case 1:
+                return "Main";
+            case 2:
+                return "LC";
+            case 3:
+                return "SSR";
+            case 4:
+                return "LTP";
+            case 23:
+                return "LD";
+            case 39:
+                return "ELD";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.rkgroup.videoconverter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A package-private estimator of the size of an encoded output, used to check
+ * the free space before starting ffmpeg.
+ * <p>
+ * The bitrates are the ones of the properties, of the source for a stream
+ * copy, or else modeled: the video bits per pixel of the codec at CRF 23,
+ * doubled every 6 CRF steps (as x264 and x265 roughly do), times the pixels
+ * per second. Every rendition of a segmented output is estimated at its own
+ * size and bitrates. The estimate is rough, it aims to catch the encodings
+ * that can't fit, not to predict the size.
+ *
+ * @author Rufen Khokhar
+ */
+final class OutputSizeEstimator {
+
+    /**
+     * The CRF of the encoders when none is set.
+     */
+    private static final int DEFAULT_CRF = 23;
+
+    /**
+     * The frame rate assumed when neither the properties nor the source
+     * give it.
+     */
+    private static final float DEFAULT_FRAME_RATE = 30;
+
+    private OutputSizeEstimator() {
+    }
+
+    /**
+     * @param duration        The encoded duration (millis).
+     * @param videoProperties The video properties, null if no video is
+     *                        encoded.
+     * @param audioProperties The audio properties, null if no audio is
+     *                        encoded.
+     * @param streamCopy      Are the streams copied?
+     * @param targetSize      The target size of a two-pass encoding, can be
+     *                        null.
+     * @param info            The source informations, can be null.
+     * @param segmentedOutput The segmented output, can be null.
+     * @return The estimated size (bytes), -1 if unknown.
+     */
+    static long estimate(long duration, VideoProperties videoProperties, AudioProperties audioProperties,
+                         boolean streamCopy, Long targetSize, MediaInfo info,
+                         SegmentedOutput segmentedOutput) {
+        if (targetSize != null) {
+            return targetSize;
+        }
+        if (duration <= 0) {
+            return -1;
+        }
+        List<Rendition> renditions = segmentedOutput != null && videoProperties != null
+                ? segmentedOutput.getRenditions() : Collections.<Rendition>emptyList();
+        long bitRate;
+        if (renditions.isEmpty()) {
+            long videoBitRate = videoProperties != null
+                    ? getVideoBitRate(videoProperties, null, streamCopy, info) : 0;
+            long audioBitRate = audioProperties != null
+                    ? getAudioBitRate(audioProperties, streamCopy, info) : 0;
+            if (videoBitRate < 0 || audioBitRate < 0) {
+                return -1;
+            }
+            bitRate = videoBitRate + audioBitRate;
+        } else {
+            // A DASH manifest shares one audio stream, an HLS variant muxes its own
+            boolean sharedAudio = segmentedOutput.getPackaging() == SegmentedOutput.Packaging.DASH;
+            bitRate = 0;
+            for (int i = 0; i < renditions.size(); i++) {
+                Rendition rendition = renditions.get(i);
+                long videoBitRate = rendition.getVideoBitRate() != null ? rendition.getVideoBitRate()
+                        : getVideoBitRate(videoProperties, rendition.getSize(), false, info);
+                long audioBitRate = 0;
+                if (audioProperties != null && (!sharedAudio || i == 0)) {
+                    audioBitRate = rendition.getAudioBitRate() != null ? rendition.getAudioBitRate()
+                            : getAudioBitRate(audioProperties, false, info);
+                }
+                if (videoBitRate < 0) {
+                    return -1;
+                }
+                bitRate += videoBitRate + audioBitRate;
+            }
+        }
+        double size = bitRate / 8d * duration / 1000;
+        return (long) (size * (1 + Encoder.CONTAINER_OVERHEAD));
+    }
+
+    /**
+     * @param size The size of the rendition, null for the one of the
+     *             properties or the source.
+     * @return The video bitrate (bits/s), -1 if unknown.
+     */
+    private static long getVideoBitRate(VideoProperties videoProperties, VideoSize size, boolean streamCopy,
+                                        MediaInfo info) {
+        VideoInfo source = info != null ? info.getVideo() : null;
+        if (info != null && source == null) {
+            return 0;
+        }
+        String codec = videoProperties.getCodec();
+        if (streamCopy || VideoProperties.COPY_ORIGINAL_STREAM.equals(codec)) {
+            return source != null && source.getBitRate() > 0 ? source.getBitRate() : -1;
+        }
+        if (videoProperties.getBitRate() != null) {
+            return videoProperties.getBitRate();
+        }
+        if (size == null) {
+            size = videoProperties.getSize() != null ? videoProperties.getSize()
+                    : (source != null ? source.getSize() : null);
+        }
+        if (size == null) {
+            return -1;
+        }
+        float frameRate = DEFAULT_FRAME_RATE;
+        if (videoProperties.getFrameRate() != null) {
+            frameRate = videoProperties.getFrameRate();
+        } else if (source != null && source.getFrameRate() > 0) {
+            frameRate = source.getFrameRate();
+        }
+        int crf = videoProperties.getCrf() != null ? videoProperties.getCrf() : DEFAULT_CRF;
+        double bitsPerPixel = getBitsPerPixel(codec) * Math.pow(2, (DEFAULT_CRF - crf) / 6d);
+        return (long) (bitsPerPixel * size.getWidth() * size.getHeight() * frameRate);
+    }
+
+    /**
+     * @param codec The video encoder, null for the default one of the format.
+     * @return The bits per pixel of the codec at the default CRF.
+     */
+    private static double getBitsPerPixel(String codec) {
+        if (codec == null) {
+            return 0.1;
+        }
+        if (codec.contains("265") || codec.contains("hevc") || codec.contains("vp9")) {
+            return 0.05;
+        }
+        if (codec.contains("av1") || codec.contains("aom")) {
+            return 0.04;
+        }
+        if (codec.contains("264")) {
+            return 0.08;
+        }
+        // MPEG-4 part 2, H.263, VP8...
+        return 0.15;
+    }
+
+    /**
+     * @return The audio bitrate (bits/s).
+     */
+    private static long getAudioBitRate(AudioProperties audioProperties, boolean streamCopy, MediaInfo info) {
+        AudioInfo source = info != null ? info.getAudio() : null;
+        if (info != null && source == null) {
+            return 0;
+        }
+        if (streamCopy || AudioProperties.COPY_ORIGINAL_STREAM.equals(audioProperties.getCodec())) {
+            return source != null && source.getBitRate() > 0 ? source.getBitRate() : Encoder.DEFAULT_AUDIO_BIT_RATE;
+        }
+        if (audioProperties.getBitRate() != null) {
+            return audioProperties.getBitRate();
+        }
+        return Encoder.DEFAULT_AUDIO_BIT_RATE;
+    }
+}
@@ -0,0 +1,371 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import com.rkgroup.videoconverter.exceptions.EncoderError;
+import com.rkgroup.videoconverter.exceptions.InputFormatException;
+
+import java.io.IOException;
+
+/**
+ * A package-private parser of the ffmpeg output describing a source
+ * multimedia file (ffmpeg -i source).
+ * <p>
+ * The output is read in a single pass and every line is scanned at most once,
+ * character by character: no regular expression is compiled or run, and a
+ * stream description is split in tokens without intermediate lists. Library
+ * scans probe thousands of files, the parsing must stay far below the cost
+ * of the ffmpeg process itself.
+ *
+ * @author Rufen Khokhar
+ */
+final class ProbeOutputParser {
+    private static final String TAG = "ProbeOutputParser";
+
+    private static final String INPUT = "Input #0, ";
+    private static final String DURATION = "Duration: ";
+    private static final String START = "start: ";
+    private static final String STREAM = "Stream #";
+
+    private ProbeOutputParser() {
+    }
+
+    /**
+     * Parses the ffmpeg output, extracting informations about a source
+     * multimedia file. The reader is left on the first progress line, if any.
+     *
+     * @param source The source, as given to ffmpeg.
+     * @param reader The ffmpeg output channel.
+     * @return A set of informations about the source multimedia file and its
+     * contents.
+     * @throws InputFormatException If the format of the source file cannot be
+     *                              recognized and decoded.
+     * @throws EncoderError         If a problem occurs calling the underlying
+     *                              ffmpeg executable.
+     */
+    static MediaInfo parse(String source, RKBufferedReader reader)
+            throws InputFormatException, EncoderError {
+        String errorToken = source + ": ";
+        MediaInfo info = null;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("frame=")) {
+                    reader.reinsertLine(line);
+                    break;
+                }
+                int start = skipSpaces(line, 0);
+                if (info == null) {
+                    if (line.startsWith(errorToken)) {
+                        throw new InputFormatException(line.substring(errorToken.length()));
+                    }
+                    if (line.startsWith(INPUT, start)) {
+                        info = new MediaInfo();
+                        info.setFormat(parseWord(line, start + INPUT.length()));
+                    }
+                } else if (line.startsWith(STREAM, start)) {
+                    StreamInfo stream = parseStream(line, start + STREAM.length());
+                    if (stream != null) {
+                        info.addStream(stream);
+                    }
+                } else if (line.startsWith(DURATION, start)) {
+                    parseDuration(info, line, start + DURATION.length());
+                } else if (line.startsWith("Output #", start) || line.startsWith("Stream mapping:", start)) {
+                    // Only the input is described
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new EncoderError(e);
+        }
+        if (info == null) {
+            throw new EncoderError();
+        }
+        Log.d(TAG, "Parsed " + info);
+        return info;
+    }
+
+    /**
+     * Duration: 00:01:02.50, start: 0.021333, bitrate: 2500 kb/s
+     */
+    private static void parseDuration(MediaInfo info, String line, int i) {
+        if (i + 11 <= line.length() && line.charAt(i + 2) == ':' && line.charAt(i + 5) == ':'
+                && line.charAt(i + 8) == '.') {
+            int hours = parseDigits(line, i, i + 2);
+            int minutes = parseDigits(line, i + 3, i + 5);
+            int seconds = parseDigits(line, i + 6, i + 8);
+            int hundredths = parseDigits(line, i + 9, i + 11);
+            if (hours >= 0 && minutes >= 0 && seconds >= 0 && hundredths >= 0) {
+                info.setDuration(hundredths * 10L + seconds * 1000L + minutes * 60L * 1000L
+                        + hours * 60L * 60L * 1000L);
+            }
+        } else {
+            Log.w(TAG, String.format("Invalid duration found %s", line));
+        }
+        int start = line.indexOf(START, i);
+        if (start >= 0) {
+            start += START.length();
+            int end = indexOf(line, ',', start);
+            try {
+                info.setStartTime(Float.parseFloat(line.substring(start, end)));
+            } catch (NumberFormatException e) {
+                // start: N/A
+            }
+        }
+    }
+
+    /**
+     * Stream #0:1[0x1c0](eng): Audio: aac (LC), 48000 Hz, stereo, fltp, 128 kb/s (default)
+     *
+     * @return the stream, null if the line is not a stream description
+     */
+    private static StreamInfo parseStream(String line, int i) {
+        int length = line.length();
+        // File index
+        int colon = indexOf(line, ':', i);
+        if (colon == length) {
+            return null;
+        }
+        i = colon + 1;
+        int indexEnd = i;
+        while (indexEnd < length && Character.isDigit(line.charAt(indexEnd))) {
+            indexEnd++;
+        }
+        int index = parseDigits(line, i, indexEnd);
+        if (index < 0) {
+            return null;
+        }
+        i = indexEnd;
+        String language = null;
+        // [0x1c0] and (eng), in any order
+        while (i < length && (line.charAt(i) == '[' || line.charAt(i) == '(')) {
+            char close = line.charAt(i) == '[' ? ']' : ')';
+            int end = indexOf(line, close, i);
+            if (close == ')') {
+                language = line.substring(i + 1, end);
+            }
+            i = end + 1;
+        }
+        if (!line.startsWith(": ", i)) {
+            return null;
+        }
+        i += 2;
+        int typeEnd = indexOf(line, ':', i);
+        StreamInfo.Type type = parseType(line, i, typeEnd);
+        if (type == null) {
+            return null;
+        }
+        StreamInfo stream = new StreamInfo(index, type);
+        if (language != null && !"und".equals(language)) {
+            stream.setLanguage(language);
+        }
+        parseSpecs(stream, line, skipSpaces(line, typeEnd + 1));
+        return stream;
+    }
+
+    private static StreamInfo.Type parseType(String line, int start, int end) {
+        switch (line.substring(start, end)) {
+            case "Video":
+                return StreamInfo.Type.VIDEO;
+            case "Audio":
+                return StreamInfo.Type.AUDIO;
+            case "Subtitle":
+                return StreamInfo.Type.SUBTITLE;
+            case "Data":
+                return StreamInfo.Type.DATA;
+            default:
+                // Attachment
+                return null;
+        }
+    }
+
+    /**
+     * Splits the stream description on the commas outside parentheses and
+     * brackets, "yuv420p(tv, bt709)" is a single token.
+     */
+    private static void parseSpecs(StreamInfo stream, String line, int i) {
+        int length = line.length();
+        int depth = 0;
+        int tokenStart = i;
+        int position = 0;
+        for (; i <= length; i++) {
+            char c = i < length ? line.charAt(i) : ',';
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if ((c == ')' || c == ']') && depth > 0) {
+                depth--;
+            } else if (c == ',' && (depth == 0 || i == length)) {
+                int end = i;
+                while (end > tokenStart && line.charAt(end - 1) == ' ') {
+                    end--;
+                }
+                parseToken(stream, line, skipSpaces(line, tokenStart), end, position++);
+                tokenStart = i + 1;
+            }
+        }
+    }
+
+    private static void parseToken(StreamInfo stream, String line, int start, int end, int position) {
+        if (start >= end) {
+            return;
+        }
+        // Flags: "128 kb/s (default)", "(forced)", but not "h264 (High)"
+        while (end > start && line.charAt(end - 1) == ')') {
+            int open = line.lastIndexOf('(', end - 1);
+            if (open <= start || line.charAt(open - 1) != ' ' || !isFlag(line, open + 1, end - 1)) {
+                break;
+            }
+            if (line.startsWith("default", open + 1)) {
+                stream.setDefaultStream(true);
+            }
+            end = open - 1;
+        }
+        if (position == 0) {
+            String decoder = line.substring(start, end);
+            stream.setDecoder(decoder);
+            stream.setCodec(decoder.substring(0, indexOf(decoder, ' ', 0)));
+            return;
+        }
+        int space = indexOf(line, ' ', start);
+        if (space > end) {
+            space = end;
+        }
+        String unit = space < end ? line.substring(space + 1, end) : "";
+        try {
+            if ("kb/s".equals(unit)) {
+                stream.setBitRate(Integer.parseInt(line.substring(start, space)) * 1000);
+                return;
+            }
+            switch (stream.getType()) {
+                case VIDEO:
+                    parseVideoToken(stream, line, start, end, space, unit, position);
+                    break;
+                case AUDIO:
+                    parseAudioToken(stream, line, start, end, space, unit);
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            Log.i(TAG, "Invalid value: " + line.substring(start, end));
+        }
+    }
+
+    private static void parseVideoToken(StreamInfo stream, String line, int start, int end,
+                                        int space, String unit, int position) {
+        if ("fps".equals(unit) || ("tbr".equals(unit) && stream.getFrameRate() < 0)) {
+            stream.setFrameRate(Float.parseFloat(line.substring(start, space)));
+            return;
+        }
+        char first = line.charAt(start);
+        if (Character.isDigit(first)) {
+            // 1920x1080 [SAR 1:1 DAR 16:9]
+            int x = indexOf(line, 'x', start);
+            if (x < space) {
+                int width = parseDigits(line, start, x);
+                int height = parseDigits(line, x + 1, space);
+                if (width > 0 && height > 0) {
+                    stream.setSize(new VideoSize(width, height));
+                }
+            }
+        } else if (position == 1 && Character.isLetter(first)) {
+            // yuv420p(tv, bt709, progressive)
+            int open = indexOf(line, '(', start);
+            stream.setPixelFormat(line.substring(start, Math.min(open, end)));
+        }
+    }
+
+    private static void parseAudioToken(StreamInfo stream, String line, int start, int end,
+                                        int space, String unit) {
+        if ("Hz".equals(unit)) {
+            stream.setSamplingRate(Integer.parseInt(line.substring(start, space)));
+            return;
+        }
+        if (unit.startsWith("channels")) {
+            stream.setChannels(Integer.parseInt(line.substring(start, space)));
+            return;
+        }
+        String token = line.substring(start, end);
+        switch (token) {
+            case "mono":
+                stream.setChannels(1);
+                return;
+            case "stereo":
+                stream.setChannels(2);
+                return;
+            case "quad":
+                stream.setChannels(4);
+                return;
+            case "u8": case "s16": case "s32": case "s64": case "flt": case "dbl":
+            case "u8p": case "s16p": case "s32p": case "s64p": case "fltp": case "dblp":
+                stream.setSampleFormat(token);
+                return;
+            default:
+                break;
+        }
+        // 5.1(side) -> 6
+        if (token.length() >= 3 && Character.isDigit(token.charAt(0)) && token.charAt(1) == '.'
+                && Character.isDigit(token.charAt(2))) {
+            stream.setChannels((token.charAt(0) - '0') + (token.charAt(2) - '0'));
+        }
+    }
+
+    /**
+     * @return true if the text is a disposition flag, lower case words like
+     * "default" or "attached pic"
+     */
+    private static boolean isFlag(String line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if ((c < 'a' || c > 'z') && c != ' ') {
+                return false;
+            }
+        }
+        return start < end;
+    }
+
+    /**
+     * @return the word (letters, digits, underscores) starting at i
+     */
+    private static String parseWord(String line, int i) {
+        int end = i;
+        while (end < line.length()
+                && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '_')) {
+            end++;
+        }
+        return line.substring(i, end);
+    }
+
+    /**
+     * @return the decimal value of the digits, -1 if a character is not a digit
+     */
+    private static int parseDigits(String line, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the index of the character, or the length of the line
+     */
+    private static int indexOf(String line, char c, int from) {
+        int index = line.indexOf(c, from);
+        return index < 0 ? line.length() : index;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+}
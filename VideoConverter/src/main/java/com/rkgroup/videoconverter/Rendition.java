@@ -0,0 +1,99 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A single quality level of a segmented (HLS/DASH) output.
+ *
+ * @author Rufen Khokhar
+ * @see SegmentedOutput
+ */
+public class Rendition {
+
+    /**
+     * The video size of this rendition. If null the source video size will not
+     * be modified.
+     */
+    private VideoSize size = null;
+
+    /**
+     * The video bitrate of this rendition. If null the bitrate of the
+     * {@link VideoProperties} will be used, one of them is required by HLS.
+     */
+    private Integer videoBitRate = null;
+
+    /**
+     * The audio bitrate of this rendition. If null the bitrate of the
+     * {@link AudioProperties} will be used.
+     */
+    private Integer audioBitRate = null;
+
+    public Rendition() {
+    }
+
+    /**
+     * @param size         The video size of this rendition.
+     * @param videoBitRate The video bitrate of this rendition.
+     * @param audioBitRate The audio bitrate of this rendition.
+     */
+    public Rendition(VideoSize size, Integer videoBitRate, Integer audioBitRate) {
+        this.size = size;
+        this.videoBitRate = videoBitRate;
+        this.audioBitRate = audioBitRate;
+    }
+
+    /**
+     * @return the video size of this rendition
+     */
+    public VideoSize getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the video size to set
+     * @return this instance
+     */
+    public Rendition setSize(VideoSize size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * @return the video bitrate of this rendition
+     */
+    public Integer getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    /**
+     * @param videoBitRate the video bitrate to set
+     * @return this instance
+     */
+    public Rendition setVideoBitRate(Integer videoBitRate) {
+        this.videoBitRate = videoBitRate;
+        return this;
+    }
+
+    /**
+     * @return the audio bitrate of this rendition
+     */
+    public Integer getAudioBitRate() {
+        return audioBitRate;
+    }
+
+    /**
+     * @param audioBitRate the audio bitrate to set
+     * @return this instance
+     */
+    public Rendition setAudioBitRate(Integer audioBitRate) {
+        this.audioBitRate = audioBitRate;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(size=" + size + ", videoBitRate="
+                + videoBitRate + ", audioBitRate=" + audioBitRate + ")";
+    }
+}
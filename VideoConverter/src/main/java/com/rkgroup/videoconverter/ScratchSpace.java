@@ -0,0 +1,297 @@
+package com.rkgroup.videoconverter;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.rkgroup.videoconverter.exceptions.EncoderError;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * A directory of intermediate files (pass logs, concat lists, spooled
+ * inputs), shared by the encoders of the application.
+ * <p>
+ * Every file is created with the bytes it is expected to take; a job waits
+ * while the quota of the directory is used by the other jobs, instead of
+ * filling the device and stalling every running encoding. Released files are
+ * deleted; the files left over by a crashed process are deleted once older
+ * than the maximum age.
+ * <p>
+ * The final outputs of the encoder are written next to their target under a
+ * temporary name, see {@link #getPartialFile(File)}, and renamed on success.
+ *
+ * @author Rufen Khokhar
+ */
+public class ScratchSpace {
+    private static final String TAG = "ScratchSpace";
+
+    /**
+     * The prefix of the temporary outputs.
+     */
+    private static final String PARTIAL_PREFIX = ".partial-";
+
+    private final File directory;
+    /**
+     * The bytes reserved by the files in use.
+     */
+    private final HashMap<File, Long> reservations = new HashMap<>();
+    private long quota = 1024L * 1024 * 1024;
+    private long maxAge = 24L * 60 * 60 * 1000;
+    private long waitTimeout = 10L * 60 * 1000;
+
+    /**
+     * @param directory The scratch directory, created if needed. It should
+     *                  be used by this instance only.
+     */
+    public ScratchSpace(File directory) {
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    /**
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the quota
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * Sets the bytes the scratch files may take, default 1 GB.
+     *
+     * @param quota the quota to set
+     * @return this instance
+     */
+    public ScratchSpace setQuota(long quota) {
+        synchronized (this) {
+            this.quota = quota;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @return the maxAge
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the age (milliseconds) after which a file not in use is deleted,
+     * default 24 hours.
+     *
+     * @param maxAge the maxAge to set
+     * @return this instance
+     */
+    public ScratchSpace setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * @return the waitTimeout
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /**
+     * Sets how long (milliseconds) a job waits for space before failing,
+     * default 10 minutes.
+     *
+     * @param waitTimeout the waitTimeout to set
+     * @return this instance
+     */
+    public ScratchSpace setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+        return this;
+    }
+
+    /**
+     * Creates an empty scratch file, waiting for the space it needs.
+     *
+     * @param prefix The prefix of the file name.
+     * @param suffix The suffix of the file name, like .txt.
+     * @param size   The bytes expected to be written.
+     * @return The file, to be released once no longer used.
+     * @throws EncoderError If the space is not available in time, or the
+     *                      file can't be created.
+     */
+    public File createFile(String prefix, String suffix, long size) throws EncoderError {
+        return create(prefix, suffix, size, false);
+    }
+
+    /**
+     * Creates an empty scratch directory, waiting for the space it needs.
+     *
+     * @param prefix The prefix of the directory name.
+     * @param size   The bytes expected to be written in the directory.
+     * @return The directory, to be released once no longer used.
+     * @throws EncoderError If the space is not available in time, or the
+     *                      directory can't be created.
+     */
+    public File createDirectory(String prefix, long size) throws EncoderError {
+        return create(prefix, "", size, true);
+    }
+
+    /**
+     * Deletes a scratch file or directory, and gives its space back to the
+     * waiting jobs.
+     *
+     * @param file The file, can be null.
+     */
+    public void release(File file) {
+        if (file == null) {
+            return;
+        }
+        delete(file);
+        synchronized (this) {
+            reservations.remove(file);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the bytes taken by the scratch files, or reserved by the files
+     * in use
+     */
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Long reserved = reservations.get(file);
+                long size = getSize(file);
+                used += reserved != null ? Math.max(reserved, size) : size;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Deletes the files not in use older than the maximum age.
+     */
+    public void cleanUp() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - maxAge;
+        synchronized (this) {
+            for (File file : files) {
+                if (!reservations.containsKey(file) && file.lastModified() < limit) {
+                    Log.d(TAG, "deleting stale " + file);
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    private File create(String prefix, String suffix, long size, boolean isDirectory) throws EncoderError {
+        if (size > quota) {
+            throw new EncoderError(String.format("%d bytes of scratch space needed, quota is %d", size, quota));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new EncoderError("Unable to create " + directory);
+        }
+        cleanUp();
+        long start = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            long used;
+            while ((used = getUsedBytes()) + size > quota) {
+                long remaining = start + waitTimeout - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    throw new EncoderError(String.format(
+                            "No scratch space for %d bytes, %d of %d used", size, used, quota));
+                }
+                Log.d(TAG, String.format("waiting for %d bytes of scratch space, %d of %d used",
+                        size, used, quota));
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EncoderError(e);
+                }
+            }
+            try {
+                File file = File.createTempFile(prefix, suffix, directory);
+                if (isDirectory && !(file.delete() && file.mkdir())) {
+                    throw new IOException("Unable to create the directory " + file);
+                }
+                reservations.put(file, size);
+                return file;
+            } catch (IOException e) {
+                throw new EncoderError(e);
+            }
+        }
+    }
+
+    private static long getSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "unable to delete " + file);
+        }
+    }
+
+    /**
+     * Deletes the temporary outputs of a directory older than the maximum
+     * age, left over by a crashed process, see {@link #getPartialFile(File)}.
+     *
+     * @param directory The directory of the outputs.
+     */
+    public void cleanUpPartialFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - maxAge;
+        for (File file : files) {
+            if (file.getName().startsWith(PARTIAL_PREFIX) && file.lastModified() < limit) {
+                Log.d(TAG, "deleting stale " + file);
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Returns a new temporary file an output is written to before being
+     * renamed to its target: it is in the same directory, so the rename is
+     * atomic, keeps the extension which selects the muxer, and is unique, so
+     * concurrent jobs writing the same target don't share it. The file is
+     * left over if the process crashes: the encoder deletes the stale ones
+     * with {@link #cleanUpPartialFiles(File)}, other callers must too.
+     *
+     * @param target The output.
+     * @return The temporary output.
+     */
+    public static File getPartialFile(File target) {
+        return new File(target.getParentFile(), PARTIAL_PREFIX + System.nanoTime() + "-" + target.getName());
+    }
+}
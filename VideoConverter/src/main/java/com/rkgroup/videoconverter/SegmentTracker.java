@@ -0,0 +1,86 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import com.rkgroup.videoconverter.listeners.SegmentListener;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A package-private utility following the segments opened by the hls/dash
+ * muxers in the ffmpeg output. A segment is complete as soon as the muxer
+ * opens the next segment of the same stream, or when the process ends.
+ *
+ * @author Rufen Khokhar
+ */
+class SegmentTracker {
+    private static final String TAG = "SegmentTracker";
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the files opened by
+     * the segment muxers.
+     */
+    private static final Pattern OPENING_PATTERN = Pattern.compile(
+            "^.*Opening '(.+)' for writing.*$");
+
+    /**
+     * This regexp strips the segment number from a segment file name, so all
+     * the segments of the same stream share the same key.
+     */
+    private static final Pattern SEGMENT_NUMBER_PATTERN = Pattern.compile("\\d+(\\.\\w+)?$");
+
+    private final SegmentListener listener;
+
+    /**
+     * The last segment opened for every stream.
+     */
+    private final HashMap<String, File> openSegments = new HashMap<>();
+
+    public SegmentTracker(SegmentListener listener) {
+        this.listener = listener;
+    }
+
+    public void analyzeNewLine(String line) {
+        if (!line.contains("Opening '")) {
+            return;
+        }
+        Matcher m = OPENING_PATTERN.matcher(line);
+        if (!m.matches()) {
+            return;
+        }
+        File file = new File(m.group(1));
+        String name = file.getName();
+        if (name.endsWith(".m3u8") || name.endsWith(".mpd") || name.endsWith(".tmp")
+                || name.startsWith("init")) {
+            // Playlists and initialization segments are rewritten along the run
+            return;
+        }
+        String key = file.getParent() + File.separator
+                + SEGMENT_NUMBER_PATTERN.matcher(name).replaceFirst("");
+        File previous = openSegments.put(key, file);
+        if (previous != null) {
+            notifyComplete(previous);
+        }
+    }
+
+    /**
+     * Reports the segments still open as complete. To be called once the
+     * process ended successfully.
+     */
+    public void finish() {
+        for (File segment : openSegments.values()) {
+            notifyComplete(segment);
+        }
+        openSegments.clear();
+    }
+
+    private void notifyComplete(File segment) {
+        Log.d(TAG, String.format("Segment complete: %s", segment));
+        if (listener != null) {
+            listener.onSegmentComplete(segment);
+        }
+    }
+}
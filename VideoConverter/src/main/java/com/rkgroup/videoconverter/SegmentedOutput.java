@@ -0,0 +1,160 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+import com.rkgroup.videoconverter.listeners.SegmentListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packaging properties for adaptive streaming outputs. When set on the
+ * {@link EncoderProperties} the target of the encoding process is a directory
+ * receiving the media segments of every {@link Rendition} plus a master
+ * playlist (HLS) or manifest (DASH), all written by a single ffmpeg process.
+ * <p>
+ * Key frames are forced on every segment boundary, so all the renditions can
+ * be switched at any segment.
+ *
+ * @author Rufen Khokhar
+ */
+public class SegmentedOutput {
+
+    /**
+     * The segment duration (seconds) used when no other value is specified.
+     */
+    public static final float DEFAULT_SEGMENT_DURATION = 6;
+
+    private final Packaging packaging;
+
+    private final ArrayList<Rendition> renditions = new ArrayList<>();
+
+    /**
+     * The target duration (seconds) of every segment.
+     */
+    private float segmentDuration = DEFAULT_SEGMENT_DURATION;
+
+    /**
+     * The name of the master playlist (HLS) or manifest (DASH). If null the
+     * default name of the packaging is used.
+     */
+    private String playlistName = null;
+
+    /**
+     * An optional listener notified for every completed segment.
+     */
+    private SegmentListener segmentListener = null;
+
+    /**
+     * @param packaging The adaptive streaming packaging to produce.
+     */
+    public SegmentedOutput(@NonNull Packaging packaging) {
+        this.packaging = packaging;
+    }
+
+    /**
+     * @return the packaging
+     */
+    public Packaging getPackaging() {
+        return packaging;
+    }
+
+    /**
+     * Adds a quality level to the output. If no rendition is added, a single
+     * rendition is produced using the {@link VideoProperties} and
+     * {@link AudioProperties} of the encoding process.
+     *
+     * @param rendition The rendition to add.
+     * @return this instance
+     */
+    public SegmentedOutput addRendition(@NonNull Rendition rendition) {
+        renditions.add(rendition);
+        return this;
+    }
+
+    /**
+     * @return the renditions
+     */
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    /**
+     * @return the segment duration (seconds)
+     */
+    public float getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    /**
+     * @param segmentDuration the segment duration (seconds) to set
+     * @return this instance
+     */
+    public SegmentedOutput setSegmentDuration(float segmentDuration) {
+        if (segmentDuration <= 0) {
+            throw new IllegalArgumentException("Segment duration must be positive");
+        }
+        this.segmentDuration = segmentDuration;
+        return this;
+    }
+
+    /**
+     * @return the name of the master playlist (HLS) or manifest (DASH)
+     */
+    public String getPlaylistName() {
+        return playlistName != null ? playlistName : packaging.getDefaultPlaylistName();
+    }
+
+    /**
+     * @param playlistName the name of the master playlist (HLS) or manifest
+     *                     (DASH) to set, null for the default name
+     * @return this instance
+     */
+    public SegmentedOutput setPlaylistName(String playlistName) {
+        this.playlistName = playlistName;
+        return this;
+    }
+
+    /**
+     * @return the segment listener, can be null
+     */
+    public SegmentListener getSegmentListener() {
+        return segmentListener;
+    }
+
+    /**
+     * @param segmentListener the segment listener to set, can be null
+     * @return this instance
+     */
+    public SegmentedOutput setSegmentListener(SegmentListener segmentListener) {
+        this.segmentListener = segmentListener;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(packaging=" + packaging
+                + ", segmentDuration=" + segmentDuration + ", playlistName="
+                + getPlaylistName() + ", renditions=" + renditions + ")";
+    }
+
+    public enum Packaging {
+        HLS("hls", "master.m3u8"), DASH("dash", "manifest.mpd");
+        private final String muxerName;
+        private final String defaultPlaylistName;
+
+        Packaging(String muxerName, String defaultPlaylistName) {
+            this.muxerName = muxerName;
+            this.defaultPlaylistName = defaultPlaylistName;
+        }
+
+        public String getMuxerName() {
+            return muxerName;
+        }
+
+        public String getDefaultPlaylistName() {
+            return defaultPlaylistName;
+        }
+    }
+}
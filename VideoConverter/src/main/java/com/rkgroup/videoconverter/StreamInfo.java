@@ -0,0 +1,315 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Instances of this class report informations about one stream of a
+ * multimedia file, whatever its type.
+ *
+ * @author Rufen Khokhar
+ */
+public class StreamInfo {
+
+    /**
+     * The stream types.
+     */
+    public enum Type {
+        VIDEO, AUDIO, SUBTITLE, DATA
+    }
+
+    /**
+     * The stream index in the file, as in -map 0:index.
+     */
+    private int index;
+
+    private Type type;
+
+    /**
+     * The codec name, like h264 or aac.
+     */
+    private String codec = null;
+
+    /**
+     * The stream decoder description, like "h264 (High) (avc1 / 0x31637661)".
+     */
+    private String decoder = null;
+
+    /**
+     * The pixel format of a video stream, like yuv420p.
+     */
+    private String pixelFormat = null;
+
+    /**
+     * The sample format of an audio stream, like fltp.
+     */
+    private String sampleFormat = null;
+
+    /**
+     * The video size. If null this information is not available.
+     */
+    private VideoSize size = null;
+
+    /**
+     * The video frame rate. If less than 0 this information is not available.
+     */
+    private float frameRate = -1;
+
+    /**
+     * The stream (average) bit rate. If less than 0, this information is not
+     * available.
+     */
+    private int bitRate = -1;
+
+    /**
+     * The audio sampling rate. If less than 0, this information is not
+     * available.
+     */
+    private int samplingRate = -1;
+
+    /**
+     * The audio channels number. If less than 0, this information is not
+     * available.
+     */
+    private int channels = -1;
+
+    /**
+     * The ISO 639-2 language code, null if not tagged.
+     */
+    private String language = null;
+
+    /**
+     * Is this stream the default one of its type?
+     */
+    private boolean defaultStream = false;
+
+    /**
+     * @param index The stream index in the file.
+     * @param type  The stream type.
+     */
+    public StreamInfo(int index, @NonNull Type type) {
+        this.index = index;
+        this.type = type;
+    }
+
+    /**
+     * @return the stream index in the file
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the stream type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the codec name, like h264 or aac
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec the codec to set
+     * @return this instance
+     */
+    public StreamInfo setCodec(String codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * @return the decoder description
+     */
+    public String getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @param decoder the decoder to set
+     * @return this instance
+     */
+    public StreamInfo setDecoder(String decoder) {
+        this.decoder = decoder;
+        return this;
+    }
+
+    /**
+     * @return the pixel format of a video stream, null if not available
+     */
+    public String getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @param pixelFormat the pixelFormat to set
+     * @return this instance
+     */
+    public StreamInfo setPixelFormat(String pixelFormat) {
+        this.pixelFormat = pixelFormat;
+        return this;
+    }
+
+    /**
+     * @return the sample format of an audio stream, null if not available
+     */
+    public String getSampleFormat() {
+        return sampleFormat;
+    }
+
+    /**
+     * @param sampleFormat the sampleFormat to set
+     * @return this instance
+     */
+    public StreamInfo setSampleFormat(String sampleFormat) {
+        this.sampleFormat = sampleFormat;
+        return this;
+    }
+
+    /**
+     * @return the video size, null if not available
+     */
+    public VideoSize getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the size to set
+     * @return this instance
+     */
+    public StreamInfo setSize(VideoSize size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * @return the video frame rate, less than 0 if not available
+     */
+    public float getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * @param frameRate the frameRate to set
+     * @return this instance
+     */
+    public StreamInfo setFrameRate(float frameRate) {
+        this.frameRate = frameRate;
+        return this;
+    }
+
+    /**
+     * @return the (average) bit rate, less than 0 if not available
+     */
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * @param bitRate the bitRate to set
+     * @return this instance
+     */
+    public StreamInfo setBitRate(int bitRate) {
+        this.bitRate = bitRate;
+        return this;
+    }
+
+    /**
+     * @return the audio sampling rate, less than 0 if not available
+     */
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @param samplingRate the samplingRate to set
+     * @return this instance
+     */
+    public StreamInfo setSamplingRate(int samplingRate) {
+        this.samplingRate = samplingRate;
+        return this;
+    }
+
+    /**
+     * @return the audio channels number, less than 0 if not available
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @param channels the channels to set
+     * @return this instance
+     */
+    public StreamInfo setChannels(int channels) {
+        this.channels = channels;
+        return this;
+    }
+
+    /**
+     * @return the ISO 639-2 language code, null if not tagged
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * @param language the language to set
+     * @return this instance
+     */
+    public StreamInfo setLanguage(String language) {
+        this.language = language;
+        return this;
+    }
+
+    /**
+     * @return true if this stream is the default one of its type
+     */
+    public boolean isDefaultStream() {
+        return defaultStream;
+    }
+
+    /**
+     * @param defaultStream the defaultStream to set
+     * @return this instance
+     */
+    public StreamInfo setDefaultStream(boolean defaultStream) {
+        this.defaultStream = defaultStream;
+        return this;
+    }
+
+    /**
+     * @return the video informations of this stream
+     */
+    VideoInfo toVideoInfo() {
+        return new VideoInfo()
+                .setDecoder(decoder)
+                .setSize(size)
+                .setFrameRate(frameRate)
+                .setBitRate(bitRate);
+    }
+
+    /**
+     * @return the audio informations of this stream
+     */
+    AudioInfo toAudioInfo() {
+        return new AudioInfo()
+                .setDecoder(decoder)
+                .setSamplingRate(samplingRate)
+                .setChannels(channels)
+                .setBitRate(bitRate);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + " (index=" + index + ", type=" + type + ", codec=" + codec
+                + ", pixelFormat=" + pixelFormat + ", sampleFormat=" + sampleFormat
+                + ", size=" + size + ", frameRate=" + frameRate + ", bitRate=" + bitRate
+                + ", samplingRate=" + samplingRate + ", channels=" + channels
+                + ", language=" + language + ", default=" + defaultStream + ")";
+    }
+}
@@ -0,0 +1,191 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Selects the source streams written to the target. When set on the
+ * {@link EncoderProperties} every output stream is mapped explicitly (-map)
+ * instead of relying on the ffmpeg automatic selection, and the streams left
+ * out are discarded when the source is demuxed, so they are never decoded.
+ * <p>
+ * -discard:a:0 all -i source.mkv -map 0:v:0 -map 0:a:m:language:fre? -sn -dn target.mp4
+ *
+ * @author Rufen Khokhar
+ */
+public class StreamSelection {
+
+    /**
+     * The index of the selected video stream, among the video streams.
+     */
+    private int videoStream = 0;
+
+    /**
+     * The index of the selected audio stream, among the audio streams. Used
+     * when no language is selected.
+     */
+    private int audioStream = 0;
+
+    /**
+     * The languages of the selected audio streams, ISO 639-2 codes.
+     */
+    private final ArrayList<String> audioLanguages = new ArrayList<>();
+
+    /**
+     * Are all the audio streams selected?
+     */
+    private boolean allAudioStreams = false;
+
+    /**
+     * Are the subtitle streams kept?
+     */
+    private boolean subtitles = false;
+
+    /**
+     * Are the data streams kept?
+     */
+    private boolean data = false;
+
+    /**
+     * @return the videoStream
+     */
+    public int getVideoStream() {
+        return videoStream;
+    }
+
+    /**
+     * Selects the video stream, by its index among the video streams of the
+     * source. Default is the first one.
+     *
+     * @param videoStream the videoStream to set
+     * @return this instance
+     */
+    public StreamSelection setVideoStream(int videoStream) {
+        this.videoStream = videoStream;
+        return this;
+    }
+
+    /**
+     * @return the audioStream
+     */
+    public int getAudioStream() {
+        return audioStream;
+    }
+
+    /**
+     * Selects the audio stream, by its index among the audio streams of the
+     * source. Default is the first one. Ignored when languages are selected.
+     *
+     * @param audioStream the audioStream to set
+     * @return this instance
+     */
+    public StreamSelection setAudioStream(int audioStream) {
+        this.audioStream = audioStream;
+        return this;
+    }
+
+    /**
+     * @return the languages of the selected audio streams
+     */
+    public List<String> getAudioLanguages() {
+        return audioLanguages;
+    }
+
+    /**
+     * Selects the audio streams of a language, the target gets one audio
+     * stream per selected language, in order. When the source has no stream
+     * of any selected language the first audio stream is kept.
+     *
+     * @param language The ISO 639-2 code, like eng or fre.
+     * @return this instance
+     */
+    public StreamSelection addAudioLanguage(@NonNull String language) {
+        audioLanguages.add(language.toLowerCase(Locale.US));
+        return this;
+    }
+
+    /**
+     * @return the allAudioStreams
+     */
+    public boolean isAllAudioStreams() {
+        return allAudioStreams;
+    }
+
+    /**
+     * Keeps all the audio streams of the source, default OFF. ffmpeg keeps
+     * only one audio stream on its own.
+     *
+     * @param allAudioStreams the allAudioStreams to set
+     * @return this instance
+     */
+    public StreamSelection setAllAudioStreams(boolean allAudioStreams) {
+        this.allAudioStreams = allAudioStreams;
+        return this;
+    }
+
+    /**
+     * @return the subtitles
+     */
+    public boolean isSubtitles() {
+        return subtitles;
+    }
+
+    /**
+     * Keeps the subtitle streams, default OFF. The target format must store
+     * subtitles.
+     *
+     * @param subtitles the subtitles to set
+     * @return this instance
+     */
+    public StreamSelection setSubtitles(boolean subtitles) {
+        this.subtitles = subtitles;
+        return this;
+    }
+
+    /**
+     * @return the data
+     */
+    public boolean isData() {
+        return data;
+    }
+
+    /**
+     * Keeps the data streams (timecodes, GPS tracks...), copied, default OFF.
+     *
+     * @param data the data to set
+     * @return this instance
+     */
+    public StreamSelection setData(boolean data) {
+        this.data = data;
+        return this;
+    }
+
+    /**
+     * Checks if an audio stream is selected.
+     *
+     * @param index    The index of the stream among the audio streams.
+     * @param language The language of the stream, can be null.
+     * @param matching true if the source has a stream of a selected language.
+     * @return true if the stream is selected
+     */
+    boolean isAudioSelected(int index, String language, boolean matching) {
+        if (allAudioStreams) {
+            return true;
+        }
+        if (!audioLanguages.isEmpty() && matching) {
+            return language != null && audioLanguages.contains(language.toLowerCase(Locale.US));
+        }
+        return index == (audioLanguages.isEmpty() ? audioStream : 0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(videoStream=" + videoStream + ", audioStream=" + audioStream
+                + ", audioLanguages=" + audioLanguages + ", allAudioStreams=" + allAudioStreams
+                + ", subtitles=" + subtitles + ", data=" + data + ")";
+    }
+}
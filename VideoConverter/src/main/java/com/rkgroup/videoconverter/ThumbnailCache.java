@@ -0,0 +1,202 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A disk LRU cache of extracted thumbnails, keyed by the identity of the
+ * source media (path, size and modification time), the thumbnail
+ * timestamp and the options changing the image. When the cache grows over its maximum size, the least recently
+ * used thumbnails are deleted.
+ *
+ * @author Rufen Khokhar
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final String SUFFIX = ".jpg";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Cached files, in access order.
+     */
+    private final LinkedHashMap<String, File> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    /**
+     * @param directory The cache directory, it will be created if needed.
+     * @param maxBytes  The maximum size (bytes) of the cache.
+     */
+    public ThumbnailCache(@NonNull File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            // Rebuild the access order from the previous runs
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX)) {
+                    entries.put(name.substring(0, name.length() - SUFFIX.length()), file);
+                    size += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key of a thumbnail.
+     *
+     * @param mediaIdentity The identity of the source media.
+     * @param timestamp     The thumbnail position (millis).
+     * @param options       The extraction options: the size, the frame
+     *                      accuracy and the JPEG quality are part of the key.
+     * @return the cache key
+     */
+    static String buildKey(String mediaIdentity, long timestamp, ThumbnailOptions options) {
+        VideoSize size = options.getSize();
+        String dimension = size != null ? size.getWidth() + "x" + size.getHeight() : "src";
+        // Key frames are picked by their strategy, also selected in place of
+        // AUTO when the frames may be inaccurate
+        ThumbnailOptions.Strategy strategy = options.getStrategy();
+        boolean keyFrames = strategy == ThumbnailOptions.Strategy.KEYFRAMES
+                || strategy == ThumbnailOptions.Strategy.AUTO && !options.isAccurate();
+        String variant = dimension + "|" + (keyFrames ? "key" : "exact") + "|q" + options.getQuality();
+        String identity = mediaIdentity + "|" + timestamp + "|" + variant;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(identity.getBytes("UTF-8"))) {
+                key.append(String.format(Locale.US, "%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return String.format(Locale.US, "%08x_%d_%s", mediaIdentity.hashCode(), timestamp,
+                    variant.replace('|', '_'));
+        }
+    }
+
+    /**
+     * @param key The cache key.
+     * @return The cached image, or null on cache miss.
+     */
+    synchronized byte[] get(String key) {
+        File file = entries.get(key);
+        if (file == null) {
+            return null;
+        }
+        try {
+            byte[] image = readFully(file);
+            file.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached thumbnail " + file, e);
+            entries.remove(key);
+            size -= file.length();
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores an image, evicting the least recently used ones when needed.
+     *
+     * @param key   The cache key.
+     * @param image The image to store.
+     */
+    synchronized void put(String key, byte[] image) {
+        File file = new File(directory, key + SUFFIX);
+        File previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.length();
+        }
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                output.write(image);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache thumbnail " + file, e);
+            file.delete();
+            return;
+        }
+        entries.put(key, file);
+        size += image.length;
+        Iterator<Map.Entry<String, File>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            File eldest = iterator.next().getValue();
+            size -= eldest.length();
+            eldest.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Deletes all the cached thumbnails.
+     */
+    public synchronized void clear() {
+        for (File file : entries.values()) {
+            file.delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the current size (bytes) of the cache
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = input.read(data, offset, data.length - offset)) >= 0) {
+                offset += read;
+            }
+            if (offset < data.length) {
+                throw new IOException("Truncated file " + file);
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(directory=" + directory + ", maxBytes="
+                + maxBytes + ", size=" + size + ")";
+    }
+}
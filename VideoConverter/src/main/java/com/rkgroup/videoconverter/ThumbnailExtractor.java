@@ -0,0 +1,394 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import com.rkgroup.videoconverter.exceptions.EncoderError;
+import com.rkgroup.videoconverter.listeners.ThumbnailSink;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A package-private utility extracting thumbnails and sprite sheets from a
+ * multimedia file with the cheapest ffmpeg invocation for the request.
+ *
+ * @author Rufen Khokhar
+ * @see FFMPEGMediaObject#extractThumbnails(ThumbnailOptions, ThumbnailSink)
+ */
+class ThumbnailExtractor {
+    private static final String TAG = "ThumbnailExtractor";
+
+    /**
+     * This regexp is used to parse the showinfo filter output about the
+     * position of an extracted frame.
+     */
+    private static final Pattern PTS_TIME_PATTERN = Pattern.compile("pts_time:\\s*(-?[\\d.]+)");
+
+    /**
+     * Up to this number of thumbnails per process, seeking on the input side
+     * is cheaper than decoding the whole source.
+     */
+    private static final int SEEKS_PER_PROCESS = 4;
+
+    private final FFMPEGLocator locator;
+    private final String source;
+    private final String mediaIdentity;
+    private final boolean readOnce;
+
+    /**
+     * @param locator       The locator of the ffmpeg executable.
+     * @param source        The path or URL of the source.
+     * @param mediaIdentity The identity of the source used as cache key.
+     * @param readOnce      True if the source can't be read more than once.
+     */
+    ThumbnailExtractor(FFMPEGLocator locator, String source, String mediaIdentity, boolean readOnce) {
+        this.locator = locator;
+        this.source = source;
+        this.mediaIdentity = mediaIdentity;
+        this.readOnce = readOnce;
+    }
+
+    /**
+     * Extracts the requested thumbnails, serving them from the cache when
+     * available.
+     *
+     * @param options The extraction options.
+     * @param sink    The receiver of the thumbnails.
+     * @throws EncoderError If a problem occurs calling the underlying ffmpeg
+     *                      executable.
+     */
+    void extract(ThumbnailOptions options, ThumbnailSink sink) throws EncoderError {
+        ThumbnailCache cache = options.getCache();
+        List<Long> missing = new ArrayList<>();
+        byte[][] images = new byte[options.getTimestamps().size()][];
+        for (int i = 0; i < images.length; i++) {
+            long timestamp = options.getTimestamps().get(i);
+            if (cache != null) {
+                images[i] = cache.get(ThumbnailCache.buildKey(mediaIdentity, timestamp, options));
+            }
+            if (images[i] == null) {
+                missing.add(timestamp);
+            }
+        }
+        if (!missing.isEmpty()) {
+            ThumbnailOptions.Strategy strategy = selectStrategy(options, missing.size());
+            Log.d(TAG, String.format(Locale.US, "Extracting %d thumbnails (%d cached) with %s",
+                    missing.size(), images.length - missing.size(), strategy));
+            List<byte[]> extracted;
+            switch (strategy) {
+                case SEEK:
+                    extracted = extractSeeking(missing, options);
+                    break;
+                case KEYFRAMES:
+                    extracted = extractSinglePass(missing, options, true);
+                    break;
+                default:
+                    extracted = extractSinglePass(missing, options, false);
+                    break;
+            }
+            for (int i = 0, j = 0; i < images.length; i++) {
+                if (images[i] == null) {
+                    images[i] = extracted.get(j++);
+                    if (cache != null && images[i] != null) {
+                        long timestamp = options.getTimestamps().get(i);
+                        cache.put(ThumbnailCache.buildKey(mediaIdentity, timestamp, options), images[i]);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < images.length; i++) {
+            if (images[i] != null) {
+                sink.onThumbnail(options.getTimestamps().get(i), images[i]);
+            } else {
+                Log.w(TAG, "No frame found at " + options.getTimestamps().get(i) + " ms");
+            }
+        }
+    }
+
+    /**
+     * Writes the sprite sheets of the source in a single pass: one frame every
+     * interval is scaled and tiled, a new sheet is started when the grid is
+     * full.
+     *
+     * @param interval        The interval (millis) between two tiles.
+     * @param tileSize        The size of a tile.
+     * @param columns         The number of columns of a sheet.
+     * @param rows            The number of rows of a sheet.
+     * @param options         The extraction options, only the quality is used.
+     * @param outputDirectory The directory receiving the sheets.
+     * @return The written sheets, in order.
+     * @throws EncoderError If a problem occurs calling the underlying ffmpeg
+     *                      executable.
+     */
+    List<File> extractSpriteSheets(long interval, VideoSize tileSize, int columns, int rows,
+                                   ThumbnailOptions options, File outputDirectory) throws EncoderError {
+        outputDirectory.mkdirs();
+        File[] previousSheets = outputDirectory.listFiles();
+        if (previousSheets != null) {
+            for (File sheet : previousSheets) {
+                if (sheet.getName().startsWith("sprite_")) {
+                    sheet.delete();
+                }
+            }
+        }
+        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source);
+        ffmpeg.addArgument("-an");
+        ffmpeg.addArgument("-vf");
+        ffmpeg.addArgument(String.format(Locale.US, "fps=1000/%d,scale=%d:%d,tile=%dx%d",
+                interval, tileSize.getWidth(), tileSize.getHeight(), columns, rows));
+        ffmpeg.addArgument("-q:v");
+        ffmpeg.addArgument(String.valueOf(options.getQuality()));
+        ffmpeg.addArgument("-loglevel");
+        ffmpeg.addArgument("error");
+        ffmpeg.addArgument("-y");
+        ffmpeg.addArgument(new File(outputDirectory, "sprite_%03d.jpg").getAbsolutePath());
+        try {
+            ffmpeg.execute();
+            drain(ffmpeg.getErrorStream(), null);
+            int exitCode = ffmpeg.getProcessExitCode();
+            if (exitCode != 0) {
+                throw new EncoderError("Exit code of ffmpeg sprite sheet run is " + exitCode);
+            }
+        } catch (IOException e) {
+            throw new EncoderError(e);
+        } finally {
+            ffmpeg.destroy();
+        }
+        List<File> sheets = new ArrayList<>();
+        for (int i = 1; ; i++) {
+            File sheet = new File(outputDirectory, String.format(Locale.US, "sprite_%03d.jpg", i));
+            if (!sheet.exists()) {
+                break;
+            }
+            sheets.add(sheet);
+        }
+        return sheets;
+    }
+
+    /**
+     * Private utility. Picks the cheapest strategy: key frames only when exact
+     * frames are not needed, parallel input seeks for a few thumbnails, a
+     * single decoding pass otherwise.
+     */
+    private ThumbnailOptions.Strategy selectStrategy(ThumbnailOptions options, int count) {
+        if (options.getStrategy() != ThumbnailOptions.Strategy.AUTO) {
+            return options.getStrategy();
+        }
+        if (!options.isAccurate()) {
+            return ThumbnailOptions.Strategy.KEYFRAMES;
+        }
+        if (!readOnce && count <= options.getParallelism() * SEEKS_PER_PROCESS) {
+            return ThumbnailOptions.Strategy.SEEK;
+        }
+        return ThumbnailOptions.Strategy.SINGLE_PASS;
+    }
+
+    /**
+     * Private utility. Runs one process per thumbnail, seeking on the input
+     * side, at most {@link ThumbnailOptions#getParallelism()} at a time.
+     */
+    private List<byte[]> extractSeeking(List<Long> timestamps, final ThumbnailOptions options) throws EncoderError {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.getParallelism(), timestamps.size()));
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (final long timestamp : timestamps) {
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return extractAt(timestamp, options);
+                    }
+                }));
+            }
+            List<byte[]> images = new ArrayList<>();
+            for (Future<byte[]> future : futures) {
+                images.add(future.get());
+            }
+            return images;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncoderError(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EncoderError) {
+                throw (EncoderError) e.getCause();
+            }
+            throw new EncoderError(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] extractAt(long timestamp, ThumbnailOptions options) throws EncoderError {
+        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        // Only the errors, the single pass reads the showinfo lines instead
+        ffmpeg.addArgument("-loglevel");
+        ffmpeg.addArgument("error");
+        ffmpeg.addArgument("-ss");
+        ffmpeg.addArgument(Utils.buildTimeDuration(timestamp));
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source);
+        ffmpeg.addArgument("-frames:v");
+        ffmpeg.addArgument("1");
+        if (options.getSize() != null) {
+            ffmpeg.addArgument("-vf");
+            ffmpeg.addArgument("scale=" + options.getSize().getWidth() + ":" + options.getSize().getHeight());
+        }
+        addPipeOutputArguments(ffmpeg, options);
+        try {
+            ffmpeg.execute();
+            List<byte[]> frames = new ArrayList<>();
+            Thread errorReader = drainInBackground(ffmpeg.getErrorStream(), null);
+            readJpegFrames(ffmpeg.getInputStream(), frames);
+            errorReader.join();
+            return frames.isEmpty() ? null : frames.get(0);
+        } catch (IOException e) {
+            throw new EncoderError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncoderError(e);
+        } finally {
+            ffmpeg.destroy();
+        }
+    }
+
+    /**
+     * Private utility. Decodes the source once (or only its key frames) and
+     * selects the first frame at or after every requested timestamp.
+     */
+    private List<byte[]> extractSinglePass(List<Long> timestamps, ThumbnailOptions options,
+                                           boolean keyFramesOnly) throws EncoderError {
+        StringBuilder select = new StringBuilder("select='");
+        for (int i = 0; i < timestamps.size(); i++) {
+            String t = String.format(Locale.US, "%.3f", timestamps.get(i) / 1000.0);
+            if (i > 0) {
+                select.append("+");
+            }
+            select.append("gte(t,").append(t).append(")*(isnan(prev_selected_t)+lt(prev_selected_t,")
+                    .append(t).append("))");
+        }
+        select.append("',showinfo");
+        if (options.getSize() != null) {
+            select.append(",scale=").append(options.getSize().getWidth()).append(":")
+                    .append(options.getSize().getHeight());
+        }
+        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        if (keyFramesOnly) {
+            ffmpeg.addArgument("-skip_frame");
+            ffmpeg.addArgument("nokey");
+        }
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source);
+        ffmpeg.addArgument("-an");
+        ffmpeg.addArgument("-vf");
+        ffmpeg.addArgument(select.toString());
+        ffmpeg.addArgument("-vsync");
+        ffmpeg.addArgument("vfr");
+        addPipeOutputArguments(ffmpeg, options);
+        List<byte[]> frames = new ArrayList<>();
+        List<Double> positions = new ArrayList<>();
+        try {
+            ffmpeg.execute();
+            Thread errorReader = drainInBackground(ffmpeg.getErrorStream(), positions);
+            readJpegFrames(ffmpeg.getInputStream(), frames);
+            errorReader.join();
+        } catch (IOException e) {
+            throw new EncoderError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncoderError(e);
+        } finally {
+            ffmpeg.destroy();
+        }
+        // Pair every requested timestamp with the first frame at or after it
+        List<byte[]> images = new ArrayList<>();
+        int frame = 0;
+        for (long timestamp : timestamps) {
+            while (frame < positions.size() - 1 && frame < frames.size() - 1
+                    && positions.get(frame) * 1000 < timestamp - 1) {
+                frame++;
+            }
+            images.add(frame < frames.size() ? frames.get(frame) : null);
+        }
+        return images;
+    }
+
+    private void addPipeOutputArguments(FFMPEGExecutor ffmpeg, ThumbnailOptions options) {
+        ffmpeg.addArgument("-q:v");
+        ffmpeg.addArgument(String.valueOf(options.getQuality()));
+        ffmpeg.addArgument("-f");
+        ffmpeg.addArgument("image2pipe");
+        ffmpeg.addArgument("-vcodec");
+        ffmpeg.addArgument("mjpeg");
+        ffmpeg.addArgument("pipe:1");
+    }
+
+    /**
+     * Private utility. Splits a stream of concatenated JPEG images on their
+     * end of image markers. The marker can't appear in the entropy coded data,
+     * where every 0xFF byte is stuffed.
+     */
+    private static void readJpegFrames(InputStream stream, List<byte[]> frames) throws IOException {
+        InputStream input = new BufferedInputStream(stream, 64 * 1024);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64 * 1024);
+        int previous = -1;
+        int b;
+        while ((b = input.read()) >= 0) {
+            frame.write(b);
+            if (previous == 0xFF && b == 0xD9) {
+                frames.add(frame.toByteArray());
+                frame.reset();
+                b = -1;
+            }
+            previous = b;
+        }
+    }
+
+    private static Thread drainInBackground(final InputStream stream, final List<Double> positions) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(stream, positions);
+            }
+        }, TAG);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Private utility. Reads the ffmpeg error channel, so the process never
+     * blocks on a full pipe, collecting the frame positions if needed.
+     */
+    private static void drain(InputStream stream, List<Double> positions) {
+        try {
+            RKBufferedReader reader = new RKBufferedReader(new InputStreamReader(stream));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (positions != null && line.contains("pts_time:")) {
+                    Matcher m = PTS_TIME_PATTERN.matcher(line);
+                    if (m.find()) {
+                        positions.add(Double.parseDouble(m.group(1)));
+                    }
+                } else if (positions == null) {
+                    Log.d(TAG, line);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading ffmpeg output", e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.rkgroup.videoconverter;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Properties controlling the extraction of thumbnails from a multimedia file.
+ *
+ * @author Rufen Khokhar
+ * @see FFMPEGMediaObject#extractThumbnails(ThumbnailOptions, java.io.File)
+ */
+public class ThumbnailOptions {
+
+    /**
+     * The sorted positions (millis) of the thumbnails.
+     */
+    private final ArrayList<Long> timestamps = new ArrayList<>();
+
+    /**
+     * The thumbnail size. If null the source video size will not be
+     * modified.
+     */
+    private VideoSize size = null;
+
+    private Strategy strategy = Strategy.AUTO;
+
+    /**
+     * When false, the nearest following key frame can be used in place of the
+     * exact frame, so only key frames need to be decoded.
+     */
+    private boolean accurate = true;
+
+    /**
+     * Maximum number of ffmpeg processes running at the same time.
+     */
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * The JPEG quality (2 = best, 31 = worst).
+     */
+    private int quality = 3;
+
+    /**
+     * An optional cache of already extracted thumbnails.
+     */
+    private ThumbnailCache cache = null;
+
+    /**
+     * @param timestamps The positions (millis) of the thumbnails.
+     * @return the options
+     */
+    public static ThumbnailOptions atTimestamps(long... timestamps) {
+        ThumbnailOptions options = new ThumbnailOptions();
+        for (long timestamp : timestamps) {
+            options.addTimestamp(timestamp);
+        }
+        return options;
+    }
+
+    /**
+     * @param interval The interval (millis) between two thumbnails.
+     * @param duration The duration (millis) of the source, see
+     *                 {@link MediaInfo#getDuration()}.
+     * @return the options
+     */
+    public static ThumbnailOptions everyInterval(long interval, long duration) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        ThumbnailOptions options = new ThumbnailOptions();
+        for (long timestamp = 0; timestamp < duration; timestamp += interval) {
+            options.addTimestamp(timestamp);
+        }
+        return options;
+    }
+
+    /**
+     * @param timestamp the position (millis) of a thumbnail to add
+     * @return this instance
+     */
+    public ThumbnailOptions addTimestamp(long timestamp) {
+        if (!timestamps.contains(timestamp)) {
+            timestamps.add(timestamp);
+            Collections.sort(timestamps);
+        }
+        return this;
+    }
+
+    /**
+     * @return the sorted positions (millis) of the thumbnails
+     */
+    public List<Long> getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the thumbnail size
+     */
+    public VideoSize getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the thumbnail size to set, null to keep the source size
+     * @return this instance
+     */
+    public ThumbnailOptions setSize(VideoSize size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * @return the strategy
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @param strategy the strategy to set, {@link Strategy#AUTO} picks the
+     *                 cheapest one
+     * @return this instance
+     */
+    public ThumbnailOptions setStrategy(@NonNull Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * @return the accurate
+     */
+    public boolean isAccurate() {
+        return accurate;
+    }
+
+    /**
+     * @param accurate false to allow the nearest following key frame in place
+     *                 of the exact frame
+     * @return this instance
+     */
+    public ThumbnailOptions setAccurate(boolean accurate) {
+        this.accurate = accurate;
+        return this;
+    }
+
+    /**
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of ffmpeg processes running at
+     *                    the same time
+     * @return this instance
+     */
+    public ThumbnailOptions setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @return the quality
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @param quality the JPEG quality to set (2 = best, 31 = worst)
+     * @return this instance
+     */
+    public ThumbnailOptions setQuality(int quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * @return the cache, can be null
+     */
+    public ThumbnailCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache the cache to set, can be null
+     * @return this instance
+     */
+    public ThumbnailOptions setCache(ThumbnailCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getName() + "(timestamps=" + timestamps + ", size="
+                + size + ", strategy=" + strategy + ", accurate=" + accurate
+                + ", parallelism=" + parallelism + ", quality=" + quality + ")";
+    }
+
+    public enum Strategy {
+        /**
+         * Picks the cheapest strategy for the requested thumbnails.
+         */
+        AUTO,
+        /**
+         * One pass decoding only the key frames.
+         */
+        KEYFRAMES,
+        /**
+         * One process per thumbnail, seeking on the input side, run in
+         * parallel.
+         */
+        SEEK,
+        /**
+         * One pass decoding the whole source.
+         */
+        SINGLE_PASS
+    }
+}
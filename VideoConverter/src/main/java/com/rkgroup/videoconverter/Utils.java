@@ -43,17 +43,39 @@ public class Utils {
     }
 
     /**
-     * Escape all special characters []=;, to be safe to use in command line
+     * Escape all special characters []=:, to be safe to use in command line
      *
      * @param argumentIn input argument to escape
      * @return escaped string
      */
     public static String escapeArgument(String argumentIn) {
-        String retVal = argumentIn.replace("[", "\\[");
-        retVal = retVal.replace("]", "\\]");
-        retVal = retVal.replace("=", "\\=");
-        retVal = retVal.replace(":", "\\:");
-        retVal = retVal.replace(",", "\\,");
-        return retVal;
+        StringBuilder retVal = new StringBuilder(argumentIn.length() + 8);
+        escapeArgument(retVal, argumentIn);
+        return retVal.toString();
+    }
+
+    /**
+     * Escape all special characters []=:, in a single pass, appending the
+     * result to the given builder
+     *
+     * @param sb         builder receiving the escaped argument
+     * @param argumentIn input argument to escape
+     */
+    public static void escapeArgument(StringBuilder sb, String argumentIn) {
+        for (int i = 0, length = argumentIn.length(); i < length; i++) {
+            char c = argumentIn.charAt(i);
+            switch (c) {
+                case '[':
+                case ']':
+                case '=':
+                case ':':
+                case ',':
+                    sb.append('\\');
+                    break;
+                default:
+                    break;
+            }
+            sb.append(c);
+        }
     }
 }
@@ -0,0 +1,216 @@
+package com.rkgroup.videoconverter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A package-private utility mapping the encoder independent settings of
+ * {@link VideoProperties} (speed, crf, tune, key frame interval) to the
+ * options of each supported video encoder.
+ *
+ * @author Rufen Khokhar
+ */
+class VideoCodecOptions {
+    private static final String TAG = "VideoCodecOptions";
+
+    /**
+     * libvpx deadline and cpu-used for each speed, in the order of
+     * {@link VideoProperties.EncodingSpeed}.
+     */
+    private static final String[] VPX_DEADLINES = {
+            "realtime", "realtime", "good", "good", "good", "good", "good", "good", "best", "realtime"};
+    private static final int[] VPX_CPU_USED = {8, 6, 5, 4, 3, 2, 1, 0, 0, 8};
+
+    private VideoCodecOptions() {
+    }
+
+    private enum Family {
+        X264, X265, VPX, VP9, MPEG4, OTHER
+    }
+
+    private static Family getFamily(String codec) {
+        switch (codec.toLowerCase(Locale.US)) {
+            case "libx264":
+            case "libx264rgb":
+            case "h264":
+                return Family.X264;
+            case "libx265":
+            case "hevc":
+            case "h265":
+                return Family.X265;
+            case "libvpx":
+            case "vp8":
+                return Family.VPX;
+            case "libvpx-vp9":
+            case "vp9":
+                return Family.VP9;
+            case "mpeg4":
+                return Family.MPEG4;
+            default:
+                return Family.OTHER;
+        }
+    }
+
+    /**
+     * Builds the encoder options of the video properties.
+     *
+     * @param videoProperties The video properties, with a codec.
+     * @param targetBitRate   Is the bitrate derived from a target size? The
+     *                        constant quality modes are then ignored.
+     * @return The ffmpeg arguments, empty if nothing is set.
+     */
+    static List<String> getArguments(VideoProperties videoProperties, boolean targetBitRate) {
+        ArrayList<String> args = new ArrayList<>();
+        String codec = videoProperties.getCodec();
+        if (codec == null || VideoProperties.COPY_ORIGINAL_STREAM.equals(codec)) {
+            return args;
+        }
+        Family family = getFamily(codec);
+        VideoProperties.EncodingSpeed speed = videoProperties.getEncodingSpeed();
+        boolean lowLatency = speed == VideoProperties.EncodingSpeed.LOW_LATENCY;
+        if (speed != null) {
+            addSpeedArguments(args, family, speed);
+        }
+
+        String tune = videoProperties.getTune();
+        if (family == Family.X264 || family == Family.X265) {
+            if (lowLatency) {
+                // zerolatency can be combined with one of the other tunings
+                tune = tune == null ? "zerolatency" : tune + ",zerolatency";
+            }
+            if (tune != null) {
+                args.add("-tune");
+                args.add(tune);
+            }
+        } else if (tune != null) {
+            Log.w(TAG, "Tune " + tune + " is not supported by " + codec + ", ignored");
+        }
+
+        Integer crf = videoProperties.getCrf();
+        if (crf != null && targetBitRate) {
+            Log.w(TAG, "Crf is ignored by a target size encoding");
+        } else if (crf != null) {
+            if (family == Family.X264 || family == Family.X265) {
+                args.add("-crf");
+                args.add(String.valueOf(crf));
+            } else if (family == Family.VPX || family == Family.VP9) {
+                args.add("-crf");
+                args.add(String.valueOf(crf));
+                if (videoProperties.getBitRate() == null) {
+                    // Constant quality, otherwise the bitrate is the cap
+                    // of a constrained quality
+                    args.add("-b:v");
+                    args.add("0");
+                }
+            } else {
+                Log.w(TAG, "Crf is not supported by " + codec + ", use the quality");
+            }
+        }
+
+        if (videoProperties.getKeyFrameInterval() != null) {
+            args.add("-g");
+            args.add(String.valueOf(videoProperties.getKeyFrameInterval()));
+        }
+        if (lowLatency && family != Family.X264 && family != Family.X265) {
+            // zerolatency already disables the B frames
+            args.add("-bf");
+            args.add("0");
+        }
+
+        // Last, to override the mapped options
+        for (Map.Entry<String, String> option : videoProperties.getCodecOptions().entrySet()) {
+            String name = option.getKey();
+            args.add(name.startsWith("-") ? name : "-" + name);
+            args.add(option.getValue());
+        }
+        return args;
+    }
+
+    /**
+     * Builds the options of a pass of a two-pass encoding.
+     *
+     * @param videoProperties The video properties, with a codec.
+     * @param pass            The pass, 1 or 2.
+     * @param passLogPrefix   The path prefix of the pass log files.
+     * @param fastFirstPass   Should the first pass favour speed?
+     * @return The ffmpeg arguments.
+     */
+    static List<String> getPassArguments(VideoProperties videoProperties, int pass,
+                                         String passLogPrefix, boolean fastFirstPass) {
+        ArrayList<String> args = new ArrayList<>();
+        Family family = getFamily(videoProperties.getCodec());
+        if (family == Family.X265) {
+            // libx265 ignores -pass, its passes are x265 parameters
+            args.add("-x265-params");
+            String params = "pass=" + pass + ":stats=" + passLogPrefix + ".log";
+            if (pass == 1 && fastFirstPass) {
+                params += ":slow-firstpass=0";
+            }
+            args.add(params);
+            return args;
+        }
+        args.add("-pass");
+        args.add(String.valueOf(pass));
+        args.add("-passlogfile");
+        args.add(passLogPrefix);
+        if (pass == 1) {
+            if (family == Family.X264 && !fastFirstPass) {
+                // Fast by default
+                args.add("-fastfirstpass");
+                args.add("0");
+            } else if ((family == Family.VPX || family == Family.VP9) && fastFirstPass) {
+                args.add("-cpu-used");
+                args.add("4");
+            }
+        }
+        return args;
+    }
+
+    private static void addSpeedArguments(List<String> args, Family family,
+                                          VideoProperties.EncodingSpeed speed) {
+        switch (family) {
+            case X264:
+            case X265:
+                args.add("-preset");
+                args.add(speed.getPresetName());
+                break;
+            case VPX:
+            case VP9:
+                args.add("-deadline");
+                args.add(VPX_DEADLINES[speed.ordinal()]);
+                args.add("-cpu-used");
+                args.add(String.valueOf(VPX_CPU_USED[speed.ordinal()]));
+                if (speed == VideoProperties.EncodingSpeed.LOW_LATENCY) {
+                    args.add("-lag-in-frames");
+                    args.add("0");
+                }
+                if (family == Family.VP9) {
+                    // Row based multithreading, much faster on multi core devices
+                    args.add("-row-mt");
+                    args.add("1");
+                }
+                break;
+            case MPEG4:
+                // The motion estimation effort is the only speed setting
+                if (speed.compareTo(VideoProperties.EncodingSpeed.SLOW) >= 0
+                        && speed != VideoProperties.EncodingSpeed.LOW_LATENCY) {
+                    args.add("-mbd");
+                    args.add("rd");
+                    args.add("-trellis");
+                    args.add(speed == VideoProperties.EncodingSpeed.SLOW ? "1" : "2");
+                    args.add("-cmp");
+                    args.add("2");
+                    args.add("-subcmp");
+                    args.add("2");
+                }
+                break;
+            default:
+                Log.d(TAG, "No speed setting for this codec, ignored");
+                break;
+        }
+    }
+}
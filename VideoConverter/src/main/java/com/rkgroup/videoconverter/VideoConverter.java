@@ -3,19 +3,31 @@ package com.rkgroup.videoconverter;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.rkgroup.videoconverter.exceptions.EncoderError;
+import com.rkgroup.videoconverter.listeners.CopyProgressListener;
 import com.rkgroup.videoconverter.listeners.EncoderProgressListener;
 import com.rkgroup.videoconverter.listeners.InitializeListener;
 import com.rkgroup.videoconverter.videofilters.VideoFilter;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static com.rkgroup.videoconverter.CpuArch.NONE;
 
@@ -28,6 +40,15 @@ import static com.rkgroup.videoconverter.CpuArch.NONE;
 public class VideoConverter {
     private static final String TAG = "VideoConverter";
     private static final int VERSION = 17;
+    /**
+     * The scratch space reserved for a stream of unknown length, at most the
+     * quota.
+     */
+    private static final long UNKNOWN_LENGTH_RESERVATION = 512L * 1024 * 1024;
+    /**
+     * The intermediate files of every converter of the application.
+     */
+    private static ScratchSpace scratchSpace;
     private ExecutorService executorService;
     // handler will push listener call from background thread to Main thread
     private Handler handler;
@@ -39,69 +60,228 @@ public class VideoConverter {
         ffmpegLocator = new LocalFFMPEGLocator(mContext);
         this.properties = properties;
         encoder = new Encoder(mContext);
+        encoder.setScratchSpace(getScratchSpace(mContext));
         executorService = Executors.newSingleThreadExecutor();
         handler = new Handler();
     }
 
+    /**
+     * Returns the scratch space of the converters, in the cache directory. Its
+     * quota and cleanup age can be changed before converting.
+     *
+     * @param mContext the context
+     * @return the scratch space shared by the converters
+     */
+    @NonNull
+    public static synchronized ScratchSpace getScratchSpace(@NonNull Context mContext) {
+        if (scratchSpace == null) {
+            scratchSpace = new ScratchSpace(new File(mContext.getCacheDir(), "scratch"));
+        }
+        return scratchSpace;
+    }
+
+    /**
+     * @param mContext the context
+     * @return the architecture of the installed ffmpeg binary, null if not
+     * initialized
+     */
+    public static CpuArch getInstalledCpuArch(@NonNull Context mContext) {
+        String name = mContext.getSharedPreferences(Constants.FFMPEG_PREFS, Context.MODE_PRIVATE)
+                .getString(Constants.KEY_PREF_ABI, null);
+        return name != null ? CpuArch.valueOf(name) : null;
+    }
+
+    /**
+     * The running or completed initialization, shared by all the callers.
+     */
+    private static Initialization initialization;
+
+    /**
+     * Initializes the library on the calling thread, waiting for an
+     * initialization already running.
+     *
+     * @param mContext the context
+     * @param listener called on the calling thread
+     */
     public static void initialize(@NonNull Context mContext, @NonNull InitializeListener listener) {
-        listener.initialized(init(mContext));
+        boolean status;
+        try {
+            status = initializeAsync(mContext, false, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "initialization failed", e.getCause());
+            status = false;
+        }
+        listener.initialized(status);
     }
 
-    private static boolean init(Context mContext) {
-        // check if arch is supported
-        CpuArch cpuArch = CpuArchHelper.getCpuArch();
-        if (cpuArch == NONE) {
-            Log.e(TAG, "arch not supported");
-            return false;
+    /**
+     * Initializes the library in the background: ffmpeg binary installation
+     * and check. Concurrent and repeated calls share the same initialization,
+     * a failed one is retried by the next call.
+     * <p>
+     * With warm up, the ffmpeg binary is then loaded in the page cache and
+     * the encoders and formats lists are cached, so the first conversion
+     * does not pay for them. The warm up is done if the call starting the
+     * initialization requests it.
+     *
+     * @param mContext the context
+     * @param warmUp   should the runtime be warmed up?
+     * @param listener called on the main thread when initialized, can be null
+     * @return the initialization, true when the library is ready
+     */
+    public static Future<Boolean> initializeAsync(@NonNull Context mContext, boolean warmUp,
+                                                  InitializeListener listener) {
+        final Context context = mContext.getApplicationContext() != null
+                ? mContext.getApplicationContext() : mContext;
+        Initialization task;
+        synchronized (VideoConverter.class) {
+            if (initialization == null || initialization.isFailed()) {
+                initialization = new Initialization(context, warmUp);
+                Thread thread = new Thread(initialization, "VideoConverter-init");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            task = initialization;
+        }
+        if (listener != null) {
+            task.addListener(listener);
         }
+        return task;
+    }
 
-        // get fFmpegFile file
-        File fFmpegFile = FileManager.getFFmpeg(mContext);
+    /**
+     * The background initialization, delivering its result to the listeners
+     * on the main thread.
+     */
+    private static class Initialization extends FutureTask<Boolean> {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private final List<InitializeListener> listeners = new ArrayList<>();
 
-        SharedPreferences settings = mContext.getSharedPreferences(Constants.FFMPEG_PREFS, Context.MODE_PRIVATE);
-        int version = settings.getInt(Constants.KEY_PREF_VERSION, 0);
+        Initialization(final Context context, final boolean warmUp) {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    boolean ready = init(context);
+                    if (ready && warmUp) {
+                        warmUp(context);
+                    }
+                    return ready;
+                }
+            });
+        }
+
+        /**
+         * @return true if completed without a ready library
+         */
+        boolean isFailed() {
+            return isDone() && !getStatus();
+        }
 
-        // check if fFmpegFile file exists
-        if (!fFmpegFile.exists() || version < VERSION) {
+        private boolean getStatus() {
             try {
-                InputStream inputStream = mContext.getAssets().open(FileManager.FFMPEG_BINARY_FILE);
-                if (!FileManager.inputStreamToFile(inputStream, fFmpegFile)) {
-                    return false;
-                }
-                Log.d(TAG, "successfully wrote fFmpegFile file!");
-                settings.edit().putInt(Constants.KEY_PREF_VERSION, VERSION).apply();
-            } catch (IOException e) {
-                Log.e(TAG, "error while opening assets", e);
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "initialization failed", e.getCause());
                 return false;
             }
         }
 
-        // check if fFmpegFile can be executed
-        if (!fFmpegFile.canExecute()) {
-            // try to make executable
-            try {
-                try {
-                    Runtime.getRuntime().exec("chmod -R 777 " + fFmpegFile.getAbsolutePath()).waitFor();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "interrupted exception", e);
-                    return false;
-                } catch (IOException e) {
-                    Log.e(TAG, "io exception", e);
-                    return false;
+        void addListener(InitializeListener listener) {
+            synchronized (listeners) {
+                if (!isDone()) {
+                    listeners.add(listener);
+                    return;
                 }
+            }
+            deliver(listener, getStatus());
+        }
 
-                if (!fFmpegFile.canExecute()) {
-                    // our last hope!
-                    if (!fFmpegFile.setExecutable(true)) {
-                        Log.e(TAG, "unable to make executable");
-                        return false;
-                    }
+        @Override
+        protected void done() {
+            boolean status = getStatus();
+            synchronized (listeners) {
+                for (InitializeListener listener : listeners) {
+                    deliver(listener, status);
+                }
+                listeners.clear();
+            }
+        }
+
+        private void deliver(final InitializeListener listener, final boolean status) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.initialized(status);
                 }
-            } catch (SecurityException e) {
-                Log.e(TAG, "security exception", e);
-                e.printStackTrace();
+            });
+        }
+    }
+
+    /**
+     * Warms up the runtime: the ffmpeg binary is read in the page cache and
+     * the capabilities queried once.
+     */
+    private static void warmUp(Context mContext) {
+        long start = SystemClock.elapsedRealtime();
+        File fFmpegFile = FileManager.getFFmpeg(mContext);
+        try {
+            FileInputStream input = new FileInputStream(fFmpegFile);
+            try {
+                FileChannel channel = input.getChannel();
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).load();
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "unable to prefetch " + fFmpegFile, e);
+        }
+        Encoder encoder = new Encoder(new LocalFFMPEGLocator(fFmpegFile.getAbsolutePath()));
+        try {
+            encoder.getVideoEncoders();
+            encoder.getAudioEncoders();
+            encoder.getSupportedEncodingFormats();
+        } catch (EncoderError e) {
+            Log.w(TAG, "unable to query the ffmpeg capabilities", e);
+        }
+        Log.d(TAG, "warmed up in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private static boolean init(Context mContext) {
+        // check if arch is supported, the best one with a binary
+        CpuArch cpuArch = CpuArchHelper.getCpuArch(mContext.getAssets());
+        if (cpuArch == NONE) {
+            Log.e(TAG, "arch not supported, ABIs " + CpuArchHelper.getSupportedAbis());
+            return false;
+        }
+        String asset = CpuArchHelper.getBinaryAsset(mContext.getAssets(), cpuArch);
+        Log.d(TAG, "ffmpeg ABI " + cpuArch.getAbi() + " from " + asset + ", device ABIs "
+                + CpuArchHelper.getSupportedAbis());
+
+        // get fFmpegFile file
+        File fFmpegFile = FileManager.getFFmpeg(mContext);
+
+        SharedPreferences settings = mContext.getSharedPreferences(Constants.FFMPEG_PREFS, Context.MODE_PRIVATE);
+        int version = settings.getInt(Constants.KEY_PREF_VERSION, 0);
+        String installedAbi = settings.getString(Constants.KEY_PREF_ABI, null);
+
+        // check if fFmpegFile file exists, and is the one of this arch
+        if (!fFmpegFile.exists() || version < VERSION || !fFmpegFile.canExecute()
+                || !cpuArch.name().equals(installedAbi)) {
+            // written to a temporary file made executable, then renamed
+            if (!FFMPEGInstaller.install(mContext, asset, fFmpegFile)) {
                 return false;
             }
+            Log.d(TAG, "successfully wrote fFmpegFile file!");
+            settings.edit()
+                    .putInt(Constants.KEY_PREF_VERSION, VERSION)
+                    .putString(Constants.KEY_PREF_ABI, cpuArch.name())
+                    .apply();
         }
 
         Log.d(TAG, "fFmpegFile is ready!");
@@ -110,8 +290,129 @@ public class VideoConverter {
     }
 
     public void convertVideo(File source, File target, EncoderProgressListener progressListener) {
+        convertVideo(new FFMPEGMediaObject(source, ffmpegLocator), target, null, null, progressListener);
+    }
+
+    /**
+     * Copies a stream (like a content URI) to a local file and converts it.
+     * The conversion starts once startAfterBytes have been copied, ffmpeg then
+     * reads the file through a pipe while the copy goes on, see
+     * {@link GrowingFile}; this works only for streamable
+     * sources (MP4 with the moov atom first, MKV, MPEG-TS). The conversion
+     * starts after the copy when startAfterBytes is -1.
+     *
+     * @param source           The stream to convert, closed when copied.
+     * @param length           The length of the stream if known, -1 otherwise.
+     * @param spool            The local copy of the stream.
+     * @param startAfterBytes  The bytes to copy before starting the conversion.
+     * @param target           The converted file.
+     * @param progressListener The listener of the conversion.
+     */
+    public void convertVideo(InputStream source, long length, File spool, long startAfterBytes, File target,
+                             EncoderProgressListener progressListener) {
+        spoolAndConvert(source, length, spool, startAfterBytes, target, progressListener);
+    }
+
+    /**
+     * Copies a stream (like a content URI) to the scratch space and converts
+     * it, see {@link #convertVideo(InputStream, long, File, long, File, EncoderProgressListener)}.
+     * The copy waits for the scratch space of the stream length (512 MB, at
+     * most the quota, if unknown), and is deleted once converted.
+     *
+     * @param source           The stream to convert, closed when copied.
+     * @param length           The length of the stream if known, -1 otherwise.
+     * @param startAfterBytes  The bytes to copy before starting the conversion.
+     * @param target           The converted file.
+     * @param progressListener The listener of the conversion.
+     */
+    public void convertVideo(InputStream source, long length, long startAfterBytes, File target,
+                             EncoderProgressListener progressListener) {
+        spoolAndConvert(source, length, null, startAfterBytes, target, progressListener);
+    }
+
+    /**
+     * @param spool The local copy of the stream, null to create it in the
+     *              scratch space.
+     */
+    private void spoolAndConvert(InputStream source, long length, File spool, long startAfterBytes, File target,
+                                 EncoderProgressListener progressListener) {
+        boolean[] started = {false};
+        GrowingFile[] growing = {null};
+        SpoolCopy copy = new SpoolCopy();
+        Thread copier = new Thread(() -> {
+            long start = SystemClock.elapsedRealtime();
+            File file = spool;
+            try {
+                if (file == null) {
+                    ScratchSpace scratchSpace = encoder.getScratchSpace();
+                    long reservation = length >= 0 ? length
+                            : Math.min(UNKNOWN_LENGTH_RESERVATION, scratchSpace.getQuota());
+                    file = scratchSpace.createFile("spool-", ".tmp", reservation);
+                }
+                File scratchFile = spool == null ? file : null;
+                FFMPEGMediaObject multimediaObject = new FFMPEGMediaObject(file, ffmpegLocator);
+                growing[0] = new GrowingFile(file);
+                long copied = FileManager.copy(source, file, length, new CopyProgressListener() {
+                    @Override
+                    public void onProgress(long copied, long total) {
+                        growing[0].setLength(copied);
+                        if (!started[0] && startAfterBytes >= 0 && copied >= startAfterBytes) {
+                            Log.d(TAG, "starting the conversion after " + copied + " bytes");
+                            started[0] = true;
+                            multimediaObject.setGrowingFile(growing[0]);
+                            convertVideo(multimediaObject, target, scratchFile, copy, progressListener);
+                        }
+                    }
+                });
+                Log.d(TAG, copied + " bytes copied to " + file + " in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+                growing[0].complete(copied);
+                if (!started[0]) {
+                    convertVideo(multimediaObject, target, scratchFile, copy, progressListener);
+                }
+            } catch (IOException | EncoderError e) {
+                Log.e(TAG, "error while copying to " + file, e);
+                if (growing[0] != null) {
+                    growing[0].fail(e);
+                }
+                if (started[0]) {
+                    // The conversion reports the copy error in place of its own
+                    if (!copy.fail(e)) {
+                        encoder.abortEncoding();
+                        return;
+                    }
+                } else {
+                    executorService.shutdown();
+                    if (spool == null) {
+                        encoder.getScratchSpace().release(file);
+                    }
+                }
+                handler.post(() -> progressListener.onReceivedError(e));
+            }
+        }, "VideoConverter-copy");
+        copier.start();
+    }
+
+    /**
+     * @param scratchFile The scratch file released once converted, can be
+     *                    null.
+     * @param copy        The copy still writing the source, can be null.
+     */
+    private void convertVideo(FFMPEGMediaObject multimediaObject, File target, File scratchFile,
+                              SpoolCopy copy, EncoderProgressListener progressListener) {
+        ConverterMetrics.QUEUE_DEPTH.increment();
         executorService.submit(() -> {
-            FFMPEGMediaObject multimediaObject = new FFMPEGMediaObject(source, ffmpegLocator);
+            ConverterMetrics.QUEUE_DEPTH.decrement();
+            Exception copyError = copy != null ? copy.getError() : null;
+            if (copyError != null) {
+                // The copy failed while queued, the source is truncated
+                copy.finish();
+                if (scratchFile != null) {
+                    encoder.getScratchSpace().release(scratchFile);
+                }
+                handler.post(() -> progressListener.onReceivedError(copyError));
+                return;
+            }
             encoder.encode(multimediaObject, target, properties, new EncoderProgressListener() {
                 @Override
                 public void onStartEncoding(MediaInfo info) {
@@ -130,19 +431,67 @@ public class VideoConverter {
 
                 @Override
                 public void onCompleteEncoding(int completionCode) {
-                    handler.post(() -> progressListener.onCompleteEncoding(completionCode));
+                    Exception copyError = copy != null ? copy.finish() : null;
+                    if (copyError != null) {
+                        handler.post(() -> progressListener.onReceivedError(copyError));
+                    } else {
+                        handler.post(() -> progressListener.onCompleteEncoding(completionCode));
+                    }
                 }
 
                 @Override
                 public void onReceivedError(Exception e) {
-                    handler.post(() -> progressListener.onReceivedError(e));
+                    Exception copyError = copy != null ? copy.finish() : null;
+                    handler.post(() -> progressListener.onReceivedError(copyError != null ? copyError : e));
                 }
             });
-
+            if (scratchFile != null) {
+                encoder.getScratchSpace().release(scratchFile);
+            }
         });
         executorService.shutdown();
     }
 
+    /**
+     * The outcome of a copy the conversion started on: a copy error is
+     * reported once, by the conversion if it is still running, else by the
+     * copy.
+     */
+    private static class SpoolCopy {
+        private Exception error;
+        private boolean finished;
+
+        /**
+         * @return true if the conversion has finished, and will not report
+         * the error
+         */
+        synchronized boolean fail(Exception e) {
+            error = e;
+            return finished;
+        }
+
+        synchronized Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return the copy error to report in place of the conversion
+         * outcome, null if none
+         */
+        synchronized Exception finish() {
+            finished = true;
+            return error;
+        }
+    }
+
+    /**
+     * @return the statistics of the last conversion, null if no conversion
+     * ran to its end
+     */
+    public ConversionStats getConversionStats() {
+        return encoder.getConversionStats();
+    }
+
     public void cancelConversion() {
         if (encoder != null) {
             encoder.abortEncoding();
@@ -290,6 +639,58 @@ public class VideoConverter {
             return this;
         }
 
+        /**
+         * Sets the speed/compression trade-off, mapped to the options of the
+         * video codec, see {@link VideoProperties#setEncodingSpeed(VideoProperties.EncodingSpeed)}.
+         *
+         * @param encodingSpeed the encodingSpeed to set
+         * @return this instance
+         */
+        public Builder setVideoEncodingSpeed(VideoProperties.EncodingSpeed encodingSpeed) {
+            videoProperties.setEncodingSpeed(encodingSpeed);
+            return this;
+        }
+
+        /**
+         * @param crf the constant rate factor, see {@link VideoProperties#setCrf(Integer)}
+         * @return this instance
+         */
+        public Builder setVideoCrf(Integer crf) {
+            videoProperties.setCrf(crf);
+            return this;
+        }
+
+        /**
+         * @param tune the encoder tuning (libx264, libx265)
+         * @return this instance
+         */
+        public Builder setVideoTune(String tune) {
+            videoProperties.setTune(tune);
+            return this;
+        }
+
+        /**
+         * @param keyFrameInterval the maximum distance between two key frames
+         * @return this instance
+         */
+        public Builder setVideoKeyFrameInterval(Integer keyFrameInterval) {
+            videoProperties.setKeyFrameInterval(keyFrameInterval);
+            return this;
+        }
+
+        /**
+         * Sets an encoder option passed as it is, see
+         * {@link VideoProperties#setCodecOption(String, String)}.
+         *
+         * @param name  The option name.
+         * @param value The option value.
+         * @return this instance
+         */
+        public Builder setVideoCodecOption(@NonNull String name, String value) {
+            videoProperties.setCodecOption(name, value);
+            return this;
+        }
+
         /**
          * Sets the video size for the encoding process. If null or not specified
          * the source video size will not be modified.
@@ -363,6 +764,20 @@ public class VideoConverter {
             return this;
         }
 
+        /**
+         * Packages the target as adaptive streaming segments plus a master
+         * playlist. The target passed to {@link VideoConverter#convertVideo}
+         * is then the directory receiving the segments.
+         *
+         * @param segmentedOutput The packaging properties, null for a single
+         *                        target file.
+         * @return this instance
+         */
+        public Builder setSegmentedOutput(SegmentedOutput segmentedOutput) {
+            properties.setSegmentedOutput(segmentedOutput);
+            return this;
+        }
+
         /**
          * @param fastStart the faststart to set
          * @return this instance
@@ -444,6 +859,35 @@ public class VideoConverter {
             return this;
         }
 
+        /**
+         * Sets the source streams written to the output, see
+         * {@link EncoderProperties#setStreamSelection(StreamSelection)}.
+         *
+         * @param streamSelection the streamSelection to set
+         * @return this instance
+         */
+        public Builder setStreamSelection(StreamSelection streamSelection) {
+            properties.setStreamSelection(streamSelection);
+            return this;
+        }
+
+        /**
+         * Sets the size the output should not exceed, encoded in two passes,
+         * see {@link EncoderProperties#setTargetSize(Long)}.
+         *
+         * @param targetSize the targetSize to set (bytes)
+         * @return this instance
+         */
+        public Builder setTargetSize(Long targetSize) {
+            properties.setTargetSize(targetSize);
+            return this;
+        }
+
+        public Builder setSpaceCheck(@NonNull EncoderProperties.SpaceCheck spaceCheck) {
+            properties.setSpaceCheck(spaceCheck);
+            return this;
+        }
+
 
         public VideoConverter build() {
             properties.setVideoProperties(videoProperties);
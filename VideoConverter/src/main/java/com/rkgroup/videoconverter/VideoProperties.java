@@ -1,9 +1,11 @@
 package com.rkgroup.videoconverter;
 
+import com.rkgroup.videoconverter.videofilters.FilterGraph;
 import com.rkgroup.videoconverter.videofilters.VideoFilter;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 /**
  * Properties controlling the video encoding process.
@@ -67,6 +69,28 @@ public class VideoProperties implements Serializable {
      */
     private boolean faststart = false;
     private X264_PROFILE x264Profile = null;
+    /**
+     * The speed/compression trade-off of the encoder. If null or not
+     * specified the encoder default will be used.
+     */
+    private EncodingSpeed encodingSpeed = null;
+    /**
+     * The constant rate factor, for the encoders with a constant quality
+     * mode. If null or not specified the bitrate or the quality is used.
+     */
+    private Integer crf = null;
+    /**
+     * The encoder tuning, like film or animation (x264, x265).
+     */
+    private String tune = null;
+    /**
+     * The maximum distance between two key frames (frames).
+     */
+    private Integer keyFrameInterval = null;
+    /**
+     * Encoder options passed as they are, after the mapped ones.
+     */
+    private final LinkedHashMap<String, String> codecOptions = new LinkedHashMap<>();
 
     /**
      * Returns the codec name for the encoding process.
@@ -203,6 +227,15 @@ public class VideoProperties implements Serializable {
         return this.videoFilters;
     }
 
+    /**
+     * Composes all the video filters, in order, in a single filter chain.
+     *
+     * @return the filter graph of the video filters
+     */
+    public FilterGraph buildFilterGraph() {
+        return new FilterGraph.Builder().addFilters(videoFilters).build();
+    }
+
     /**
      * @return the quality
      */
@@ -222,12 +255,118 @@ public class VideoProperties implements Serializable {
         return this;
     }
 
+    /**
+     * @return the encodingSpeed
+     */
+    public EncodingSpeed getEncodingSpeed() {
+        return encodingSpeed;
+    }
+
+    /**
+     * Sets the speed/compression trade-off, mapped to the options of the
+     * selected codec: -preset for libx264/libx265, -deadline and -cpu-used
+     * for libvpx, the motion estimation for mpeg4. If null or not specified
+     * the encoder default will be used.
+     *
+     * @param encodingSpeed the encodingSpeed to set
+     * @return this instance
+     */
+    public VideoProperties setEncodingSpeed(EncodingSpeed encodingSpeed) {
+        this.encodingSpeed = encodingSpeed;
+        return this;
+    }
+
+    /**
+     * @return the crf
+     */
+    public Integer getCrf() {
+        return crf;
+    }
+
+    /**
+     * Sets the constant rate factor (libx264, libx265, libvpx), lower is
+     * better: 0-51 for x264/x265 (23 and 28 by default), 4-63 for libvpx.
+     * With libvpx and a bitrate the bitrate is the cap of a constrained
+     * quality encoding.
+     *
+     * @param crf the crf to set
+     * @return this instance
+     */
+    public VideoProperties setCrf(Integer crf) {
+        this.crf = crf;
+        return this;
+    }
+
+    /**
+     * @return the tune
+     */
+    public String getTune() {
+        return tune;
+    }
+
+    /**
+     * Sets the encoder tuning (libx264, libx265), like film, animation,
+     * grain or stillimage.
+     *
+     * @param tune the tune to set
+     * @return this instance
+     */
+    public VideoProperties setTune(String tune) {
+        this.tune = tune;
+        return this;
+    }
+
+    /**
+     * @return the keyFrameInterval
+     */
+    public Integer getKeyFrameInterval() {
+        return keyFrameInterval;
+    }
+
+    /**
+     * Sets the maximum distance between two key frames, the GOP size (-g).
+     *
+     * @param keyFrameInterval the keyFrameInterval to set, in frames
+     * @return this instance
+     */
+    public VideoProperties setKeyFrameInterval(Integer keyFrameInterval) {
+        this.keyFrameInterval = keyFrameInterval;
+        return this;
+    }
+
+    /**
+     * @return the encoder options passed as they are
+     */
+    public LinkedHashMap<String, String> getCodecOptions() {
+        return codecOptions;
+    }
+
+    /**
+     * Sets an encoder option passed as it is, after the mapped ones, like
+     * "x264-params" = "ref=4" or "aq-mode" = "2".
+     *
+     * @param name  The option name, with or without the leading dash.
+     * @param value The option value, null to remove the option.
+     * @return this instance
+     */
+    public VideoProperties setCodecOption(String name, String value) {
+        if (value == null) {
+            codecOptions.remove(name);
+        } else {
+            codecOptions.put(name, value);
+        }
+        return this;
+    }
+
     @Override
     public String toString() {
         return getClass().getName() + "(codec=" + codec
                 + ", bitRate=" + bitRate + ", frameRate=" + frameRate
                 + ", size=" + size + ", faststart=" + faststart
-                + ", quality=" + quality + ")";
+                + ", quality=" + quality + ", encodingSpeed=" + encodingSpeed
+                + ", crf=" + crf + ", tune=" + tune
+                + ", keyFrameInterval=" + keyFrameInterval
+                + ", codecOptions=" + codecOptions + ")";
     }
 
     /**
@@ -260,4 +399,31 @@ public class VideoProperties implements Serializable {
         }
     }
 
+    /**
+     * The speed/compression trade-off of the encoder, from the fastest to the
+     * smallest output, named after the x264 presets.
+     */
+    public enum EncodingSpeed {
+        ULTRAFAST("ultrafast"), SUPERFAST("superfast"), VERYFAST("veryfast"),
+        FASTER("faster"), FAST("fast"), MEDIUM("medium"), SLOW("slow"),
+        SLOWER("slower"), VERYSLOW("veryslow"),
+        /**
+         * A fast encoding without frame reordering or look ahead, each frame
+         * is output as soon as it is encoded (live streaming).
+         */
+        LOW_LATENCY("veryfast");
+        private final String presetName;
+
+        EncodingSpeed(String presetName) {
+            this.presetName = presetName;
+        }
+
+        /**
+         * @return the x264/x265 preset name
+         */
+        public String getPresetName() {
+            return presetName;
+        }
+    }
+
 }
@@ -0,0 +1,134 @@
+package com.rkgroup.videoconverter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A package-private reader of the WAV headers: the RIFF chunks are skipped
+ * up to the fmt and data chunks. Only the PCM, float and G.711 encodings
+ * are handled.
+ *
+ * @author Rufen Khokhar
+ */
+final class WavHeaderReader {
+
+    private static final int FORMAT_PCM = 0x0001;
+    private static final int FORMAT_FLOAT = 0x0003;
+    private static final int FORMAT_ALAW = 0x0006;
+    private static final int FORMAT_MULAW = 0x0007;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private WavHeaderReader() {
+    }
+
+    /**
+     * @param magic The first bytes of the file.
+     * @return true if the file starts with a RIFF WAVE header
+     */
+    static boolean matches(ByteBuffer magic) {
+        return magic.get(0) == 'R' && magic.get(1) == 'I' && magic.get(2) == 'F' && magic.get(3) == 'F'
+                && magic.get(8) == 'W' && magic.get(9) == 'A' && magic.get(10) == 'V' && magic.get(11) == 'E';
+    }
+
+    /**
+     * @param channel The file.
+     * @return The informations, null if the file cannot be fully described.
+     */
+    static MediaInfo read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer fmt = null;
+        long dataSize = -1;
+        long position = 12;
+        while (position + 8 <= size && (fmt == null || dataSize < 0)) {
+            chunk.clear();
+            HeaderMediaProber.readFully(channel, chunk, position);
+            int id = chunk.getInt(0);
+            long chunkSize = chunk.getInt(4) & 0xffffffffL;
+            if (id == 0x20746d66) {
+                // "fmt "
+                if (chunkSize < 16 || chunk.limit() < 24) {
+                    return null;
+                }
+                fmt = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                chunk = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+            } else if (id == 0x61746164) {
+                // "data", the size is not always updated by streaming writers
+                dataSize = Math.min(chunkSize, size - position - 8);
+            }
+            // Chunks are word aligned
+            position += 8 + chunkSize + (chunkSize & 1);
+        }
+        if (fmt == null || dataSize < 0) {
+            return null;
+        }
+        int format = fmt.getShort(8) & 0xffff;
+        int channels = fmt.getShort(10) & 0xffff;
+        int samplingRate = fmt.getInt(12);
+        long byteRate = fmt.getInt(16) & 0xffffffffL;
+        int bits = fmt.getShort(22) & 0xffff;
+        int subFormat = format;
+        if (format == FORMAT_EXTENSIBLE) {
+            if (fmt.limit() < 34) {
+                return null;
+            }
+            // First bytes of the sub format GUID
+            subFormat = fmt.getShort(32) & 0xffff;
+        }
+        String codec = null;
+        String sampleFormat = null;
+        if (subFormat == FORMAT_PCM) {
+            switch (bits) {
+                case 8:
+                    codec = "pcm_u8";
+                    sampleFormat = "u8";
+                    break;
+                case 16:
+                    codec = "pcm_s16le";
+                    sampleFormat = "s16";
+                    break;
+                case 24:
+                    codec = "pcm_s24le";
+                    sampleFormat = "s32";
+                    break;
+                case 32:
+                    codec = "pcm_s32le";
+                    sampleFormat = "s32";
+                    break;
+                default:
+                    break;
+            }
+        } else if (subFormat == FORMAT_FLOAT) {
+            if (bits == 32) {
+                codec = "pcm_f32le";
+                sampleFormat = "flt";
+            } else if (bits == 64) {
+                codec = "pcm_f64le";
+                sampleFormat = "dbl";
+            }
+        } else if (subFormat == FORMAT_ALAW) {
+            codec = "pcm_alaw";
+            sampleFormat = "s16";
+        } else if (subFormat == FORMAT_MULAW) {
+            codec = "pcm_mulaw";
+            sampleFormat = "s16";
+        }
+        if (codec == null || channels == 0 || samplingRate <= 0 || byteRate == 0) {
+            // ADPCM, MP3 in WAV...
+            return null;
+        }
+        StreamInfo stream = new StreamInfo(0, StreamInfo.Type.AUDIO)
+                .setCodec(codec)
+                .setDecoder(HeaderMediaProber.getDecoder(codec, null, format))
+                .setSampleFormat(sampleFormat)
+                .setSamplingRate(samplingRate)
+                .setChannels(channels)
+                .setBitRate(HeaderMediaProber.toKiloBits((long) samplingRate * channels * bits));
+        return new MediaInfo()
+                .setFormat("wav")
+                .setDuration(HeaderMediaProber.toMillis(dataSize * 1000000 / byteRate))
+                .addStream(stream);
+    }
+}
@@ -0,0 +1,21 @@
+package com.rkgroup.videoconverter.listeners;
+
+/**
+ * Copy progress listener interface. Instances of implementing classes are
+ * notified every time a chunk of a copy made by
+ * {@link com.rkgroup.videoconverter.FileManager} has been written.
+ * <p>
+ * The listener is called on the thread running the copy.
+ *
+ * @author Rufen Khokhar
+ */
+public interface CopyProgressListener {
+
+    /**
+     * This method is called after every written chunk.
+     *
+     * @param copied The bytes copied so far.
+     * @param total  The bytes to copy, -1 if unknown.
+     */
+    void onProgress(long copied, long total);
+}
@@ -0,0 +1,22 @@
+package com.rkgroup.videoconverter.listeners;
+
+import java.io.File;
+
+/**
+ * Segment completion listener interface. Instances of implementing classes are
+ * notified every time a segment of a segmented (HLS/DASH) output is fully
+ * written, so it can be served while the rest of the stream is still encoding.
+ * <p>
+ * The listener is called on the thread running the encoder.
+ *
+ * @author Rufen Khokhar
+ */
+public interface SegmentListener {
+
+    /**
+     * This method is called when a media segment has been closed by ffmpeg.
+     *
+     * @param segment The completed segment file.
+     */
+    void onSegmentComplete(File segment);
+}
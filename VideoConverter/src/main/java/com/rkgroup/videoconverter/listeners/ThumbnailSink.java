@@ -0,0 +1,18 @@
+package com.rkgroup.videoconverter.listeners;
+
+/**
+ * In-memory receiver of the thumbnails extracted from a multimedia file.
+ *
+ * @author Rufen Khokhar
+ */
+public interface ThumbnailSink {
+
+    /**
+     * This method is called for every extracted thumbnail, in timestamp
+     * order.
+     *
+     * @param timestamp The requested position (millis) of the thumbnail.
+     * @param image     The encoded (JPEG) image.
+     */
+    void onThumbnail(long timestamp, byte[] image);
+}
@@ -0,0 +1,37 @@
+package com.rkgroup.videoconverter.metrics;
+
+/**
+ * A count only going up, like the started jobs. Concurrent increments are
+ * spread over striped cells.
+ *
+ * @author Rufen Khokhar
+ */
+public final class Counter extends Metric {
+
+    private final StripedLong value = new StripedLong();
+
+    Counter(String name, String help) {
+        super(name, help);
+    }
+
+    public void increment() {
+        value.add(1);
+    }
+
+    /**
+     * @param delta The amount to add, 0 or more.
+     */
+    public void add(long delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("A counter can't decrease: " + delta);
+        }
+        value.add(delta);
+    }
+
+    /**
+     * @return The count.
+     */
+    public long get() {
+        return value.sum();
+    }
+}
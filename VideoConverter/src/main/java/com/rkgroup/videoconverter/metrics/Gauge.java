@@ -0,0 +1,38 @@
+package com.rkgroup.videoconverter.metrics;
+
+/**
+ * A value going up and down, like the running processes. Concurrent updates
+ * are spread over striped cells.
+ *
+ * @author Rufen Khokhar
+ */
+public final class Gauge extends Metric {
+
+    private final StripedLong value = new StripedLong();
+
+    Gauge(String name, String help) {
+        super(name, help);
+    }
+
+    public void increment() {
+        value.add(1);
+    }
+
+    public void decrement() {
+        value.add(-1);
+    }
+
+    /**
+     * @param delta The amount to add, can be negative.
+     */
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    /**
+     * @return The value.
+     */
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,98 @@
+package com.rkgroup.videoconverter.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of observed values, like the encoding durations, counted
+ * in buckets of fixed upper bounds.
+ * <p>
+ * The buckets and the sum are striped like a {@link StripedLong}: every
+ * stripe has its own row of bucket counts and sum, padded to whole cache
+ * lines, and the reads add the rows.
+ *
+ * @author Rufen Khokhar
+ */
+public final class Histogram extends Metric {
+
+    private final double[] bounds;
+    /**
+     * The rows of the stripes: the count of each bucket, the last one for
+     * the values above every bound, then the bits of the double sum of the
+     * values.
+     */
+    private final AtomicLongArray cells;
+    private final int rowLength;
+    private final int mask;
+
+    Histogram(String name, String help, double[] bounds) {
+        super(name, help);
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        int stripes = StripedLong.getStripeCount();
+        // The buckets and the sum, rounded up to whole cache lines
+        rowLength = (this.bounds.length + 2 + StripedLong.PADDING - 1)
+                / StripedLong.PADDING * StripedLong.PADDING;
+        cells = new AtomicLongArray(stripes * rowLength);
+        mask = stripes - 1;
+    }
+
+    /**
+     * @param value The observed value.
+     */
+    public void observe(double value) {
+        int index = Arrays.binarySearch(bounds, value);
+        int row = StripedLong.getStripe(mask) * rowLength;
+        // A value equal to a bound is in its bucket (less or equal)
+        cells.incrementAndGet(row + (index >= 0 ? index : -index - 1));
+        int sumIndex = row + bounds.length + 1;
+        long bits;
+        do {
+            bits = cells.get(sumIndex);
+        } while (!cells.compareAndSet(sumIndex, bits,
+                Double.doubleToLongBits(Double.longBitsToDouble(bits) + value)));
+    }
+
+    /**
+     * @return The upper bounds of the buckets, ascending.
+     */
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return The count of each bucket, not cumulative. The last one counts
+     * the values above every bound.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[bounds.length + 1];
+        for (int row = 0; row < cells.length(); row += rowLength) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += cells.get(row + i);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return The number of observed values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : getBucketCounts()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The sum of the observed values.
+     */
+    public double getSum() {
+        double sum = 0;
+        for (int row = 0; row < cells.length(); row += rowLength) {
+            sum += Double.longBitsToDouble(cells.get(row + bounds.length + 1));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,39 @@
+package com.rkgroup.videoconverter.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A named metric of a {@link MetricsRegistry}.
+ *
+ * @author Rufen Khokhar
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String help;
+
+    Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * @return The name, like videoconverter_jobs_started_total.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The description.
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + name + ")";
+    }
+}
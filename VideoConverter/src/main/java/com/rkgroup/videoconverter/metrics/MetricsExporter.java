@@ -0,0 +1,20 @@
+package com.rkgroup.videoconverter.metrics;
+
+import java.io.IOException;
+
+/**
+ * An exporter of the metrics of a registry, to a text endpoint, the logs, an
+ * analytics service...
+ *
+ * @author Rufen Khokhar
+ */
+public interface MetricsExporter {
+
+    /**
+     * This method is called with the registry to export.
+     *
+     * @param registry The registry.
+     * @throws IOException If the metrics can't be written.
+     */
+    void export(MetricsRegistry registry) throws IOException;
+}
@@ -0,0 +1,95 @@
+package com.rkgroup.videoconverter.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A registry of named metrics. The library records its metrics in the
+ * {@link #getDefault() default} registry, read by the exporters.
+ * <p>
+ * The metrics are created once and kept by their users: the registry is only
+ * locked when a metric is created or listed, never when it is updated.
+ *
+ * @author Rufen Khokhar
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final LinkedHashMap<String, Metric> metrics = new LinkedHashMap<>();
+
+    /**
+     * @return The registry of the library metrics.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param name The name of the counter, ending with _total.
+     * @param help The description.
+     * @return The counter of this name, created if needed.
+     */
+    public Counter counter(String name, String help) {
+        synchronized (metrics) {
+            Metric metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Counter(name, help);
+                metrics.put(name, metric);
+            }
+            return cast(metric, Counter.class);
+        }
+    }
+
+    /**
+     * @param name The name of the gauge.
+     * @param help The description.
+     * @return The gauge of this name, created if needed.
+     */
+    public Gauge gauge(String name, String help) {
+        synchronized (metrics) {
+            Metric metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Gauge(name, help);
+                metrics.put(name, metric);
+            }
+            return cast(metric, Gauge.class);
+        }
+    }
+
+    /**
+     * @param name   The name of the histogram.
+     * @param help   The description.
+     * @param bounds The upper bounds of the buckets, ignored if the
+     *               histogram exists.
+     * @return The histogram of this name, created if needed.
+     */
+    public Histogram histogram(String name, String help, double... bounds) {
+        synchronized (metrics) {
+            Metric metric = metrics.get(name);
+            if (metric == null) {
+                metric = new Histogram(name, help, bounds);
+                metrics.put(name, metric);
+            }
+            return cast(metric, Histogram.class);
+        }
+    }
+
+    /**
+     * @return The metrics, in creation order.
+     */
+    public List<Metric> getMetrics() {
+        synchronized (metrics) {
+            return new ArrayList<>(metrics.values());
+        }
+    }
+
+    private static <T extends Metric> T cast(Metric metric, Class<T> type) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(metric.getName() + " is a "
+                    + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
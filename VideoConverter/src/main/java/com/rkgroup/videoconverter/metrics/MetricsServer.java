@@ -0,0 +1,123 @@
+package com.rkgroup.videoconverter.metrics;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A minimal HTTP endpoint serving the metrics of a registry in the text
+ * format, on any path: curl http://127.0.0.1:port/metrics. It listens on the
+ * loopback interface only, adb forward (adb forward tcp:9400 tcp:9400) makes
+ * it reachable from a workstation.
+ * <p>
+ * The application needs the INTERNET permission to open the socket.
+ *
+ * @author Rufen Khokhar
+ */
+public class MetricsServer {
+    private static final String TAG = "MetricsServer";
+
+    /**
+     * The bytes of a request read at most, the request is not parsed.
+     */
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+
+    private final MetricsRegistry registry;
+    private final int port;
+    private ServerSocket serverSocket;
+
+    /**
+     * @param registry The registry to serve.
+     * @param port     The port, 0 for any free port.
+     */
+    public MetricsServer(MetricsRegistry registry, int port) {
+        this.registry = registry;
+        this.port = port;
+    }
+
+    /**
+     * Starts to serve the metrics, on a daemon thread.
+     *
+     * @throws IOException If the port can't be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        final ServerSocket socket = new ServerSocket(port, 4, InetAddress.getByName("127.0.0.1"));
+        serverSocket = socket;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve(socket);
+            }
+        }, "MetricsServer");
+        thread.setDaemon(true);
+        thread.start();
+        Log.d(TAG, "serving metrics on 127.0.0.1:" + socket.getLocalPort());
+    }
+
+    /**
+     * Stops to serve the metrics.
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.w(TAG, "error while closing the server socket", e);
+        }
+        serverSocket = null;
+    }
+
+    /**
+     * @return The port served, -1 if not started.
+     */
+    public synchronized int getLocalPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    private void serve(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                try {
+                    respond(client);
+                } finally {
+                    client.close();
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    Log.w(TAG, "error while serving metrics", e);
+                }
+            }
+        }
+    }
+
+    private void respond(Socket client) throws IOException {
+        client.setSoTimeout(5000);
+        InputStream input = client.getInputStream();
+        // Reads up to the end of the request headers
+        int matched = 0;
+        int read = 0;
+        int c;
+        while (matched < 4 && read++ < MAX_REQUEST_SIZE && (c = input.read()) >= 0) {
+            matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : (c == '\r' ? 1 : 0);
+        }
+        byte[] body = TextExporter.format(registry).getBytes("UTF-8");
+        OutputStream output = client.getOutputStream();
+        output.write(("HTTP/1.0 200 OK\r\n"
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+        output.write(body);
+        output.flush();
+    }
+}
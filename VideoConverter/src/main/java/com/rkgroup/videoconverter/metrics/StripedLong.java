@@ -0,0 +1,61 @@
+package com.rkgroup.videoconverter.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A package-private long sum spread over several cells, picked by thread, so
+ * concurrent updates rarely contend on the same cache line. The sum is read
+ * by adding the cells: a read racing with updates is not a snapshot.
+ * <p>
+ * LongAdder does the same, but is only available from API 24.
+ *
+ * @author Rufen Khokhar
+ */
+final class StripedLong {
+
+    /**
+     * The longs between two cells, a cache line of 64 bytes.
+     */
+    static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedLong() {
+        int stripes = getStripeCount();
+        cells = new AtomicLongArray(stripes * PADDING);
+        mask = stripes - 1;
+    }
+
+    void add(long delta) {
+        cells.addAndGet(getStripe(mask) * PADDING, delta);
+    }
+
+    /**
+     * @return The number of stripes, a power of 2, twice the processors.
+     */
+    static int getStripeCount() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * @param mask The number of stripes minus 1.
+     * @return The stripe of the current thread.
+     */
+    static int getStripe(int mask) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
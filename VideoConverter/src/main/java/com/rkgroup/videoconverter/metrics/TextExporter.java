@@ -0,0 +1,68 @@
+package com.rkgroup.videoconverter.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Exports the metrics in the Prometheus text format, readable as is:
+ * <pre>
+ * # HELP videoconverter_jobs_started_total Encodings started
+ * # TYPE videoconverter_jobs_started_total counter
+ * videoconverter_jobs_started_total 12
+ * </pre>
+ *
+ * @author Rufen Khokhar
+ */
+public class TextExporter implements MetricsExporter {
+
+    private final Writer writer;
+
+    /**
+     * @param writer The destination of the metrics, flushed after every
+     *               export.
+     */
+    public TextExporter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void export(MetricsRegistry registry) throws IOException {
+        writer.write(format(registry));
+        writer.flush();
+    }
+
+    /**
+     * @param registry The registry.
+     * @return The metrics of the registry in the text format.
+     */
+    public static String format(MetricsRegistry registry) {
+        StringBuilder sb = new StringBuilder();
+        for (Metric metric : registry.getMetrics()) {
+            String name = metric.getName();
+            sb.append("# HELP ").append(name).append(' ').append(metric.getHelp()).append('\n');
+            if (metric instanceof Counter) {
+                sb.append("# TYPE ").append(name).append(" counter\n");
+                sb.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+            } else if (metric instanceof Gauge) {
+                sb.append("# TYPE ").append(name).append(" gauge\n");
+                sb.append(name).append(' ').append(((Gauge) metric).get()).append('\n');
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                sb.append("# TYPE ").append(name).append(" histogram\n");
+                double[] bounds = histogram.getBounds();
+                long[] counts = histogram.getBucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    sb.append(name).append("_bucket{le=\"")
+                            .append(i < bounds.length ? Double.toString(bounds[i]) : "+Inf")
+                            .append("\"} ").append(cumulative).append('\n');
+                }
+                // The count of the buckets, read once, is consistent with them
+                sb.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+                sb.append(name).append("_count ").append(cumulative).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.rkgroup.videoconverter.tracing;
+
+import android.os.Trace;
+
+/**
+ * A tracer writing the phases as trace sections (android.os.Trace), shown in
+ * a Perfetto or systrace capture of the application: the sections of a
+ * conversion are nested under its encode section, on the thread running it.
+ *
+ * @author Rufen Khokhar
+ */
+public class AndroidTracer implements Tracer {
+
+    private static final Span END_SECTION = new Span() {
+        @Override
+        public void end() {
+            Trace.endSection();
+        }
+    };
+
+    @Override
+    public Span begin(String name) {
+        Trace.beginSection(name);
+        return END_SECTION;
+    }
+}
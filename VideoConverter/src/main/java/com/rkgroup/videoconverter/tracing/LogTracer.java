@@ -0,0 +1,28 @@
+package com.rkgroup.videoconverter.tracing;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * A tracer logging the duration of every phase, measured with the monotonic
+ * clock, like "encode.first_frame 412.305 ms".
+ *
+ * @author Rufen Khokhar
+ */
+public class LogTracer implements Tracer {
+    private static final String TAG = "LogTracer";
+
+    @Override
+    public Span begin(final String name) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        return new Span() {
+            @Override
+            public void end() {
+                Log.d(TAG, String.format(Locale.US, "%s %.3f ms [%s]", name,
+                        (SystemClock.elapsedRealtimeNanos() - start) / 1e6, Thread.currentThread().getName()));
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package com.rkgroup.videoconverter.tracing;
+
+/**
+ * A phase of a conversion, begun by a {@link Tracer}.
+ *
+ * @author Rufen Khokhar
+ */
+public interface Span {
+
+    /**
+     * This method is called when the phase is over, on the thread which
+     * began it. The spans of a thread end in the reverse order they began.
+     */
+    void end();
+}
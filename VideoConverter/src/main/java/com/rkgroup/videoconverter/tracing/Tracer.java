@@ -0,0 +1,20 @@
+package com.rkgroup.videoconverter.tracing;
+
+/**
+ * Tracer interface. Instances of implementing classes receive the phases of
+ * the conversions: probe, process spawn, input opening, first frame,
+ * encoding and finalization. The tracer in use is set with
+ * {@link Tracing#setTracer(Tracer)}.
+ *
+ * @author Rufen Khokhar
+ */
+public interface Tracer {
+
+    /**
+     * This method is called when a phase begins.
+     *
+     * @param name The name of the phase, like encode.first_frame.
+     * @return The span, ended when the phase is over.
+     */
+    Span begin(String name);
+}
@@ -0,0 +1,66 @@
+package com.rkgroup.videoconverter.tracing;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The tracer of the library. The default tracer does nothing and allocates
+ * nothing: the cost of a disabled trace is a field read and a call.
+ *
+ * @author Rufen Khokhar
+ */
+public final class Tracing {
+
+    /**
+     * The span of the disabled tracer.
+     */
+    private static final Span NO_SPAN = new Span() {
+        @Override
+        public void end() {
+        }
+    };
+
+    /**
+     * The disabled tracer.
+     */
+    public static final Tracer NONE = new Tracer() {
+        @Override
+        public Span begin(String name) {
+            return NO_SPAN;
+        }
+    };
+
+    private static volatile Tracer tracer = NONE;
+
+    private Tracing() {
+    }
+
+    /**
+     * @return the tracer
+     */
+    @NonNull
+    public static Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets the tracer of the conversions, like an {@link AndroidTracer} to
+     * see the phases in a Perfetto or systrace capture, or a
+     * {@link LogTracer}.
+     *
+     * @param tracer the tracer to set, {@link #NONE} to disable the traces
+     */
+    public static void setTracer(@NonNull Tracer tracer) {
+        Tracing.tracer = tracer;
+    }
+
+    /**
+     * Begins a phase with the tracer in use.
+     *
+     * @param name The name of the phase.
+     * @return The span, to be ended when the phase is over.
+     */
+    @NonNull
+    public static Span begin(String name) {
+        return tracer.begin(name);
+    }
+}
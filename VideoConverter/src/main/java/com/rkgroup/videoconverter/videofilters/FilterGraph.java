@@ -0,0 +1,247 @@
+package com.rkgroup.videoconverter.videofilters;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable ffmpeg filter graph: chains of {@link FilterNode}s connected
+ * through labelled pads. All the filters are composed in a single expression,
+ * usable with -vf (one input, one output) or -filter_complex.
+ * <p>
+ * [0:v]scale=1280:720,drawtext=...[v0];[1:v]scale=1280:720[v1];[v0][v1]concat=n=2[outv]
+ * <p>
+ * The expression is rendered once, when the graph is built.
+ *
+ * @author Rufen Khokhar
+ */
+public final class FilterGraph {
+
+    private final List<Chain> chains;
+    private final String expression;
+
+    private FilterGraph(List<Chain> chains) {
+        this.chains = Collections.unmodifiableList(chains);
+        StringBuilder sb = new StringBuilder();
+        int[] labels = {0};
+        for (int i = 0; i < chains.size(); i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            chains.get(i).render(sb, labels);
+        }
+        this.expression = sb.toString();
+    }
+
+    /**
+     * @return the chains of the graph
+     */
+    public List<Chain> getChains() {
+        return chains;
+    }
+
+    /**
+     * @return true if the graph has no filter
+     */
+    public boolean isEmpty() {
+        for (Chain chain : chains) {
+            if (!chain.getNodes().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the graph expression, for -vf or -filter_complex
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * An immutable linear chain of filters, with optional labelled input and
+     * output pads.
+     */
+    public static final class Chain {
+        private final List<String> inputs;
+        private final List<FilterNode> nodes;
+        private final List<String> outputs;
+
+        /**
+         * @param inputs  The input pad labels, like "0:v" or "v0".
+         * @param nodes   The filters of the chain, in order.
+         * @param outputs The output pad labels.
+         */
+        public Chain(List<String> inputs, List<FilterNode> nodes, List<String> outputs) {
+            this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+            this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+            this.outputs = Collections.unmodifiableList(new ArrayList<>(outputs));
+        }
+
+        /**
+         * @param nodes The filters of the chain, in order.
+         */
+        public Chain(List<FilterNode> nodes) {
+            this(Collections.<String>emptyList(), nodes, Collections.<String>emptyList());
+        }
+
+        public List<String> getInputs() {
+            return inputs;
+        }
+
+        public List<FilterNode> getNodes() {
+            return nodes;
+        }
+
+        public List<String> getOutputs() {
+            return outputs;
+        }
+
+        /**
+         * @param sb     The builder receiving the expression.
+         * @param labels The count of the pads labelled while rendering, to
+         *               keep the labels unique in the graph.
+         */
+        void render(StringBuilder sb, int[] labels) {
+            for (String input : inputs) {
+                sb.append('[').append(input).append(']');
+            }
+            if (nodes.isEmpty()) {
+                // Pass through
+                sb.append("null");
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                FilterNode node = nodes.get(i);
+                FilterNode secondaryInput = node.getSecondaryInput();
+                if (secondaryInput != null) {
+                    // Split the chain to connect the second input:
+                    // ...[ovm0];movie=logo.png[ovi0];[ovm0][ovi0]overlay=...,...
+                    int label = labels[0]++;
+                    if (i == 0) {
+                        sb.append("null");
+                    }
+                    sb.append("[ovm").append(label).append("];");
+                    secondaryInput.render(sb);
+                    sb.append("[ovi").append(label).append("];[ovm").append(label)
+                            .append("][ovi").append(label).append(']');
+                } else if (i > 0) {
+                    sb.append(',');
+                }
+                node.render(sb);
+            }
+            for (String output : outputs) {
+                sb.append('[').append(output).append(']');
+            }
+        }
+    }
+
+    /**
+     * Builder of filter graphs. Filters added without a chain are appended to
+     * the current chain; {@link Builder#chain(String...)} starts a new chain
+     * reading the given pads.
+     */
+    public static class Builder {
+        private final ArrayList<Chain> chains = new ArrayList<>();
+        private ArrayList<String> inputs = new ArrayList<>();
+        private ArrayList<FilterNode> nodes = new ArrayList<>();
+        private boolean open = false;
+
+        /**
+         * Starts a new chain, closing the current one without output pads.
+         *
+         * @param inputs The input pad labels of the new chain.
+         * @return this instance
+         */
+        public Builder chain(String... inputs) {
+            if (open) {
+                output();
+            }
+            Collections.addAll(this.inputs, inputs);
+            open = true;
+            return this;
+        }
+
+        /**
+         * Appends a filter to the current chain.
+         *
+         * @param node The filter.
+         * @return this instance
+         */
+        public Builder addNode(@NonNull FilterNode node) {
+            nodes.add(node);
+            open = true;
+            return this;
+        }
+
+        /**
+         * Appends a filter to the current chain, with the filter current
+         * expression.
+         *
+         * @param filter The filter.
+         * @return this instance
+         */
+        public Builder addFilter(@NonNull VideoFilter filter) {
+            return addNode(FilterNode.of(filter));
+        }
+
+        /**
+         * Appends all the filters to the current chain, in order.
+         *
+         * @param filters The filters.
+         * @return this instance
+         */
+        public Builder addFilters(@NonNull List<? extends VideoFilter> filters) {
+            for (VideoFilter filter : filters) {
+                addFilter(filter);
+            }
+            return this;
+        }
+
+        /**
+         * Closes the current chain on the given output pads.
+         *
+         * @param outputs The output pad labels.
+         * @return this instance
+         */
+        public Builder output(String... outputs) {
+            List<String> labels = new ArrayList<>();
+            Collections.addAll(labels, outputs);
+            chains.add(new Chain(inputs, nodes, labels));
+            inputs = new ArrayList<>();
+            nodes = new ArrayList<>();
+            open = false;
+            return this;
+        }
+
+        /**
+         * Appends an already built chain.
+         *
+         * @param chain The chain.
+         * @return this instance
+         */
+        public Builder addChain(@NonNull Chain chain) {
+            if (open) {
+                output();
+            }
+            chains.add(chain);
+            return this;
+        }
+
+        public FilterGraph build() {
+            ArrayList<Chain> result = new ArrayList<>(chains);
+            if (open) {
+                result.add(new Chain(inputs, nodes, Collections.<String>emptyList()));
+            }
+            return new FilterGraph(result);
+        }
+    }
+}
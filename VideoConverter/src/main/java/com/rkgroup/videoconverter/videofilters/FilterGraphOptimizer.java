@@ -0,0 +1,469 @@
+package com.rkgroup.videoconverter.videofilters;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.rkgroup.videoconverter.VideoSize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reorders the filters of a {@link FilterGraph} to lower its cost: filters
+ * reducing the resolution (scale, crop) or dropping frames (fps) are moved
+ * ahead of the per pixel filters (drawtext, overlay), so the text and the
+ * overlays are drawn on fewer, smaller frames.
+ * <p>
+ * drawtext=...:fontsize=48,scale=1280:720 -&gt; scale=1280:720,drawtext=...:fontsize=16.0
+ * <p>
+ * A filter is moved only when the output is unchanged: {@link VideoDrawText}
+ * positions, font size and borders are scaled or translated to match, and
+ * filters which can't be adjusted (raw drawtext expressions, raw overlays for
+ * scale and crop, time dependent text for fps) stop the move.
+ *
+ * @author Rufen Khokhar
+ */
+public final class FilterGraphOptimizer {
+    private static final String TAG = "FilterGraphOptimizer";
+
+    private FilterGraphOptimizer() {
+    }
+
+    /**
+     * Optimizes the chains of a graph reading the source stream, the chains
+     * with labelled inputs are kept as they are.
+     *
+     * @param graph     The graph to optimize.
+     * @param inputSize The size of the source frames, null if unknown.
+     * @param frameRate The frame rate of the source, 0 or less if unknown.
+     * @return the optimized graph, or the same graph if no filter was moved
+     */
+    public static FilterGraph optimize(@NonNull FilterGraph graph, VideoSize inputSize, float frameRate) {
+        boolean changed = false;
+        FilterGraph.Builder builder = new FilterGraph.Builder();
+        for (FilterGraph.Chain chain : graph.getChains()) {
+            if (!chain.getInputs().isEmpty()) {
+                builder.addChain(chain);
+                continue;
+            }
+            List<FilterNode> nodes = optimize(chain.getNodes(), new State(inputSize, frameRate));
+            if (nodes == null) {
+                builder.addChain(chain);
+            } else {
+                builder.addChain(new FilterGraph.Chain(chain.getInputs(), nodes, chain.getOutputs()));
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return graph;
+        }
+        FilterGraph optimized = builder.build();
+        Log.d(TAG, "Filter graph before: " + graph.getExpression());
+        Log.d(TAG, "Filter graph after: " + optimized.getExpression());
+        return optimized;
+    }
+
+    /**
+     * Computes the size of the frames entering a filter of a chain reading
+     * the source stream.
+     *
+     * @param chain     The chain.
+     * @param index     The index of the filter in the chain.
+     * @param inputSize The size of the source frames, null if unknown.
+     * @return the frame size, null if unknown
+     */
+    public static VideoSize frameSizeAt(@NonNull FilterGraph.Chain chain, int index, VideoSize inputSize) {
+        return stateBefore(chain.getNodes(), index, new State(inputSize, 0)).size;
+    }
+
+    /**
+     * @return the reordered nodes, or null if no node was moved
+     */
+    private static List<FilterNode> optimize(List<FilterNode> chain, State input) {
+        ArrayList<FilterNode> nodes = new ArrayList<>(chain);
+        boolean changed = false;
+        for (int i = 1; i < nodes.size(); i++) {
+            FilterNode reducer = nodes.get(i);
+            State state = stateBefore(nodes, i, input);
+            State reduced = apply(reducer, state);
+            Kind kind = kindOf(reducer);
+            if (!isReducing(kind, state, reduced)) {
+                continue;
+            }
+            int j = i;
+            while (j > 0) {
+                // Per pixel filters keep the frame size and rate, the state
+                // before them is the state before the reducer
+                FilterNode moved = moveAhead(kind, reducer, nodes.get(j - 1), state, reduced);
+                if (moved == null) {
+                    break;
+                }
+                nodes.set(j, moved);
+                nodes.set(j - 1, reducer);
+                j--;
+                changed = true;
+            }
+        }
+        return changed ? nodes : null;
+    }
+
+    private static boolean isReducing(Kind kind, State before, State after) {
+        switch (kind) {
+            case SCALE:
+                return before.size != null && after.size != null
+                        && (long) after.size.getWidth() * after.size.getHeight()
+                        < (long) before.size.getWidth() * before.size.getHeight();
+            case CROP:
+                return after.size != null
+                        && (before.size == null
+                        || (long) after.size.getWidth() * after.size.getHeight()
+                        < (long) before.size.getWidth() * before.size.getHeight());
+            case FPS:
+                return before.frameRate > 0 && after.frameRate > 0
+                        && after.frameRate < before.frameRate;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Moves a reducing filter ahead of a per pixel filter.
+     *
+     * @return the per pixel filter adjusted to run after the reducer, or null
+     * if the move would change the output
+     */
+    private static FilterNode moveAhead(Kind kind, FilterNode reducer, FilterNode previous,
+                                        State before, State after) {
+        Kind previousKind = kindOf(previous);
+        if (previousKind == Kind.IMAGE) {
+            // Sized and placed relative to the frames, prepared once the
+            // frame size at its new place is known
+            return kind == Kind.CROP ? null : previous;
+        }
+        if (previousKind == Kind.OVERLAY) {
+            // The overlay input can't be adjusted, only frames can be dropped
+            return kind == Kind.FPS && !isTimeDependent(previous) ? previous : null;
+        }
+        if (previousKind != Kind.DRAWTEXT || !(previous.getSource() instanceof VideoDrawText)) {
+            return null;
+        }
+        VideoDrawText text = (VideoDrawText) previous.getSource();
+        if (text.getAddArgument() != null) {
+            // Free expressions, in pixels of the source frames
+            return null;
+        }
+        boolean positioned = text.getPosX() != -1 && text.getPosY() != -1;
+        switch (kind) {
+            case FPS: {
+                return text.getWatermarkText().contains("%{") ? null : previous;
+            }
+            case SCALE: {
+                double fx = (double) after.size.getWidth() / before.size.getWidth();
+                double fy = (double) after.size.getHeight() / before.size.getHeight();
+                VideoDrawText scaled = text.copy();
+                if (positioned) {
+                    scaled.setPosX((int) Math.round(text.getPosX() * fx));
+                    scaled.setPosY((int) Math.round(text.getPosY() * fy));
+                }
+                scaled.setFontSize((float) (text.getFontSize() * fy));
+                scaled.setLineSpacing((int) Math.round(text.getLineSpacing() * fy));
+                scaled.setShadowX((int) Math.round(text.getShadowX() * fx));
+                scaled.setShadowY((int) Math.round(text.getShadowY() * fy));
+                scaled.setBoxBorderWidth((int) Math.round(text.getBoxBorderWidth() * fy));
+                if (text.getBorderWidth() != 0) {
+                    scaled.setBorderWidth(Math.max(1, (int) Math.round(text.getBorderWidth() * fy)));
+                }
+                return FilterNode.of(scaled);
+            }
+            case CROP: {
+                int[] origin = cropOrigin(reducer, before.size, after.size);
+                if (origin == null) {
+                    return null;
+                }
+                int x = (positioned ? text.getPosX() : 0) - origin[0];
+                int y = (positioned ? text.getPosY() : 0) - origin[1];
+                if (x < 0 || y < 0) {
+                    // Negative positions are not supported by VideoDrawText
+                    return null;
+                }
+                if (x == 0 && y == 0 && !positioned) {
+                    return previous;
+                }
+                VideoDrawText translated = text.copy();
+                translated.setPosX(x);
+                translated.setPosY(y);
+                return FilterNode.of(translated);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isTimeDependent(FilterNode node) {
+        String expression = node.getExpression();
+        return expression != null && (expression.contains("enable") || expression.contains("%{"));
+    }
+
+    /**
+     * @return the frame size and rate entering the node at the given index
+     */
+    private static State stateBefore(List<FilterNode> nodes, int index, State input) {
+        State state = input;
+        for (int i = 0; i < index; i++) {
+            state = apply(nodes.get(i), state);
+        }
+        return state;
+    }
+
+    /**
+     * @return the frame size and rate leaving the node
+     */
+    private static State apply(FilterNode node, State state) {
+        List<String[]> options = optionsOf(node);
+        switch (kindOf(node)) {
+            case DRAWTEXT:
+            case OVERLAY:
+            case IMAGE:
+                return state;
+            case SCALE:
+                return new State(scaleSize(options, state.size), state.frameRate);
+            case CROP: {
+                int[] size = cropSize(options);
+                return new State(size == null ? null : new VideoSize(size[0], size[1]), state.frameRate);
+            }
+            case FPS:
+                return new State(state.size, fpsRate(options));
+            default:
+                // Unknown filters may change anything
+                return new State(null, 0);
+        }
+    }
+
+    private static VideoSize scaleSize(List<String[]> options, VideoSize input) {
+        if (options == null) {
+            return null;
+        }
+        Integer width = null;
+        Integer height = null;
+        for (int i = 0; i < options.size(); i++) {
+            String[] option = options.get(i);
+            String name = option[0];
+            if (name == null ? i == 0 : "w".equals(name) || "width".equals(name)) {
+                width = parseInt(option[1]);
+            } else if (name == null ? i == 1 : "h".equals(name) || "height".equals(name)) {
+                height = parseInt(option[1]);
+            } else if ("force_original_aspect_ratio".equals(name)) {
+                return null;
+            }
+        }
+        if (width == null || height == null) {
+            return null;
+        }
+        if (width == 0 || height == 0) {
+            // 0 keeps the input dimension
+            if (input == null) {
+                return null;
+            }
+            width = width == 0 ? input.getWidth() : width;
+            height = height == 0 ? input.getHeight() : height;
+        }
+        if (width < 0 && height < 0) {
+            return input;
+        }
+        if (width < 0 || height < 0) {
+            if (input == null) {
+                return null;
+            }
+            // -1 keeps the aspect ratio, -n also rounds to a multiple of n
+            if (width < 0) {
+                width = round((double) height * input.getWidth() / input.getHeight(), -width);
+            } else {
+                height = round((double) width * input.getHeight() / input.getWidth(), -height);
+            }
+        }
+        return new VideoSize(width, height);
+    }
+
+    private static int round(double value, int multiple) {
+        return (int) Math.round(value / multiple) * multiple;
+    }
+
+    /**
+     * @return the width and height of a crop, null if they are not constants
+     */
+    private static int[] cropSize(List<String[]> options) {
+        if (options == null) {
+            return null;
+        }
+        Integer width = null;
+        Integer height = null;
+        for (int i = 0; i < options.size(); i++) {
+            String[] option = options.get(i);
+            String name = option[0];
+            if (name == null ? i == 0 : "w".equals(name) || "out_w".equals(name)) {
+                width = parseInt(option[1]);
+            } else if (name == null ? i == 1 : "h".equals(name) || "out_h".equals(name)) {
+                height = parseInt(option[1]);
+            }
+        }
+        if (width == null || height == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        return new int[]{width, height};
+    }
+
+    /**
+     * @return the top left corner of a crop, null if it is not a constant
+     */
+    private static int[] cropOrigin(FilterNode crop, VideoSize input, VideoSize output) {
+        List<String[]> options = optionsOf(crop);
+        if (options == null) {
+            return null;
+        }
+        String x = null;
+        String y = null;
+        for (int i = 0; i < options.size(); i++) {
+            String[] option = options.get(i);
+            String name = option[0];
+            if (name == null ? i == 2 : "x".equals(name)) {
+                x = option[1];
+            } else if (name == null ? i == 3 : "y".equals(name)) {
+                y = option[1];
+            } else if (name != null && !"w".equals(name) && !"out_w".equals(name)
+                    && !"h".equals(name) && !"out_h".equals(name)) {
+                // keep_aspect, exact
+                return null;
+            }
+        }
+        Integer originX;
+        Integer originY;
+        if (x == null || y == null) {
+            if (input == null) {
+                return null;
+            }
+            // Centered by default
+            originX = x == null ? (input.getWidth() - output.getWidth()) / 2 : parseInt(x);
+            originY = y == null ? (input.getHeight() - output.getHeight()) / 2 : parseInt(y);
+        } else {
+            originX = parseInt(x);
+            originY = parseInt(y);
+        }
+        if (originX == null || originY == null) {
+            return null;
+        }
+        return new int[]{originX, originY};
+    }
+
+    private static float fpsRate(List<String[]> options) {
+        if (options == null || options.size() != 1) {
+            // rounding or start time options
+            return 0;
+        }
+        String[] option = options.get(0);
+        if (option[0] != null && !"fps".equals(option[0])) {
+            return 0;
+        }
+        String value = option[1];
+        try {
+            int slash = value.indexOf('/');
+            if (slash > 0) {
+                return Float.parseFloat(value.substring(0, slash))
+                        / Float.parseFloat(value.substring(slash + 1));
+            }
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            // Named rates, like ntsc
+            return 0;
+        }
+    }
+
+    private static Integer parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the options of a node as (name, value) pairs, a null name for
+     * positional options, or null if the options can't be parsed
+     */
+    private static List<String[]> optionsOf(FilterNode node) {
+        ArrayList<String[]> options = new ArrayList<>();
+        String expression = node.getExpression();
+        if (expression == null) {
+            for (int i = 0; i < node.getOptionValues().size(); i++) {
+                options.add(new String[]{node.getOptionNames().get(i), node.getOptionValues().get(i)});
+            }
+            return options;
+        }
+        if (isCompound(expression) || expression.indexOf('\\') >= 0 || expression.indexOf('\'') >= 0) {
+            return null;
+        }
+        int equals = expression.indexOf('=');
+        if (equals < 0) {
+            return options;
+        }
+        for (String option : expression.substring(equals + 1).split(":")) {
+            int separator = option.indexOf('=');
+            if (separator < 0) {
+                options.add(new String[]{null, option});
+            } else {
+                options.add(new String[]{option.substring(0, separator), option.substring(separator + 1)});
+            }
+        }
+        return options;
+    }
+
+    private static boolean isCompound(String expression) {
+        return expression.indexOf(';') >= 0 || expression.indexOf('[') >= 0
+                || expression.indexOf(',') >= 0;
+    }
+
+    private static Kind kindOf(FilterNode node) {
+        if (node.getSource() instanceof VideoDrawText) {
+            return Kind.DRAWTEXT;
+        }
+        if (node.getSource() instanceof VideoOverlayImage) {
+            return Kind.IMAGE;
+        }
+        String expression = node.getExpression();
+        if (expression != null && isCompound(expression)) {
+            // A movie source overlaid on the stream is still a per pixel filter
+            return expression.contains("overlay") ? Kind.OVERLAY : Kind.OTHER;
+        }
+        switch (node.getName()) {
+            case "scale":
+                return Kind.SCALE;
+            case "crop":
+                return Kind.CROP;
+            case "fps":
+                return Kind.FPS;
+            case "drawtext":
+                return Kind.DRAWTEXT;
+            case "overlay":
+                return Kind.OVERLAY;
+            default:
+                return Kind.OTHER;
+        }
+    }
+
+    private enum Kind {
+        SCALE, CROP, FPS, DRAWTEXT, OVERLAY, IMAGE, OTHER
+    }
+
+    /**
+     * The frame size and rate at a point of a chain.
+     */
+    private static class State {
+        private final VideoSize size;
+        private final float frameRate;
+
+        State(VideoSize size, float frameRate) {
+            this.size = size;
+            this.frameRate = frameRate;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.rkgroup.videoconverter.videofilters;
+
+import androidx.annotation.NonNull;
+
+import com.rkgroup.videoconverter.Utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable filter of a {@link FilterGraph}: a filter name with its
+ * options, or the expression of a {@link VideoFilter}.
+ * <p>
+ * scale=w=1280:h=720
+ *
+ * @author Rufen Khokhar
+ */
+public final class FilterNode {
+
+    private final String name;
+    private final List<String> optionNames;
+    private final List<String> optionValues;
+
+    /**
+     * The filter this node was built from, null for named filters.
+     */
+    private final VideoFilter source;
+
+    /**
+     * The expression of the filter this node was built from, taken when the
+     * node was built.
+     */
+    private final String expression;
+
+    /**
+     * The source filter feeding the second input of this filter, like the
+     * image of an overlay, null for single input filters.
+     */
+    private final FilterNode secondaryInput;
+
+    private FilterNode(String name, List<String> optionNames, List<String> optionValues,
+                       VideoFilter source, String expression, FilterNode secondaryInput) {
+        this.name = name;
+        this.optionNames = Collections.unmodifiableList(optionNames);
+        this.optionValues = Collections.unmodifiableList(optionValues);
+        this.source = source;
+        this.expression = expression;
+        this.secondaryInput = secondaryInput;
+    }
+
+    /**
+     * Builds a node from the current expression of a filter.
+     *
+     * @param filter The filter.
+     * @return the node
+     */
+    public static FilterNode of(@NonNull VideoFilter filter) {
+        if (filter instanceof VideoOverlayImage) {
+            VideoOverlayImage overlay = (VideoOverlayImage) filter;
+            return new FilterNode("overlay", new ArrayList<String>(), new ArrayList<String>(),
+                    filter, overlay.getOverlayExpression(), overlay.getImageSource());
+        }
+        String expression = filter.getExpression();
+        int equals = expression.indexOf('=');
+        String name = equals > 0 ? expression.substring(0, equals) : expression;
+        return new FilterNode(name.trim(), new ArrayList<String>(), new ArrayList<String>(),
+                filter, expression, null);
+    }
+
+    /**
+     * Builds the node of an overlay reading the given image.
+     *
+     * @param overlay The overlay.
+     * @param image   The image overlaid, like a rendition returned by
+     *                {@link VideoOverlayImage#prepare(com.rkgroup.videoconverter.VideoSize)}.
+     * @return the node
+     */
+    public static FilterNode of(@NonNull VideoOverlayImage overlay, @NonNull File image) {
+        return new FilterNode("overlay", new ArrayList<String>(), new ArrayList<String>(),
+                overlay, overlay.getOverlayExpression(), overlay.getImageSource(image));
+    }
+
+    /**
+     * @return the filter name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the filter this node was built from, null for named filters
+     */
+    public VideoFilter getSource() {
+        return source;
+    }
+
+    /**
+     * @param optionName The option name.
+     * @return The option value, or null if the option is not set.
+     */
+    public String getOption(String optionName) {
+        int index = optionNames.indexOf(optionName);
+        return index >= 0 ? optionValues.get(index) : null;
+    }
+
+    /**
+     * @return the option names, null for positional options
+     */
+    public List<String> getOptionNames() {
+        return optionNames;
+    }
+
+    /**
+     * @return the option values
+     */
+    public List<String> getOptionValues() {
+        return optionValues;
+    }
+
+    /**
+     * @return the expression of the filter this node was built from, null
+     * for named filters
+     */
+    String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the source filter feeding the second input of this filter, null
+     * for single input filters
+     */
+    FilterNode getSecondaryInput() {
+        return secondaryInput;
+    }
+
+    /**
+     * Appends the filter expression, option values escaped.
+     *
+     * @param sb The builder receiving the expression.
+     */
+    void render(StringBuilder sb) {
+        if (expression != null) {
+            sb.append(expression);
+            return;
+        }
+        sb.append(name);
+        for (int i = 0; i < optionValues.size(); i++) {
+            sb.append(i == 0 ? '=' : ':');
+            if (optionNames.get(i) != null) {
+                sb.append(optionNames.get(i)).append('=');
+            }
+            Utils.escapeArgument(sb, optionValues.get(i));
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        render(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Builder of named filter nodes.
+     */
+    public static class Builder {
+        private final String name;
+        private final ArrayList<String> optionNames = new ArrayList<>();
+        private final ArrayList<String> optionValues = new ArrayList<>();
+
+        /**
+         * @param name The filter name, like "scale" or "fps".
+         */
+        public Builder(@NonNull String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds a named option, the value will be escaped.
+         *
+         * @param optionName  The option name.
+         * @param optionValue The option value.
+         * @return this instance
+         */
+        public Builder option(@NonNull String optionName, @NonNull Object optionValue) {
+            optionNames.add(optionName);
+            optionValues.add(String.valueOf(optionValue));
+            return this;
+        }
+
+        /**
+         * Adds a positional option, the value will be escaped.
+         *
+         * @param optionValue The option value.
+         * @return this instance
+         */
+        public Builder option(@NonNull Object optionValue) {
+            optionNames.add(null);
+            optionValues.add(String.valueOf(optionValue));
+            return this;
+        }
+
+        public FilterNode build() {
+            return new FilterNode(name, new ArrayList<>(optionNames), new ArrayList<>(optionValues),
+                    null, null, null);
+        }
+    }
+}
@@ -372,15 +372,38 @@ public class VideoDrawText extends VideoFilter {
         return this;
     }
 
+    /**
+     * @return a copy of this filter, with the same settings
+     */
+    VideoDrawText copy() {
+        VideoDrawText copy = new VideoDrawText(watermarkText, fontColor);
+        copy.posX = posX;
+        copy.posY = posY;
+        copy.fontName = fontName;
+        copy.fontFile = fontFile;
+        copy.fontSize = fontSize;
+        copy.lineSpacing = lineSpacing;
+        copy.shadowColor = shadowColor;
+        copy.shadowX = shadowX;
+        copy.shadowY = shadowY;
+        copy.boxBorderWidth = boxBorderWidth;
+        copy.boxColor = boxColor;
+        copy.borderWidth = borderWidth;
+        copy.borderColor = borderColor;
+        copy.addArgument = addArgument;
+        return copy;
+    }
+
     @Override
     public String getExpression() {
         StringBuilder sb = new StringBuilder();
         sb.append("drawtext=text='");
-        sb.append(Utils.escapeArgument(watermarkText));
+        Utils.escapeArgument(sb, watermarkText);
+        sb.append("'");
         if (posX != -1 && posY != -1) {
-            sb.append("':x=");
+            sb.append(":x=");
             sb.append(posX);
-            sb.append("':y=");
+            sb.append(":y=");
             sb.append(posY);
         }
         if (fontName != null) {
@@ -398,11 +421,11 @@ public class VideoDrawText extends VideoFilter {
         sb.append(fontColor.getFfmpegColor());
 
         if (lineSpacing != 0) {
-            sb.append(":line_spacing:").append(lineSpacing);
+            sb.append(":line_spacing=").append(lineSpacing);
         }
 
         if (shadowColor != null) {
-            sb.append(":shadowcolor");
+            sb.append(":shadowcolor=");
             sb.append(shadowColor.getFfmpegColor());
             sb.append(":shadowx=");
             sb.append(shadowX);
@@ -410,16 +433,16 @@ public class VideoDrawText extends VideoFilter {
             sb.append(shadowY);
         }
         if (boxColor != null) {
-            sb.append(":box=1:boxcolor");
+            sb.append(":box=1:boxcolor=");
             sb.append(boxColor.getFfmpegColor());
             sb.append(":boxborderw=");
             sb.append(boxBorderWidth);
         }
         if (borderWidth != 0) {
-            sb.append(":bordercolor");
+            sb.append(":bordercolor=");
             sb.append(borderColor.getFfmpegColor());
             sb.append(":borderw=");
-            sb.append(boxBorderWidth);
+            sb.append(borderWidth);
         }
         if (addArgument != null) {
             sb.append(":");
@@ -0,0 +1,289 @@
+package com.rkgroup.videoconverter.videofilters;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.rkgroup.videoconverter.VideoSize;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Add an image watermark (a logo) in the video file
+ * <p>
+ * movie=/pathto/logo_1280x720.png[wm];[in][wm]overlay=x=(main_w-overlay_w)*0.95:y=(main_h-overlay_h)*0.95:eval=init
+ * <p>
+ * The size and the position of the image are relative to the frames it is
+ * drawn on. The image is rescaled once per frame size by
+ * {@link #prepare(VideoSize)} and the rendition is kept in a cache directory,
+ * keyed by the image content and the size, so ffmpeg overlays it without
+ * decoding and scaling the full size image on every job. Until prepared the
+ * image is overlaid at its own size.
+ *
+ * @author Rufen Khokhar
+ */
+public class VideoOverlayImage extends VideoFilter {
+    private static final String TAG = "VideoOverlayImage";
+
+    private final File image;
+    private final File cacheDirectory;
+
+    private float relativeX = 1f;
+    private float relativeY = 1f;
+    private float relativeWidth = 0.15f;
+
+    /**
+     * The image rescaled for {@link #preparedSize}, null until prepared.
+     */
+    private File prepared = null;
+    private VideoSize preparedSize = null;
+
+    /**
+     * The content hash of the image, with the length and the modification
+     * time it was computed for.
+     */
+    private String imageHash = null;
+    private long imageStamp = 0;
+
+    /**
+     * @param image          The image, any format decoded by {@link BitmapFactory}.
+     * @param cacheDirectory The directory keeping the rescaled images.
+     */
+    public VideoOverlayImage(@NonNull File image, @NonNull File cacheDirectory) {
+        this.image = image;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the image
+     */
+    public File getImage() {
+        return image;
+    }
+
+    /**
+     * @return the cacheDirectory
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Sets the position of the image, relative to the free space around it:
+     * 0 is the left (top) edge, 1 the right (bottom) edge, 0.5 the center.
+     * Default is the bottom right corner.
+     *
+     * @param relativeX The horizontal position, from 0 to 1.
+     * @param relativeY The vertical position, from 0 to 1.
+     * @return this instance
+     */
+    public VideoOverlayImage setPosition(float relativeX, float relativeY) {
+        this.relativeX = relativeX;
+        this.relativeY = relativeY;
+        return this;
+    }
+
+    /**
+     * @return the relativeX
+     */
+    public float getRelativeX() {
+        return relativeX;
+    }
+
+    /**
+     * @return the relativeY
+     */
+    public float getRelativeY() {
+        return relativeY;
+    }
+
+    /**
+     * @return the relativeWidth
+     */
+    public float getRelativeWidth() {
+        return relativeWidth;
+    }
+
+    /**
+     * Sets the width of the image relative to the frame width, the aspect
+     * ratio of the image is kept. Default is 0.15.
+     *
+     * @param relativeWidth The width, from 0 to 1, 0 or less to keep the
+     *                      image size.
+     * @return this instance
+     */
+    public VideoOverlayImage setRelativeWidth(float relativeWidth) {
+        this.relativeWidth = relativeWidth;
+        return this;
+    }
+
+    /**
+     * @return the image rescaled for the last prepared frame size, null if
+     * not prepared
+     */
+    public synchronized File getPrepared() {
+        return prepared;
+    }
+
+    /**
+     * Rescales the image for the given frame size, unless a rendition for
+     * this image content and size is already in the cache directory.
+     *
+     * @param frameSize The size of the frames the image is drawn on.
+     * @return the rescaled image
+     * @throws IOException If the image can't be read or the rendition can't
+     *                     be written.
+     */
+    @WorkerThread
+    public synchronized File prepare(@NonNull VideoSize frameSize) throws IOException {
+        if (prepared != null && prepared.isFile() && frameSize.getWidth() == preparedSize.getWidth()
+                && frameSize.getHeight() == preparedSize.getHeight()) {
+            return prepared;
+        }
+        if (relativeWidth <= 0) {
+            prepared = image;
+            preparedSize = frameSize;
+            return prepared;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unable to decode " + image);
+        }
+        int width = Math.max(1, Math.round(frameSize.getWidth() * relativeWidth));
+        int height = Math.max(1, Math.round((float) width * bounds.outHeight / bounds.outWidth));
+        File rendition = new File(cacheDirectory, hashImage() + "_" + width + "x" + height + ".png");
+        if (!rendition.isFile()) {
+            long start = System.currentTimeMillis();
+            writeRendition(bounds, width, height, rendition);
+            Log.d(TAG, String.format(Locale.US, "Rescaled %s to %dx%d in %d ms", image.getName(),
+                    width, height, System.currentTimeMillis() - start));
+        }
+        prepared = rendition;
+        preparedSize = frameSize;
+        return prepared;
+    }
+
+    private void writeRendition(BitmapFactory.Options bounds, int width, int height,
+                                File rendition) throws IOException {
+        // Decode at the smallest power of two subsampling still above the
+        // target size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (bounds.outWidth / (options.inSampleSize * 2) >= width
+                && bounds.outHeight / (options.inSampleSize * 2) >= height) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+        if (decoded == null) {
+            throw new IOException("Unable to decode " + image);
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        cacheDirectory.mkdirs();
+        // Written aside then renamed, a concurrent job never reads a partial image
+        File temp = File.createTempFile("overlay", ".tmp", cacheDirectory);
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                if (!scaled.compress(Bitmap.CompressFormat.PNG, 100, output)) {
+                    throw new IOException("Unable to encode " + rendition);
+                }
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(rendition) && !rendition.isFile()) {
+                throw new IOException("Unable to write " + rendition);
+            }
+        } finally {
+            temp.delete();
+            if (scaled != decoded) {
+                scaled.recycle();
+            }
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the image content, computed again only when the
+     * image file changes
+     */
+    private String hashImage() throws IOException {
+        long stamp = image.length() * 31 + image.lastModified();
+        if (imageHash != null && stamp == imageStamp) {
+            return imageHash;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            InputStream input = new FileInputStream(image);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format(Locale.US, "%02x", b));
+            }
+            imageHash = hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            imageHash = String.format(Locale.US, "%08x", image.getAbsolutePath().hashCode());
+        }
+        imageStamp = stamp;
+        return imageHash;
+    }
+
+    /**
+     * @return the source filter reading the image last prepared, to be
+     * connected to the second input of the overlay filter
+     */
+    public FilterNode getImageSource() {
+        File source = getPrepared();
+        return getImageSource(source != null ? source : image);
+    }
+
+    /**
+     * A job sharing this overlay with others builds its graph from the
+     * rendition {@link #prepare(VideoSize)} returned to it: the last
+     * prepared one may be for another frame size.
+     *
+     * @param source The image, or a rendition of it.
+     * @return the source filter reading this image, to be connected to the
+     * second input of the overlay filter
+     */
+    public FilterNode getImageSource(@NonNull File source) {
+        return new FilterNode.Builder("movie")
+                .option(source.getAbsolutePath())
+                .build();
+    }
+
+    /**
+     * @return the overlay filter alone, its second input is the image source
+     */
+    String getOverlayExpression() {
+        // eval=init: the position is computed once, not on every frame
+        return String.format(Locale.US,
+                "overlay=x=(main_w-overlay_w)*%s:y=(main_h-overlay_h)*%s:eval=init",
+                relativeX, relativeY);
+    }
+
+    @Override
+    public String getExpression() {
+        return getImageSource() + "[wm];[in][wm]" + getOverlayExpression();
+    }
+}
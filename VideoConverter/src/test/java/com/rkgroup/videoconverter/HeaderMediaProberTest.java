@@ -0,0 +1,299 @@
+package com.rkgroup.videoconverter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Probes small MP4, WAV and MP3 headers built by the tests with
+ * {@link HeaderMediaProber}.
+ */
+public class HeaderMediaProberTest {
+
+    /**
+     * MPEG-1 layer III, 128 kb/s, 44100 Hz, stereo: 417 bytes frames.
+     */
+    private static final int MP3_HEADER = 0xfffb9000;
+    private static final int MP3_FRAME_LENGTH = 417;
+
+    @Test
+    public void toMillis_roundsLikeFfmpeg() {
+        assertEquals(10000, HeaderMediaProber.toMillis(10004999));
+        assertEquals(10010, HeaderMediaProber.toMillis(10005000));
+        assertEquals(0, HeaderMediaProber.toMillis(4999));
+    }
+
+    @Test
+    public void probe_mp4() throws Exception {
+        byte[] ftyp = box("ftyp", new Bytes().fourcc("isom").int32(0x200).fourcc("isom").fourcc("mp41"));
+        // Media data with a 64-bit size, before the moov box
+        byte[] mdat = new Bytes().int32(1).fourcc("mdat").int64(16 + 100).zeros(100).toByteArray();
+        byte[] moov = box("moov",
+                box("mvhd", new Bytes().int32(0).int32(0).int32(0).int32(1000).int32(10005)
+                        .zeros(80)),
+                trak(3, 30000, 300300, "vide", avc1()),
+                trak(3, 44100, 441000, "soun", mp4a()));
+        MediaInfo info = probe(ftyp, mdat, moov);
+
+        assertEquals("mov", info.getFormat());
+        // 10.005 s
+        assertEquals(10010, info.getDuration());
+        assertEquals(2, info.getStreams().size());
+
+        StreamInfo video = info.getStreams().get(0);
+        assertEquals(StreamInfo.Type.VIDEO, video.getType());
+        assertEquals("h264", video.getCodec());
+        assertEquals("h264 (High) (avc1 / 0x31637661)", video.getDecoder());
+        assertEquals(1280, video.getSize().getWidth());
+        assertEquals(720, video.getSize().getHeight());
+        assertEquals(29.97f, video.getFrameRate(), 0f);
+        // 300 samples of 1000 bytes in 10.01 s
+        assertEquals(239000, video.getBitRate());
+        assertEquals("eng", video.getLanguage());
+        assertTrue(video.isDefaultStream());
+
+        StreamInfo audio = info.getStreams().get(1);
+        assertEquals("aac", audio.getCodec());
+        assertEquals("aac (LC) (mp4a / 0x6134706D)", audio.getDecoder());
+        assertEquals(44100, audio.getSamplingRate());
+        assertEquals(2, audio.getChannels());
+        assertEquals("fltp", audio.getSampleFormat());
+        // The average bit rate of the esds
+        assertEquals(128000, audio.getBitRate());
+    }
+
+    @Test
+    public void probe_wav() throws Exception {
+        // 1.005 s of 16 bits stereo at 44100 Hz
+        int dataSize = 177284;
+        Bytes wav = new Bytes().fourcc("RIFF").int32le(4 + 8 + 6 + 8 + 16 + 8 + dataSize).fourcc("WAVE")
+                // An odd sized chunk, padded to the word
+                .fourcc("LIST").int32le(5).zeros(6)
+                .fourcc("fmt ").int32le(16).int16le(1).int16le(2).int32le(44100).int32le(176400)
+                .int16le(4).int16le(16)
+                .fourcc("data").int32le(dataSize).zeros(dataSize);
+        MediaInfo info = probe(wav.toByteArray());
+
+        assertEquals("wav", info.getFormat());
+        assertEquals(1010, info.getDuration());
+        StreamInfo audio = info.getStreams().get(0);
+        assertEquals("pcm_s16le", audio.getCodec());
+        assertEquals("pcm_s16le ([1][0][0][0] / 0x0001)", audio.getDecoder());
+        assertEquals("s16", audio.getSampleFormat());
+        assertEquals(44100, audio.getSamplingRate());
+        assertEquals(2, audio.getChannels());
+        assertEquals(1411000, audio.getBitRate());
+    }
+
+    @Test
+    public void probe_mp3Xing() throws Exception {
+        Bytes mp3 = new Bytes().int32(MP3_HEADER).zeros(32)
+                // Frame count flag
+                .fourcc("Xing").int32(1).int32(1001)
+                .zeros(MP3_FRAME_LENGTH - 4 - 32 - 12);
+        MediaInfo info = probe(frames(mp3, 1001).toByteArray());
+        assertMp3(info);
+        // 1001 frames of 1152 samples
+        assertEquals(26150, info.getDuration());
+    }
+
+    @Test
+    public void probe_mp3Vbri() throws Exception {
+        Bytes mp3 = new Bytes().int32(MP3_HEADER).zeros(32)
+                .fourcc("VBRI").int16(1).int16(0).int16(75).int32(1001 * MP3_FRAME_LENGTH).int32(1001)
+                .zeros(MP3_FRAME_LENGTH - 4 - 32 - 18);
+        MediaInfo info = probe(frames(mp3, 1001).toByteArray());
+        assertMp3(info);
+        assertEquals(26150, info.getDuration());
+    }
+
+    @Test
+    public void probe_mp3ConstantBitRate() throws Exception {
+        byte[] title = new Bytes().fourcc("TIT2").int32(5).int16(0).int8(0).fourcc("Song").toByteArray();
+        Bytes mp3 = new Bytes().id3(title);
+        MediaInfo info = probe(frames(mp3, 13).toByteArray());
+        assertMp3(info);
+        assertEquals(128000, info.getAudio().getBitRate());
+        // 13 frames of 417 bytes at 128 kb/s, 0.3388 s
+        assertEquals(340, info.getDuration());
+    }
+
+    @Test
+    public void probe_mp3WithPictureIsLeftToFfmpeg() throws Exception {
+        Bytes apic = new Bytes().int8(0).ascii("image/jpeg").int8(0).int8(3).int8(0)
+                .int16(0xffd8).zeros(64);
+        byte[] picture = apic.toByteArray();
+        byte[] frame = new Bytes().fourcc("APIC").int32(picture.length).int16(0).bytes(picture)
+                .toByteArray();
+        MediaInfo info = probe(frames(new Bytes().id3(frame), 13).toByteArray());
+        assertNull(info);
+    }
+
+    private static void assertMp3(MediaInfo info) {
+        assertEquals("mp3", info.getFormat());
+        StreamInfo audio = info.getStreams().get(0);
+        assertEquals("mp3", audio.getCodec());
+        assertEquals(44100, audio.getSamplingRate());
+        assertEquals(2, audio.getChannels());
+        assertEquals("fltp", audio.getSampleFormat());
+    }
+
+    /**
+     * Appends MP3 frames of silence.
+     */
+    private static Bytes frames(Bytes mp3, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            mp3.int32(MP3_HEADER).zeros(MP3_FRAME_LENGTH - 4);
+        }
+        return mp3;
+    }
+
+    private static byte[] trak(int flags, int timescale, int duration, String handler, byte[] sampleEntry)
+            throws IOException {
+        return box("trak",
+                box("tkhd", new Bytes().int32(flags).zeros(80)),
+                box("mdia",
+                        // Language "eng", packed in 5 bits per letter
+                        box("mdhd", new Bytes().int32(0).int32(0).int32(0).int32(timescale).int32(duration)
+                                .int16(('e' - 0x60) << 10 | ('n' - 0x60) << 5 | ('g' - 0x60)).int16(0)),
+                        box("hdlr", new Bytes().int32(0).int32(0).fourcc(handler).zeros(12).int8(0)),
+                        box("minf",
+                                box("stbl",
+                                        box("stsd", new Bytes().int32(0).int32(1).bytes(sampleEntry)),
+                                        box("stts", new Bytes().int32(0).int32(1).int32(300).int32(1001)),
+                                        box("stsz", new Bytes().int32(0).int32(1000).int32(300)),
+                                        // 64-bit chunk offsets
+                                        box("co64", new Bytes().int32(0).int32(1).int64(36))))));
+    }
+
+    private static byte[] avc1() throws IOException {
+        byte[] avcc = box("avcC", new Bytes().int8(1).int8(100).int8(0).int8(31).int8(0xff).int8(0xe0)
+                .int8(0));
+        return box("avc1", new Bytes().zeros(6).int16(1).zeros(16).int16(1280).int16(720)
+                .int32(0x480000).int32(0x480000).int32(0).int16(1).zeros(32).int16(0x18).int16(-1)
+                .bytes(avcc));
+    }
+
+    private static byte[] mp4a() throws IOException {
+        // ES descriptor, decoder config (AAC, 128 kb/s), AAC LC 44100 Hz stereo
+        Bytes descriptors = new Bytes()
+                .int8(0x03).int8(25).int16(0).int8(0)
+                .int8(0x04).int8(17).int8(0x40).int8(0x15).zeros(3).int32(128000).int32(128000)
+                .int8(0x05).int8(2).int8(0x12).int8(0x10)
+                .int8(0x06).int8(1).int8(0x02);
+        byte[] esds = box("esds", new Bytes().int32(0).bytes(descriptors.toByteArray()));
+        return box("mp4a", new Bytes().zeros(6).int16(1).int16(0).int16(0).int32(0).int16(2).int16(16)
+                .int16(0).int16(0).int32(44100 << 16).bytes(esds));
+    }
+
+    private static byte[] box(String type, Bytes content) throws IOException {
+        return box(type, content.toByteArray());
+    }
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        Bytes content = new Bytes();
+        for (byte[] child : children) {
+            content.bytes(child);
+        }
+        byte[] bytes = content.toByteArray();
+        return new Bytes().int32(8 + bytes.length).fourcc(type).bytes(bytes).toByteArray();
+    }
+
+    private static MediaInfo probe(byte[]... parts) throws IOException {
+        File file = File.createTempFile("probe", ".bin");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                for (byte[] part : parts) {
+                    output.write(part);
+                }
+            } finally {
+                output.close();
+            }
+            return new HeaderMediaProber().probe(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A big-endian byte writer, with little-endian values for the RIFF
+     * chunks.
+     */
+    private static class Bytes {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        Bytes int8(int value) throws IOException {
+            output.writeByte(value);
+            return this;
+        }
+
+        Bytes int16(int value) throws IOException {
+            output.writeShort(value);
+            return this;
+        }
+
+        Bytes int32(int value) throws IOException {
+            output.writeInt(value);
+            return this;
+        }
+
+        Bytes int64(long value) throws IOException {
+            output.writeLong(value);
+            return this;
+        }
+
+        Bytes int16le(int value) throws IOException {
+            output.writeShort(Short.reverseBytes((short) value));
+            return this;
+        }
+
+        Bytes int32le(int value) throws IOException {
+            output.writeInt(Integer.reverseBytes(value));
+            return this;
+        }
+
+        Bytes fourcc(String type) throws IOException {
+            output.writeBytes(type);
+            return this;
+        }
+
+        Bytes ascii(String text) throws IOException {
+            output.writeBytes(text);
+            return this;
+        }
+
+        Bytes zeros(int count) throws IOException {
+            output.write(new byte[count]);
+            return this;
+        }
+
+        Bytes bytes(byte[] data) throws IOException {
+            output.write(data);
+            return this;
+        }
+
+        /**
+         * Writes an ID3v2.3 tag of one frame.
+         */
+        Bytes id3(byte[] frame) throws IOException {
+            int size = frame.length;
+            ascii("ID3").int8(3).int8(0).int8(0)
+                    .int8(size >> 21 & 0x7f).int8(size >> 14 & 0x7f).int8(size >> 7 & 0x7f).int8(size & 0x7f);
+            return bytes(frame);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.rkgroup.videoconverter;
+
+import com.rkgroup.videoconverter.exceptions.InputFormatException;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses captured ffmpeg -i outputs with {@link ProbeOutputParser}.
+ */
+public class ProbeOutputParserTest {
+
+    private static final String MULTI_AUDIO = ""
+            + "ffmpeg version 4.3.1 Copyright (c) 2000-2020 the FFmpeg developers\n"
+            + "  built with gcc 10.2.0 (GCC)\n"
+            + "Input #0, matroska,webm, from '/sdcard/movie.mkv':\n"
+            + "  Metadata:\n"
+            + "    encoder         : libebml v1.3.10 + libmatroska v1.5.2\n"
+            + "  Duration: 01:52:03.48, start: 0.000000, bitrate: 5127 kb/s\n"
+            + "    Chapter #0:0: start 0.000000, end 600.000000\n"
+            + "      Metadata:\n"
+            + "        title           : Chapter 1\n"
+            + "    Stream #0:0(eng): Video: h264 (High), yuv420p(tv, bt709, progressive), 1920x800 "
+            + "[SAR 1:1 DAR 12:5], 23.98 fps, 23.98 tbr, 1k tbn, 47.95 tbc (default)\n"
+            + "    Stream #0:1(eng): Audio: ac3, 48000 Hz, 5.1(side), fltp, 640 kb/s (default)\n"
+            + "    Stream #0:2(fre): Audio: aac (LC), 44100 Hz, stereo, fltp (forced)\n"
+            + "    Stream #0:3(eng): Subtitle: subrip\n"
+            + "    Stream #0:4(spa): Subtitle: subrip (default) (forced)\n"
+            + "At least one output file must be specified\n";
+
+    private static final String MP4 = ""
+            + "Input #0, mov,mp4,m4a,3gp,3g2,mj2, from '/sdcard/DCIM/clip.mp4':\n"
+            + "  Metadata:\n"
+            + "    major_brand     : isom\n"
+            + "    creation_time   : 2020-08-14T10:21:33.000000Z\n"
+            + "  Duration: 00:00:42.07, start: 0.021333, bitrate: 2632 kb/s\n"
+            + "    Stream #0:0(und): Video: h264 (Main) (avc1 / 0x31637661), yuv420p, 1280x720 "
+            + "[SAR 1:1 DAR 16:9], 2500 kb/s, 29.97 fps, 29.97 tbr, 30k tbn, 59.94 tbc (default)\n"
+            + "    Metadata:\n"
+            + "      handler_name    : VideoHandler\n"
+            + "    Stream #0:1(und): Audio: aac (LC) (mp4a / 0x6134706D), 48000 Hz, mono, fltp, "
+            + "128 kb/s (default)\n";
+
+    private static final String NO_BIT_RATE = ""
+            + "Input #0, matroska,webm, from 'stream.webm':\n"
+            + "  Metadata:\n"
+            + "    ENCODER         : Lavf58.29.100\n"
+            + "  Duration: N/A, start: 0.000000, bitrate: N/A\n"
+            + "    Stream #0:0: Video: vp9 (Profile 0), yuv420p(tv), 1280x720, SAR 1:1 DAR 16:9, "
+            + "30 fps, 30 tbr, 1k tbn, 1k tbc (default)\n"
+            + "    Stream #0:1: Audio: opus, 48000 Hz, 6 channels, fltp (default)\n";
+
+    private static final String ATTACHED_PIC = ""
+            + "Input #0, mp3, from 'song.mp3':\n"
+            + "  Metadata:\n"
+            + "    title           : Song\n"
+            + "    artist          : Artist\n"
+            + "  Duration: 00:03:45.23, start: 0.025057, bitrate: 321 kb/s\n"
+            + "    Stream #0:0: Audio: mp3, 44100 Hz, stereo, fltp, 320 kb/s\n"
+            + "    Stream #0:1: Video: mjpeg (Baseline), yuvj420p(pc, bt470bg/unknown/unknown), "
+            + "500x500 [SAR 1:1 DAR 1:1], 90k tbr, 90k tbn, 90k tbc (attached pic)\n"
+            + "    Metadata:\n"
+            + "      comment         : Cover (front)\n";
+
+    private static final Pattern DISPOSITION_PATTERN = Pattern.compile(" \\((?:default|forced|attached pic)\\)");
+
+    private static final String[] OUTPUTS = {MULTI_AUDIO, MP4, NO_BIT_RATE, ATTACHED_PIC};
+
+    @Test
+    public void parse_multipleAudioAndSubtitles() throws Exception {
+        MediaInfo info = parse(MULTI_AUDIO);
+        assertEquals("matroska", info.getFormat());
+        assertEquals(6723480, info.getDuration());
+        assertEquals(0f, info.getStartTime(), 0f);
+        assertEquals(5, info.getStreams().size());
+        assertEquals(1, info.getVideoStreamCount());
+        assertEquals(2, info.getAudioStreamCount());
+        assertEquals(2, info.getSubtitleStreamCount());
+
+        StreamInfo video = info.getStreams().get(0);
+        assertEquals("h264", video.getCodec());
+        assertEquals("h264 (High)", video.getDecoder());
+        assertEquals("yuv420p", video.getPixelFormat());
+        assertEquals(1920, video.getSize().getWidth());
+        assertEquals(800, video.getSize().getHeight());
+        assertEquals(23.98f, video.getFrameRate(), 0f);
+        assertEquals("eng", video.getLanguage());
+        assertTrue(video.isDefaultStream());
+
+        List<StreamInfo> audio = info.getStreams(StreamInfo.Type.AUDIO);
+        assertEquals(1, audio.get(0).getIndex());
+        assertEquals("ac3", audio.get(0).getCodec());
+        assertEquals(48000, audio.get(0).getSamplingRate());
+        assertEquals(6, audio.get(0).getChannels());
+        assertEquals("fltp", audio.get(0).getSampleFormat());
+        assertEquals(640000, audio.get(0).getBitRate());
+        assertTrue(audio.get(0).isDefaultStream());
+        assertEquals("aac (LC)", audio.get(1).getDecoder());
+        assertEquals(44100, audio.get(1).getSamplingRate());
+        assertEquals(2, audio.get(1).getChannels());
+        assertEquals(-1, audio.get(1).getBitRate());
+        assertEquals("fre", audio.get(1).getLanguage());
+        assertFalse(audio.get(1).isDefaultStream());
+        // The first audio stream is the one reported
+        assertEquals(48000, info.getAudio().getSamplingRate());
+
+        List<StreamInfo> subtitles = info.getStreams(StreamInfo.Type.SUBTITLE);
+        assertEquals("subrip", subtitles.get(0).getDecoder());
+        assertFalse(subtitles.get(0).isDefaultStream());
+        assertEquals("subrip", subtitles.get(1).getDecoder());
+        assertEquals("spa", subtitles.get(1).getLanguage());
+        assertTrue(subtitles.get(1).isDefaultStream());
+    }
+
+    @Test
+    public void parse_streamBitRatesAndCodecTags() throws Exception {
+        MediaInfo info = parse(MP4);
+        assertEquals("mov", info.getFormat());
+        assertEquals(42070, info.getDuration());
+        assertEquals(0.021333f, info.getStartTime(), 0f);
+
+        StreamInfo video = info.getStreams().get(0);
+        assertEquals("h264", video.getCodec());
+        assertEquals("h264 (Main) (avc1 / 0x31637661)", video.getDecoder());
+        assertEquals(2500000, video.getBitRate());
+        assertEquals(29.97f, video.getFrameRate(), 0f);
+        // und is no language
+        assertNull(video.getLanguage());
+        assertEquals(2500000, info.getVideo().getBitRate());
+
+        StreamInfo audio = info.getStreams().get(1);
+        assertEquals("aac", audio.getCodec());
+        assertEquals(1, audio.getChannels());
+        assertEquals(128000, audio.getBitRate());
+        assertTrue(audio.isDefaultStream());
+    }
+
+    @Test
+    public void parse_unavailableDurationAndBitRates() throws Exception {
+        MediaInfo info = parse(NO_BIT_RATE);
+        assertEquals("matroska", info.getFormat());
+        assertEquals(-1, info.getDuration());
+        assertEquals(0f, info.getStartTime(), 0f);
+
+        StreamInfo video = info.getStreams().get(0);
+        assertEquals("vp9", video.getCodec());
+        assertEquals(1280, video.getSize().getWidth());
+        assertEquals(720, video.getSize().getHeight());
+        assertEquals(30f, video.getFrameRate(), 0f);
+        assertEquals(-1, video.getBitRate());
+
+        StreamInfo audio = info.getStreams().get(1);
+        assertEquals("opus", audio.getCodec());
+        assertEquals(6, audio.getChannels());
+        assertEquals(-1, audio.getBitRate());
+        assertEquals(-1, info.getAudio().getBitRate());
+    }
+
+    @Test
+    public void parse_attachedPicture() throws Exception {
+        MediaInfo info = parse(ATTACHED_PIC);
+        assertEquals("mp3", info.getFormat());
+        assertEquals(225230, info.getDuration());
+        assertEquals(2, info.getStreams().size());
+        assertEquals(320000, info.getAudio().getBitRate());
+        assertEquals(2, info.getAudio().getChannels());
+
+        StreamInfo picture = info.getStreams().get(1);
+        assertEquals(StreamInfo.Type.VIDEO, picture.getType());
+        assertEquals("mjpeg (Baseline)", picture.getDecoder());
+        assertEquals("yuvj420p", picture.getPixelFormat());
+        assertEquals(500, picture.getSize().getWidth());
+        // 90k tbr is not a frame rate
+        assertEquals(-1f, picture.getFrameRate(), 0f);
+        assertFalse(picture.isDefaultStream());
+    }
+
+    @Test(expected = InputFormatException.class)
+    public void parse_unreadableSource() throws Exception {
+        ProbeOutputParser.parse("song.mp3", reader(
+                "song.mp3: Invalid data found when processing input\n"));
+    }
+
+    @Test
+    public void parse_leavesTheProgressLine() throws Exception {
+        RKBufferedReader reader = reader(MP4
+                + "Stream mapping:\n"
+                + "  Stream #0:0 -> #0:0 (h264 (native) -> h264 (libx264))\n");
+        MediaInfo info = ProbeOutputParser.parse("clip.mp4", reader);
+        assertEquals(2, info.getStreams().size());
+
+        reader = reader(MP4 + "frame=  120 fps= 60 q=28.0 size=     256kB time=00:00:04.00\n");
+        ProbeOutputParser.parse("clip.mp4", reader);
+        assertTrue(reader.readLine().startsWith("frame="));
+    }
+
+    @Test
+    public void parse_sameAsRegexParser() throws Exception {
+        // The parser replaced these regular expressions, with the same result.
+        // They left the disposition flags in the last token of a stream, read
+        // as the decoder or the sample format: they parse the output without
+        // them, and the default flag is compared on the original output
+        for (String output : OUTPUTS) {
+            MediaInfo expected = RegexProbeOutputParser.parse("source",
+                    reader(DISPOSITION_PATTERN.matcher(output).replaceAll("")));
+            MediaInfo flagged = RegexProbeOutputParser.parse("source", reader(output));
+            MediaInfo info = parse(output);
+            int input = output.indexOf("Input #0");
+            String source = output.substring(input, output.indexOf('\n', input));
+            assertEquals(source, expected.getFormat(), info.getFormat());
+            assertEquals(source, expected.getDuration(), info.getDuration());
+            assertEquals(source, expected.getStartTime(), info.getStartTime());
+            assertEquals(source, expected.getStreams().size(), info.getStreams().size());
+            for (int i = 0; i < info.getStreams().size(); i++) {
+                String stream = source + " #" + i;
+                assertSameStream(stream, expected.getStreams().get(i), info.getStreams().get(i));
+                assertEquals(stream, flagged.getStreams().get(i).isDefaultStream(),
+                        info.getStreams().get(i).isDefaultStream());
+            }
+        }
+    }
+
+    private static void assertSameStream(String stream, StreamInfo expected, StreamInfo info) {
+        assertEquals(stream, expected.getIndex(), info.getIndex());
+        assertEquals(stream, expected.getType(), info.getType());
+        assertEquals(stream, expected.getCodec(), info.getCodec());
+        assertEquals(stream, expected.getDecoder(), info.getDecoder());
+        assertEquals(stream, expected.getPixelFormat(), info.getPixelFormat());
+        assertEquals(stream, expected.getSampleFormat(), info.getSampleFormat());
+        if (expected.getSize() == null) {
+            assertNull(stream, info.getSize());
+        } else {
+            assertEquals(stream, expected.getSize().getWidth(), info.getSize().getWidth());
+            assertEquals(stream, expected.getSize().getHeight(), info.getSize().getHeight());
+        }
+        assertEquals(stream, expected.getFrameRate(), info.getFrameRate(), 0f);
+        assertEquals(stream, expected.getBitRate(), info.getBitRate());
+        assertEquals(stream, expected.getSamplingRate(), info.getSamplingRate());
+        assertEquals(stream, expected.getChannels(), info.getChannels());
+        assertEquals(stream, expected.getLanguage(), info.getLanguage());
+    }
+
+    private static MediaInfo parse(String output) throws Exception {
+        return ProbeOutputParser.parse("source", reader(output));
+    }
+
+    private static RKBufferedReader reader(String output) {
+        return new RKBufferedReader(new StringReader(output));
+    }
+}
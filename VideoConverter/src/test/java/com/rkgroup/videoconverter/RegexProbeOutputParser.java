@@ -0,0 +1,213 @@
+package com.rkgroup.videoconverter;
+
+import com.rkgroup.videoconverter.exceptions.EncoderError;
+import com.rkgroup.videoconverter.exceptions.InputFormatException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expressions parser of the ffmpeg -i output that
+ * {@link ProbeOutputParser} replaced, kept to compare the two results. Its
+ * logging of every line is left out.
+ */
+final class RegexProbeOutputParser {
+
+    private static final Pattern SIZE_PATTERN = Pattern.compile(
+            "(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FRAME_RATE_PATTERN = Pattern.compile(
+            "([\\d.]+)\\s+(?:fps|tbr)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BIT_RATE_PATTERN = Pattern.compile(
+            "(\\d+)\\s+kb/s", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SAMPLING_RATE_PATTERN = Pattern.compile(
+            "(\\d+)\\s+Hz", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CHANNELS_PATTERN = Pattern.compile(
+            "^(mono|stereo|quad|(\\d+)\\.(\\d+)(?:\\(\\w+\\))?|(\\d+) channels.*)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SAMPLE_FORMAT_PATTERN = Pattern.compile(
+            "^(?:u8|s16|s32|s64|flt|dbl)p?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PIXEL_FORMAT_PATTERN = Pattern.compile(
+            "^([a-z][a-z0-9_]*)(?:\\(.*)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern START_PATTERN = Pattern.compile(
+            "start: (-?[\\d.]+)", Pattern.CASE_INSENSITIVE);
+
+    private RegexProbeOutputParser() {
+    }
+
+    static MediaInfo parse(String source, RKBufferedReader reader)
+            throws InputFormatException, EncoderError {
+        Pattern p1 = Pattern.compile("^\\s*Input #0, (\\w+).+$\\s*",
+                Pattern.CASE_INSENSITIVE);
+        Pattern p21 = Pattern.compile(
+                "^\\s*Duration:.*$",
+                Pattern.CASE_INSENSITIVE);
+        Pattern p22 = Pattern.compile(
+                "^\\s*Duration: (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d\\d).*$",
+                Pattern.CASE_INSENSITIVE);
+        Pattern p3 = Pattern.compile(
+                "^\\s*Stream #\\d+:(\\d+)(?:\\[\\w+\\])?(?:\\((\\w+)\\))?(?:\\[\\w+\\])?: "
+                        + "((?:Audio)|(?:Video)|(?:Subtitle)|(?:Data)): (.*)\\s*$",
+                Pattern.CASE_INSENSITIVE);
+        MediaInfo info = null;
+        try {
+            int step = 0;
+            while (true) {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                switch (step) {
+                    case 0: {
+                        String token = source + ": ";
+                        if (line.startsWith(token)) {
+                            throw new InputFormatException(line.substring(token.length()));
+                        }
+                        Matcher m = p1.matcher(line);
+                        if (m.matches()) {
+                            info = new MediaInfo();
+                            info.setFormat(m.group(1));
+                            step++;
+                        }
+                        break;
+                    }
+                    case 1: {
+                        Matcher m1 = p21.matcher(line);
+                        Matcher m2 = p22.matcher(line);
+                        if (m1.matches()) {
+                            if (m2.matches()) {
+                                long hours = Integer.parseInt(m2.group(1));
+                                long minutes = Integer.parseInt(m2.group(2));
+                                long seconds = Integer.parseInt(m2.group(3));
+                                long dec = Integer.parseInt(m2.group(4));
+                                info.setDuration((dec * 10L) + (seconds * 1000L)
+                                        + (minutes * 60L * 1000L) + (hours * 60L * 60L * 1000L));
+                            }
+                            Matcher m3 = START_PATTERN.matcher(line);
+                            if (m3.find()) {
+                                info.setStartTime(Float.parseFloat(m3.group(1)));
+                            }
+                            step++;
+                        }
+                        break;
+                    }
+                    case 2: {
+                        Matcher m = p3.matcher(line);
+                        if (m.matches()) {
+                            info.addStream(parseStream(Integer.parseInt(m.group(1)), m.group(2),
+                                    m.group(3), m.group(4)));
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+                if (line.startsWith("frame=")) {
+                    reader.reinsertLine(line);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new EncoderError(e);
+        }
+        if (info == null) {
+            throw new EncoderError();
+        }
+        return info;
+    }
+
+    private static StreamInfo parseStream(int index, String language, String type, String specs) {
+        StreamInfo stream = new StreamInfo(index,
+                StreamInfo.Type.valueOf(type.toUpperCase(Locale.US)));
+        if (language != null && !"und".equals(language)) {
+            stream.setLanguage(language);
+        }
+        stream.setDefaultStream(specs.contains("(default)"));
+        List<String> tokens = splitSpecs(specs);
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (i == 0) {
+                stream.setDecoder(token);
+                int space = token.indexOf(' ');
+                stream.setCodec(space > 0 ? token.substring(0, space) : token);
+                continue;
+            }
+            if (stream.getType() == StreamInfo.Type.VIDEO) {
+                Matcher m = SIZE_PATTERN.matcher(token);
+                if (m.find()) {
+                    stream.setSize(new VideoSize(Integer.parseInt(m.group(1)),
+                            Integer.parseInt(m.group(2))));
+                    continue;
+                }
+                m = FRAME_RATE_PATTERN.matcher(token);
+                if (m.find()) {
+                    if (stream.getFrameRate() < 0) {
+                        try {
+                            stream.setFrameRate(Float.parseFloat(m.group(1)));
+                        } catch (NumberFormatException e) {
+                            // Ignored
+                        }
+                    }
+                    continue;
+                }
+                m = PIXEL_FORMAT_PATTERN.matcher(token);
+                if (i == 1 && m.matches()) {
+                    stream.setPixelFormat(m.group(1));
+                    continue;
+                }
+            } else if (stream.getType() == StreamInfo.Type.AUDIO) {
+                Matcher m = SAMPLING_RATE_PATTERN.matcher(token);
+                if (m.find()) {
+                    stream.setSamplingRate(Integer.parseInt(m.group(1)));
+                    continue;
+                }
+                m = CHANNELS_PATTERN.matcher(token);
+                if (m.matches()) {
+                    String layout = m.group(1);
+                    if ("mono".equalsIgnoreCase(layout)) {
+                        stream.setChannels(1);
+                    } else if ("stereo".equalsIgnoreCase(layout)) {
+                        stream.setChannels(2);
+                    } else if ("quad".equalsIgnoreCase(layout)) {
+                        stream.setChannels(4);
+                    } else if (m.group(2) != null) {
+                        stream.setChannels(Integer.parseInt(m.group(2)) + Integer.parseInt(m.group(3)));
+                    } else {
+                        stream.setChannels(Integer.parseInt(m.group(4)));
+                    }
+                    continue;
+                }
+                if (SAMPLE_FORMAT_PATTERN.matcher(token).matches()) {
+                    stream.setSampleFormat(token);
+                    continue;
+                }
+            }
+            Matcher m = BIT_RATE_PATTERN.matcher(token);
+            if (m.find()) {
+                stream.setBitRate(Integer.parseInt(m.group(1)) * 1000);
+            }
+        }
+        return stream;
+    }
+
+    private static List<String> splitSpecs(String specs) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < specs.length(); i++) {
+            char c = specs.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if ((c == ')' || c == ']') && depth > 0) {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                tokens.add(specs.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        tokens.add(specs.substring(start).trim());
+        return tokens;
+    }
+}
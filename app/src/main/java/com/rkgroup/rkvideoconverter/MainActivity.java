@@ -32,7 +32,7 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        VideoConverter.initialize(this, status -> Toast.makeText(this, String.valueOf(status), Toast.LENGTH_SHORT).show());
+        VideoConverter.initializeAsync(this, true, status -> Toast.makeText(this, String.valueOf(status), Toast.LENGTH_SHORT).show());
         rootDirectory = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
         Button button = findViewById(R.id.btn_fab);
         button.setOnClickListener(v -> {